@@ -0,0 +1,272 @@
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Boolean union of many Shapes.  Adding Shapes one at a time to an Area costs roughly the size of the growing
+ * Area each time, so combining n Shapes that way is quadratic.  Instead, the Shapes are split in half by the
+ * centers of their bounding boxes (along the wider axis) and each half is combined as a RecursiveTask on the
+ * common ForkJoinPool, so the Areas combined at each level are about the same size and near each other.
+ *
+ * The result of each task is kept as a list of "islands", which are Areas whose bounding boxes don't overlap,
+ * or even touch.  When two lists are merged only islands with overlapping bounding boxes are combined with
+ * Area.add(), so disjoint Shapes, such as the holes in a perforated panel, are never intersected.  As disjoint
+ * islands can't interact, their paths can simply be appended to each other to get the final Shape.
+ *
+ * Note: Shapes are only read by the worker threads, so callers should pass Shapes that are already built, such
+ * as those returned by CADShape.getShape(), rather than CADShapes.
+ */
+class AreaUnion {
+  private static class Island {
+    private final Area          area;
+    private final Rectangle2D   bounds;
+
+    Island (Area area) {
+      this.area = area;
+      this.bounds = area.getBounds2D();
+    }
+
+    // Inclusive test, so islands that only touch are combined into one outline
+    boolean overlaps (Rectangle2D rect) {
+      return bounds.getMinX() <= rect.getMaxX() && rect.getMinX() <= bounds.getMaxX() &&
+             bounds.getMinY() <= rect.getMaxY() && rect.getMinY() <= bounds.getMaxY();
+    }
+  }
+
+  private static class UnionTask extends RecursiveTask<List<Island>> {
+    private static final long serialVersionUID = 4913375291584227367L;
+    private final Shape[]   shapes;
+    private final double[]  cx, cy;
+    private final Integer[] items;
+
+    UnionTask (Shape[] shapes, double[] cx, double[] cy, Integer[] items) {
+      this.shapes = shapes;
+      this.cx = cx;
+      this.cy = cy;
+      this.items = items;
+    }
+
+    @Override
+    protected List<Island> compute () {
+      if (items.length == 1) {
+        List<Island> list = new ArrayList<>();
+        Area area = new Area(shapes[items[0]]);
+        if (!area.isEmpty()) {
+          list.add(new Island(area));
+        }
+        return list;
+      }
+      // Split in half along the wider axis of the spread of bounding box centers
+      double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+      for (int item : items) {
+        minX = Math.min(minX, cx[item]);
+        maxX = Math.max(maxX, cx[item]);
+        minY = Math.min(minY, cy[item]);
+        maxY = Math.max(maxY, cy[item]);
+      }
+      double[] axis = maxX - minX >= maxY - minY ? cx : cy;
+      Integer[] sorted = items.clone();
+      Arrays.sort(sorted, (a, b) -> Double.compare(axis[a], axis[b]));
+      int half = sorted.length / 2;
+      UnionTask left = new UnionTask(shapes, cx, cy, Arrays.copyOfRange(sorted, 0, half));
+      UnionTask right = new UnionTask(shapes, cx, cy, Arrays.copyOfRange(sorted, half, sorted.length));
+      left.fork();
+      List<Island> rightList = right.compute();
+      return merge(left.join(), rightList);
+    }
+  }
+
+  /*
+   * Merge two lists of islands into one list of islands
+   */
+  private static List<Island> merge (List<Island> list1, List<Island> list2) {
+    List<Island> out = new ArrayList<>(list1);
+    Rectangle2D bounds1 = getBounds(list1);
+    for (Island island : list2) {
+      if (bounds1 != null && island.overlaps(bounds1)) {
+        List<Island> overlaps = new ArrayList<>();
+        do {
+          overlaps.clear();
+          for (Island item : out) {
+            if (item.overlaps(island.bounds)) {
+              overlaps.add(item);
+            }
+          }
+          if (!overlaps.isEmpty()) {
+            // Islands in out don't overlap each other, so combine them without intersecting, then add them once
+            out.removeAll(overlaps);
+            Area area = island.area;
+            area.add(appendIslands(overlaps));
+            island = new Island(area);
+          }
+          // Repeat in case the combined bounds now overlap other islands
+        } while (!overlaps.isEmpty());
+      }
+      out.add(island);
+    }
+    return out;
+  }
+
+  private static Rectangle2D getBounds (List<Island> islands) {
+    Rectangle2D bounds = null;
+    for (Island island : islands) {
+      if (bounds == null) {
+        bounds = (Rectangle2D) island.bounds.clone();
+      } else {
+        bounds.add(island.bounds);
+      }
+    }
+    return bounds;
+  }
+
+  /*
+   * Make one Area from islands that don't overlap (appending their paths can't create any intersections)
+   */
+  private static Area appendIslands (List<Island> islands) {
+    if (islands.size() == 1) {
+      return islands.get(0).area;
+    }
+    return new Area(appendPaths(islands));
+  }
+
+  private static Path2D.Double appendPaths (List<Island> islands) {
+    Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+    for (Island island : islands) {
+      path.append(island.area, false);
+    }
+    return path;
+  }
+
+  private static List<Island> getIslands (List<? extends Shape> shapes) {
+    if (shapes.isEmpty()) {
+      return new ArrayList<>();
+    }
+    Shape[] array = shapes.toArray(new Shape[0]);
+    double[] cx = new double[array.length];
+    double[] cy = new double[array.length];
+    Integer[] items = new Integer[array.length];
+    for (int ii = 0; ii < array.length; ii++) {
+      Rectangle2D bounds = array[ii].getBounds2D();
+      cx[ii] = bounds.getCenterX();
+      cy[ii] = bounds.getCenterY();
+      items[ii] = ii;
+    }
+    return ForkJoinPool.commonPool().invoke(new UnionTask(array, cx, cy, items));
+  }
+
+  /**
+   * Combine Shapes into one Shape that encloses the union of their areas
+   * @param shapes List of Shapes
+   * @return Area, or a Path2D that appends Areas that don't overlap
+   */
+  static Shape union (List<? extends Shape> shapes) {
+    List<Island> islands = getIslands(shapes);
+    if (islands.isEmpty()) {
+      return new Area();
+    }
+    return islands.size() == 1 ? islands.get(0).area : appendPaths(islands);
+  }
+
+  /**
+   * Combine Shapes into one Area that encloses the union of their areas
+   * @param shapes List of Shapes
+   * @return Area
+   */
+  static Area unionArea (List<? extends Shape> shapes) {
+    List<Island> islands = getIslands(shapes);
+    return islands.isEmpty() ? new Area() : appendIslands(islands);
+  }
+
+  /**
+   * Subtract the union of Shapes from a base Shape (Shapes outside the base's bounding box are ignored)
+   * @param base Shape to subtract from
+   * @param shapes List of Shapes to subtract
+   * @return Area of base with all the shapes removed
+   */
+  static Area subtract (Shape base, List<? extends Shape> shapes) {
+    Area area = new Area(base);
+    Island test = new Island(area);
+    List<Shape> cutters = new ArrayList<>();
+    for (Shape shape : shapes) {
+      if (test.overlaps(shape.getBounds2D())) {
+        cutters.add(shape);
+      }
+    }
+    List<Island> islands = getIslands(cutters);
+    if (!islands.isEmpty()) {
+      area.subtract(appendIslands(islands));
+    }
+    return area;
+  }
+
+  /*
+   * Benchmark against adding (or subtracting) Shapes to an Area one at a time
+   */
+  public static void main (String[] args) {
+    for (int teeth : new int[] {100, 500}) {
+      // Gear rack made from a bar with overlapping teeth
+      List<Shape> rack = new ArrayList<>();
+      rack.add(new Rectangle2D.Double(0, 0, teeth * .2, .5));
+      for (int ii = 0; ii < teeth; ii++) {
+        Path2D.Double tooth = new Path2D.Double();
+        tooth.moveTo(ii * .2, .4);
+        tooth.lineTo(ii * .2 + .2, .4);
+        tooth.lineTo(ii * .2 + .14, .65);
+        tooth.lineTo(ii * .2 + .06, .65);
+        tooth.closePath();
+        rack.add(tooth);
+      }
+      long time = System.nanoTime();
+      Area seq = new Area();
+      for (Shape shape : rack) {
+        seq.add(new Area(shape));
+      }
+      long seqTime = System.nanoTime() - time;
+      time = System.nanoTime();
+      Area tree = new Area(union(rack));
+      long treeTime = System.nanoTime() - time;
+      seq.exclusiveOr(tree);
+      System.out.printf("Gear rack, %4d teeth: sequential %6d ms, tree %5d ms, difference %.3g sq in%n", teeth,
+                        seqTime / 1000000, treeTime / 1000000, getArea(seq));
+    }
+    for (int rows : new int[] {20, 60}) {
+      // Perforated panel with rows * rows round holes
+      Shape panel = new Rectangle2D.Double(0, 0, rows * .25, rows * .25);
+      List<Shape> holes = new ArrayList<>();
+      for (int ii = 0; ii < rows; ii++) {
+        for (int jj = 0; jj < rows; jj++) {
+          holes.add(new java.awt.geom.Ellipse2D.Double(ii * .25 + .05, jj * .25 + .05, .15, .15));
+        }
+      }
+      long time = System.nanoTime();
+      Area seq = new Area(panel);
+      for (Shape hole : holes) {
+        seq.subtract(new Area(hole));
+      }
+      long seqTime = System.nanoTime() - time;
+      time = System.nanoTime();
+      Area tree = subtract(panel, holes);
+      long treeTime = System.nanoTime() - time;
+      seq.exclusiveOr(tree);
+      System.out.printf("Perforated panel, %4d holes: sequential %6d ms, tree %5d ms, difference %.3g sq in%n",
+                        holes.size(), seqTime / 1000000, treeTime / 1000000, getArea(seq));
+    }
+  }
+
+  private static double getArea (Shape shape) {
+    double sum = 0;
+    for (Line2D.Double[] lines : Utils2D.transformShapeToLines(shape, 1.0, .001)) {
+      for (Line2D.Double line : lines) {
+        sum += line.x1 * line.y2 - line.x2 * line.y1;
+      }
+    }
+    return Math.abs(sum / 2);
+  }
+}
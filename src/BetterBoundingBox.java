@@ -4,80 +4,98 @@ import java.awt.geom.*;
 
 class BetterBoundingBox {
 
-  static Rectangle2D getBounds (Shape shape) {
-    Rectangle2D bounds = null;    // Note: must be null
-    PathIterator pi = shape.getPathIterator(null);
+  /**
+   * Compute the exact bounds of a Shape.  Unlike Path2D.getBounds2D(), which includes the control points of
+   * curves, each quad and cubic segment only adds its end point and the points where its derivative in x, or y
+   * is zero, which are found by solving the derivative's linear, or quadratic equation.
+   * @param shape Shape to measure
+   * @return bounding rectangle, or null if shape has no points
+   */
+  static Rectangle2D.Double getBounds (Shape shape) {
+    double[] crds = new double[6];
+    double[] box = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    boolean empty = true;
     double xLoc = 0, yLoc = 0;
-    double mX = 0, mY = 0;
-    while (!pi.isDone()) {
-      double[] crds = new double[6];
-      int type = pi.currentSegment(crds);
-      switch (type) {
-        case PathIterator.SEG_CLOSE:
-          assert bounds != null;
-          bounds = bounds.createUnion((new Line2D.Double(xLoc, yLoc, mX, mY)).getBounds2D());
-          break;
+    for (PathIterator pi = shape.getPathIterator(null); !pi.isDone(); pi.next()) {
+      switch (pi.currentSegment(crds)) {
         case PathIterator.SEG_MOVETO:
-          mX = xLoc = crds[0];
-          mY = yLoc = crds[1];
-          if (bounds == null) {
-            bounds = new Rectangle2D.Double(xLoc, yLoc, 0, 0);
-          } else {
-            bounds = bounds.createUnion(new Rectangle2D.Double(xLoc, yLoc, 0, 0));
-          }
-          break;
         case PathIterator.SEG_LINETO:
-          assert bounds != null;
-          bounds = bounds.createUnion((new Line2D.Double(xLoc, yLoc, xLoc = crds[0], yLoc = crds[1])).getBounds2D());
+          xLoc = crds[0];
+          yLoc = crds[1];
           break;
-        case PathIterator.SEG_CUBICTO:
-          // Decompose 4 point, cubic bezier curve into line segments
-          Point2D.Double[] tmp = new Point2D.Double[4];
-          Point2D.Double[] cControl = {
-              new Point2D.Double(xLoc, yLoc),
-              new Point2D.Double(crds[0], crds[1]),
-              new Point2D.Double(crds[2], crds[3]),
-              new Point2D.Double(crds[4], crds[5])};
-          int segmentsCubic = 6;
-          for (int ii = 0; ii < segmentsCubic; ii++) {
-            double t = ((double) ii) / (segmentsCubic - 1);
-            for (int jj = 0; jj < cControl.length; jj++)
-              tmp[jj] = new Point2D.Double(cControl[jj].x, cControl[jj].y);
-            for (int qq = 0; qq < cControl.length - 1; qq++) {
-              for (int jj = 0; jj < cControl.length - 1; jj++) {
-                // Subdivide points
-                tmp[jj].x -= (tmp[jj].x - tmp[jj + 1].x) * t;
-                tmp[jj].y -= (tmp[jj].y - tmp[jj + 1].y) * t;
+        case PathIterator.SEG_QUADTO:
+          for (int axis = 0; axis < 2; axis++) {
+            double p0 = axis == 0 ? xLoc : yLoc, p1 = crds[axis], p2 = crds[2 + axis];
+            // Derivative is 2 * ((p0 - 2 * p1 + p2) * t + (p1 - p0))
+            double div = p0 - 2 * p1 + p2;
+            if (div != 0) {
+              double t = (p0 - p1) / div;
+              if (t > 0 && t < 1) {
+                include(box, axis, (1 - t) * (1 - t) * p0 + 2 * (1 - t) * t * p1 + t * t * p2);
               }
             }
-            assert bounds != null;
-            bounds = bounds.createUnion((new Line2D.Double(xLoc, yLoc, xLoc = tmp[0].x, yLoc = tmp[0].y)).getBounds2D());
           }
+          xLoc = crds[2];
+          yLoc = crds[3];
           break;
-        case PathIterator.SEG_QUADTO:
-          // Decompose 3 point, quadratic bezier curve into line segments
-          int segmentsQuad = 5;
-          Point2D.Double start = new Point2D.Double(xLoc, yLoc);
-          Point2D.Double control = new Point2D.Double(crds[0], crds[1]);
-          Point2D.Double end = new Point2D.Double(crds[2], crds[3]);
-          double xLast = start.x;
-          double yLast = start.y;
-          for (int ii = 1; ii < segmentsQuad; ii++) {
-            // Use step as a ratio to subdivide lines
-            double step = (double) ii / segmentsQuad;
-            double x = (1 - step) * (1 - step) * start.x + 2 * (1 - step) * step * control.x + step * step * end.x;
-            double y = (1 - step) * (1 - step) * start.y + 2 * (1 - step) * step * control.y + step * step * end.y;
-            assert bounds != null;
-            bounds = bounds.createUnion((new Line2D.Double(xLast, yLast, x, y)).getBounds2D());
-            xLast = x;
-            yLast = y;
+        case PathIterator.SEG_CUBICTO:
+          for (int axis = 0; axis < 2; axis++) {
+            double p0 = axis == 0 ? xLoc : yLoc, p1 = crds[axis], p2 = crds[2 + axis], p3 = crds[4 + axis];
+            // Derivative is 3 * (a * t^2 + b * t + c)
+            double a = -p0 + 3 * p1 - 3 * p2 + p3;
+            double b = 2 * (p0 - 2 * p1 + p2);
+            double c = p1 - p0;
+            double[] roots = new double[2];
+            int num = solveQuadratic(a, b, c, roots);
+            for (int ii = 0; ii < num; ii++) {
+              double t = roots[ii];
+              if (t > 0 && t < 1) {
+                double mt = 1 - t;
+                include(box, axis, mt * mt * mt * p0 + 3 * mt * mt * t * p1 + 3 * mt * t * t * p2 + t * t * t * p3);
+              }
+            }
           }
-          bounds = bounds.createUnion((new Line2D.Double(xLast, yLast, xLoc = end.x, yLoc = end.y)).getBounds2D());
+          xLoc = crds[4];
+          yLoc = crds[5];
           break;
+        case PathIterator.SEG_CLOSE:
+          // Closing line goes back to a point that's already included
+          continue;
       }
-      pi.next();
+      include(box, 0, xLoc);
+      include(box, 1, yLoc);
+      empty = false;
+    }
+    return empty ? null : new Rectangle2D.Double(box[0], box[1], box[2] - box[0], box[3] - box[1]);
+  }
+
+  private static void include (double[] box, int axis, double val) {
+    box[axis] = Math.min(box[axis], val);
+    box[axis + 2] = Math.max(box[axis + 2], val);
+  }
+
+  /*
+   * Solve a * t^2 + b * t + c = 0 and return the number of real roots (uses the numerically stable form)
+   */
+  private static int solveQuadratic (double a, double b, double c, double[] roots) {
+    if (Math.abs(a) <= 1e-12 * (Math.abs(b) + Math.abs(c))) {
+      if (b == 0) {
+        return 0;
+      }
+      roots[0] = -c / b;
+      return 1;
+    }
+    double disc = b * b - 4 * a * c;
+    if (disc < 0) {
+      return 0;
+    }
+    double q = -0.5 * (b + Math.copySign(Math.sqrt(disc), b));
+    roots[0] = q / a;
+    if (q == 0) {
+      return 1;
     }
-    return bounds;
+    roots[1] = c / q;
+    return 2;
   }
 
   static class BetterBoundingTest extends JFrame {
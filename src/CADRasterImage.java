@@ -32,7 +32,8 @@ class CADRasterImage extends CADShape implements Serializable {
   public boolean            engrave3D, transparent;
   public String             imagePpi;
   Dimension                 ppi;
-  transient BufferedImage   img;
+  int                       imageFormat;            // 0 = PNG written after fields (older files), 1 = RasterStore.Image
+  transient RasterStore.Image image;
 
   CADRasterImage () {
     engrave = true;
@@ -107,9 +108,9 @@ class CADRasterImage extends CADShape implements Serializable {
         prefs.put("image.dir", imgFile.getAbsolutePath());
         ppi = getImageDPI(imgFile);
         imagePpi = ppi.width + "x" + ppi.height;
-        img = ImageIO.read(imgFile);
-        width = (double) img.getWidth() / ppi.width;
-        height = (double) img.getHeight() / ppi.height;
+        image = RasterStore.fromFile(imgFile);
+        width = (double) image.getWidth() / ppi.width;
+        height = (double) image.getHeight() / ppi.height;
         boolean placed = false;
         do {
           if (placeParameterDialog(surface, prefs.get("displayUnits", "in"))) {
@@ -136,8 +137,8 @@ class CADRasterImage extends CADShape implements Serializable {
 
   @Override
   protected java.util.List<String> getEditFields () {
-    width = (double) img.getWidth() / ppi.width * (scale / 100);
-    height = (double) img.getHeight() / ppi.height * (scale / 100);
+    width = (double) image.getWidth() / ppi.width * (scale / 100);
+    height = (double) image.getHeight() / ppi.height * (scale / 100);
     return Arrays.asList(
       "xLoc|in",
       "yLoc|in",
@@ -171,8 +172,8 @@ class CADRasterImage extends CADShape implements Serializable {
       JTextField hyt = (JTextField) pNames.get("height").field;
       try {
         double ratio = Double.parseDouble(val) / 100.0;
-        double rawWid = (double) img.getWidth() / ppi.width;
-        double rawHyt = (double) img.getHeight() / ppi.height;
+        double rawWid = (double) image.getWidth() / ppi.width;
+        double rawHyt = (double) image.getHeight() / ppi.height;
         wid.setText(LaserCut.df.format(rawWid * ratio));
         hyt.setText(LaserCut.df.format(rawHyt * ratio));
       } catch (NumberFormatException ex) {
@@ -191,8 +192,8 @@ class CADRasterImage extends CADShape implements Serializable {
   public void resize (double dx, double dy) {
     double newWid = dx * 2;
     double newHyt = dy * 2;
-    double rawWid = (double) img.getWidth() / ppi.width;
-    double rawHyt = (double) img.getHeight() / ppi.height;
+    double rawWid = (double) image.getWidth() / ppi.width;
+    double rawHyt = (double) image.getHeight() / ppi.height;
     double ratioX = newWid / rawWid;
     double ratioY = newHyt / rawHyt;
     double ratio = Math.min(ratioX, ratioY);
@@ -205,8 +206,8 @@ class CADRasterImage extends CADShape implements Serializable {
 
   @Override
   void updateStateAfterParameterEdit () {
-    double rawWid = (double) img.getWidth() / ppi.width;
-    double rawHyt = (double) img.getHeight() / ppi.height;
+    double rawWid = (double) image.getWidth() / ppi.width;
+    double rawHyt = (double) image.getHeight() / ppi.height;
     double ratio = scale / 100.0;
     width = rawWid * ratio;
     height = rawHyt * ratio;
@@ -214,6 +215,7 @@ class CADRasterImage extends CADShape implements Serializable {
 
   @Override
   void draw (Graphics g, double zoom, boolean keyRotate, boolean keyResize, boolean keyOption) {
+    BufferedImage img = getImage();
     Graphics2D g2 = (Graphics2D) g.create();
     BufferedImage bufimg;
     if (engrave) {
@@ -249,7 +251,7 @@ class CADRasterImage extends CADShape implements Serializable {
    * @return array of double where [0] is x scale and [1] is y scale
    */
   double[] getScale (double destPpi) {
-    return new double[]{(destPpi * width) / img.getWidth(), (destPpi * height) / img.getHeight()};
+    return new double[]{(destPpi * width) / image.getWidth(), (destPpi * height) / image.getHeight()};
   }
 
   /**
@@ -262,8 +264,8 @@ class CADRasterImage extends CADShape implements Serializable {
   Rectangle2D getScaledRotatedBounds (double[] scale) {
     AffineTransform at = new AffineTransform();
     at.scale(scale[0], scale[1]);
-    at.rotate(Math.toRadians(rotation), (double) img.getWidth() / 2, (double) img.getHeight() / 2);
-    Rectangle2D.Double rect = new Rectangle2D.Double(0, 0, img.getWidth(), img.getHeight());
+    at.rotate(Math.toRadians(rotation), (double) image.getWidth() / 2, (double) image.getHeight() / 2);
+    Rectangle2D.Double rect = new Rectangle2D.Double(0, 0, image.getWidth(), image.getHeight());
     Path2D.Double tShape = (Path2D.Double) at.createTransformedShape(rect);
     return tShape.getBounds2D();
   }
@@ -280,7 +282,7 @@ class CADRasterImage extends CADShape implements Serializable {
     AffineTransform at = new AffineTransform();
     at.translate(-bb.getX(), -bb.getY());
     at.scale(scale[0], scale[1]);
-    at.rotate(Math.toRadians(rotation), (double) img.getWidth() / 2, (double) img.getHeight() / 2);
+    at.rotate(Math.toRadians(rotation), (double) image.getWidth() / 2, (double) image.getHeight() / 2);
     return at;
   }
 
@@ -307,6 +309,7 @@ class CADRasterImage extends CADShape implements Serializable {
    * @return BufferedImage containing scaled and rotated image
    */
   BufferedImage getScaledRotatedImage (Rectangle2D bb, double[] scale) {
+    BufferedImage img = getImage();
     // Create new BufferedImage the size of the bounding for for the scaled and rotated image
     int wid = (int) Math.round(bb.getWidth());
     int hyt = (int) Math.round(bb.getHeight());
@@ -329,18 +332,41 @@ class CADRasterImage extends CADShape implements Serializable {
     return at.createTransformedShape(new Rectangle2D.Double(-width / 2, -height / 2, width, height));
   }
 
-  // Custom write serializer for BufferedImage
+  /**
+   * Note: decodes the image, if not already decoded, so use image.getWidth() and image.getHeight() for its size
+   * @return image to draw, or engrave
+   */
+  BufferedImage getImage () {
+    return image.getImage();
+  }
+
+  // Custom write serializer writes a reference to the RasterStore.Image (its encoded bytes are only written once
+  // per stream, even if many CADRasterImage objects share it, and are never re-encoded)
   private void writeObject (ObjectOutputStream out) throws IOException {
+    imageFormat = 1;
     out.defaultWriteObject();
-    ImageIO.write(img, "png", out);
+    out.writeObject(image);
   }
 
-  // Custom read serializer for BufferedImage
+  // Custom read serializer for RasterStore.Image, or for PNG encoded BufferedImage in older files (neither is
+  // decoded until the image is drawn, or engraved)
   private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
     in.defaultReadObject();
-    img = ImageIO.read(in);
-    width = (double) img.getWidth() / ppi.width * (scale / 100);
-    height = (double) img.getHeight() / ppi.height * (scale / 100);
+    if (imageFormat == 0) {
+      image = RasterStore.readPng(in);
+    } else {
+      image = (RasterStore.Image) in.readObject();
+    }
+    setImage(image);
+  }
+
+  /*
+   * Set image and update width and height to match its size (also used by LzrFile)
+   */
+  void setImage (RasterStore.Image image) {
+    this.image = image;
+    width = (double) image.getWidth() / ppi.width * (scale / 100);
+    height = (double) image.getHeight() / ppi.height * (scale / 100);
   }
 
   @Override
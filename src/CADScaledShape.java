@@ -31,7 +31,7 @@ class CADScaledShape extends CADShape implements Serializable {
 
   // Translate Shape to screen position
   @Override
-  protected Shape getWorkspaceTranslatedShape () {
+  protected Shape buildWorkspaceTranslatedShape () {
     AffineTransform at = new AffineTransform();
     at.translate(xLoc, yLoc);
     at.scale(scale / 100.0, scale / 100.0);
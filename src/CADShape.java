@@ -81,8 +81,14 @@ class CADShape implements Serializable {
   CADShapeGroup             group;
   Shape                     shape;
   static final Color        DRAG_COLOR = new Color(238, 54, 199);
+  static final ToolpathCache toolpaths = new ToolpathCache(1000000);
   transient Shape           builtShape;
   transient boolean         isSelected, inGroup, dragged;
+  transient int             geometryVersion;        // Bumped whenever the shape's outline, position or rotation changes
+  private transient Shape   cachedBase, cachedLocalShape, cachedWorkShape;
+  private transient int     cachedVersion;
+  private transient Rectangle2D.Double cachedShapeBounds, cachedWorkBounds;
+  private transient double  cachedX, cachedY, cachedRotation;
   transient List<LaserCut.ChangeListener> changeSubscribers;
 
   /**
@@ -109,6 +115,13 @@ class CADShape implements Serializable {
     setLocationAndOrientation(xLoc, yLoc, rotation);
   }
 
+  /**
+   * Called by LzrFile after all shapes in a file are loaded and their references resolved, so subclasses can
+   * restore transient state, as they would in a custom readObject() method
+   */
+  void readFinished () {
+  }
+
   // Override in subclasses such as CADRasterImage and CADShapeSpline
   void createAndPlace (DrawSurface surface, LaserCut laserCut, Preferences prefs) {
     if (placeParameterDialog(surface, prefs.get("displayUnits", "in"))) {
@@ -128,6 +141,12 @@ class CADShape implements Serializable {
     changeSubscribers.add(subscriber);
   }
 
+  void removeChangeListener (LaserCut.ChangeListener subscriber) {
+    if (changeSubscribers != null) {
+      changeSubscribers.remove(subscriber);
+    }
+  }
+
   void notifyChangeListeners () {
     if (changeSubscribers != null) {
       for (LaserCut.ChangeListener subscriber : changeSubscribers) {
@@ -140,15 +159,53 @@ class CADShape implements Serializable {
     this.xLoc = xLoc;
     this.yLoc = yLoc;
     this.rotation = rotation;
+    bumpGeometryVersion();
+  }
+
+  /**
+   * Invalidates the cached workspace geometry returned by getLocallyTransformedShape() and
+   * getWorkspaceTranslatedShape().  Called by setPosition(), updateShape(), rotateShape() and resizeShape(),
+   * so subclasses only need to call it directly when they change geometry without calling updateShape().
+   */
+  void bumpGeometryVersion () {
+    geometryVersion++;
+  }
+
+  int getGeometryVersion () {
+    return geometryVersion;
   }
 
   /**
-   * Get absolute bounds of cadShape in workspace coords
+   * Get exact bounds of the cadShape returned by getShape() (not including the control points of curves)
+   * Note: cached until the geometry version changes, so each call returns a new copy the caller can modify
    *
-   * @return absolute bounding rectangle
+   * @return bounding rectangle
    */
   Rectangle2D.Double getShapeBounds () {
-    return (Rectangle2D.Double) getShape().getBounds2D();
+    validateGeometryCache();
+    if (cachedShapeBounds == null) {
+      cachedShapeBounds = getExactBounds(getShape());
+    }
+    return (Rectangle2D.Double) cachedShapeBounds.clone();
+  }
+
+  /**
+   * Get exact bounds of cadShape in workspace coords, which is the bounds of getWorkspaceTranslatedShape()
+   * Note: cached until the geometry version changes, so each call returns a new copy the caller can modify
+   *
+   * @return absolute bounding rectangle
+   */
+  Rectangle2D.Double getWorkspaceBounds () {
+    validateGeometryCache();
+    if (cachedWorkBounds == null) {
+      cachedWorkBounds = getExactBounds(getWorkspaceTranslatedShape());
+    }
+    return (Rectangle2D.Double) cachedWorkBounds.clone();
+  }
+
+  private static Rectangle2D.Double getExactBounds (Shape shape) {
+    Rectangle2D.Double bounds = BetterBoundingBox.getBounds(shape);
+    return bounds != null ? bounds : new Rectangle2D.Double();
   }
 
   /**
@@ -208,10 +265,29 @@ class CADShape implements Serializable {
    * This reduces the size of saved files as only the parameters that define the Shape need to be saved and loaded.
    * buildShape() is also called to regenerate a Shape's outline after any of its parameters are edited.
    * Note: not all Shapes are built from parameters, however.  See buildShape() for details.
+   * Note: the returned Shape is cached until the geometry version changes, so callers must not modify it
    *
    * @return translated Shape
    */
   protected Shape getLocallyTransformedShape () {
+    validateGeometryCache();
+    if (cachedLocalShape == null) {
+      cachedLocalShape = buildLocallyTransformedShape();
+    }
+    return cachedLocalShape;
+  }
+
+  // Translate Shape to Workspace position (cached, so callers must not modify the returned Shape)
+  protected Shape getWorkspaceTranslatedShape () {
+    validateGeometryCache();
+    if (cachedWorkShape == null) {
+      cachedWorkShape = buildWorkspaceTranslatedShape();
+    }
+    return cachedWorkShape;
+  }
+
+  // Override in subclass to change how the Shape is rotated into local coordinates
+  protected Shape buildLocallyTransformedShape () {
     Shape dShape = getShape();
     AffineTransform at = new AffineTransform();
     // Position Shape centered on xLoc/yLoc in inches (x from left, y from top)
@@ -219,13 +295,34 @@ class CADShape implements Serializable {
     return at.createTransformedShape(dShape);
   }
 
-  // Translate Shape to Workspace position
-  protected Shape getWorkspaceTranslatedShape () {
+  // Override in subclass to change how the Shape is translated to its workspace position
+  protected Shape buildWorkspaceTranslatedShape () {
     Shape shape = getLocallyTransformedShape();
     AffineTransform at = AffineTransform.getTranslateInstance(xLoc, yLoc);
     return at.createTransformedShape(shape);
   }
 
+  /**
+   * Discards the cached local and workspace Shapes if the geometry version has changed.  Also checks the
+   * public xLoc, yLoc and rotation fields, and the identity of the Shape returned by getShape(), as these
+   * can be changed directly (by reflection in the parameter dialog, or by subclasses that swap outlines)
+   */
+  private void validateGeometryCache () {
+    Shape base = getShape();
+    if (cachedVersion != geometryVersion || cachedBase != base || cachedX != xLoc || cachedY != yLoc ||
+        cachedRotation != rotation) {
+      cachedLocalShape = null;
+      cachedWorkShape = null;
+      cachedShapeBounds = null;
+      cachedWorkBounds = null;
+      cachedBase = base;
+      cachedVersion = geometryVersion;
+      cachedX = xLoc;
+      cachedY = yLoc;
+      cachedRotation = rotation;
+    }
+  }
+
   /**
    * Use PathIterator to find coordinates where drawing will start for this shape
    * Note: used by PathPlanner to optimise overall cutting path
@@ -240,14 +337,40 @@ class CADShape implements Serializable {
   }
 
   /**
-   * Transform cadShape to workspace and return as list of arrays of line segments where each array
-   * in the list is the set of lines for a closed cadShape.
+   * Transform cadShape to workspace and flatten it into Polylines where each contour is the set of connected
+   * points for a closed cadShape.  Results are cached in toolpaths, so callers must not modify them.
    *
    * @param scale scale factor
-   * @return list of arrays of line segments
+   * @param flatten controls how closely the line segments follow the curve (smaller is closer)
+   * @return Polylines for the flattened cadShape
    */
-  List<Line2D.Double[]> getListOfScaledLines (double scale, double flatten) {
-    return Utils2D.transformShapeToLines(getWorkspaceTranslatedShape(), scale, flatten);
+  Polylines getScaledPolylines (double scale, double flatten) {
+    return toolpaths.get(this, scale, flatten);
+  }
+
+  /**
+   * Like getScaledPolylines(), but moves the toolpath of a closed cut shape outward by half the width of the cut
+   * made by the laser so the part comes out at the designed size, or inward, if the shape is a hole cut in another
+   * part (see PathPlanner.getNestingDepths()).  Holes inside a single shape's outline are shrunk by the same amount.
+   * Engraved shapes and shapes with open contours are not changed.  Results are cached in toolpaths.
+   *
+   * @param kerf width of cut (in inches), or 0 for no compensation
+   * @param hole true if shape is a hole in another shape
+   * @param scale scale factor
+   * @param flatten controls how closely the line segments follow the curve (smaller is closer)
+   * @return Polylines for the flattened, kerf compensated cadShape
+   */
+  Polylines getKerfCompensatedPolylines (double kerf, boolean hole, double scale, double flatten) {
+    Polylines poly = getScaledPolylines(scale, flatten);
+    if (kerf <= 0 || engrave) {
+      return poly;
+    }
+    for (int cc = 0; cc < poly.getContourCount(); cc++) {
+      if (!poly.isClosed(cc)) {
+        return poly;
+      }
+    }
+    return toolpaths.get(this, scale, flatten, hole ? -kerf / 2 : kerf / 2);
   }
 
   /**
@@ -358,6 +481,7 @@ class CADShape implements Serializable {
   void setPosition (double newX, double newY) {
     xLoc = newX;
     yLoc = newY;
+    bumpGeometryVersion();
     notifyChangeListeners();
   }
 
@@ -403,23 +527,18 @@ class CADShape implements Serializable {
     // Scale Shape to Screen scale and scan all line segments in the cadShape
     Shape lShape = getWorkspaceTranslatedShape();
     // Compute slightly expanded bounding rectangle for cadShape
-    Rectangle2D bnds = lShape.getBounds2D();
+    Rectangle2D bnds = getWorkspaceBounds();
     bnds = new Rectangle2D.Double(bnds.getX() - .1, bnds.getY() - .1, bnds.getWidth() + .2, bnds.getHeight() + .2);
     // Check if point clicked is within  bounding rectangle of cadShape
     if (bnds.contains(point)) {
       if (clickInsideToSelect()) {
         return true;
       }
-      Point2D.Double sPoint = new Point2D.Double(point.x * zoomFactor * LaserCut.SCREEN_PPI, point.y * zoomFactor * LaserCut.SCREEN_PPI);
-      for (Line2D.Double[] lines : Utils2D.transformShapeToLines(lShape, zoomFactor * LaserCut.SCREEN_PPI, .01)) {
-        for (Line2D.Double line : lines) {
-          double dist = line.ptSegDist(sPoint);
-          // return true if any is closer than 5 pixels to point
-          if (dist < 5) {
-            return true;
-          }
-        }
-      }
+      double sx = point.x * zoomFactor * LaserCut.SCREEN_PPI;
+      double sy = point.y * zoomFactor * LaserCut.SCREEN_PPI;
+      // return true if any segment is closer than 5 pixels to point (visitor stops scan when one is found)
+      return !Polylines.forEachSegment(lShape, zoomFactor * LaserCut.SCREEN_PPI, .01,
+                                       (contour, x1, y1, x2, y2) -> Line2D.ptSegDistSq(x1, y1, x2, y2, sx, sy) >= 25);
     }
     return false;
   }
@@ -435,6 +554,7 @@ class CADShape implements Serializable {
 
   void updateShape () {
     builtShape = null;
+    bumpGeometryVersion();
     notifyChangeListeners();
   }
 
@@ -613,7 +733,26 @@ class CADShape implements Serializable {
     updateShape();
   }
 
-
+  /**
+   * Get screen bounds of everything draw() paints for this shape, including the (+) grab point and the
+   * resize/rotate grab point and its label.  Used by DrawSurface to compute the dirty region to repaint
+   *
+   * @param zoom Zoom factor (ratio)
+   * @return bounding rectangle in screen coords
+   */
+  Rectangle getDrawBounds (double zoom) {
+    double scale = zoom * LaserCut.SCREEN_PPI;
+    Rectangle2D bnds = getWorkspaceBounds();
+    Rectangle2D.Double rect = new Rectangle2D.Double(bnds.getX() * scale, bnds.getY() * scale,
+                                                     bnds.getWidth() * scale, bnds.getHeight() * scale);
+    rect.add(xLoc * scale, yLoc * scale);
+    // Allow room for the resize/rotate grab point and the "Resize", or "(θ=nnn)" label drawn next to it
+    Point2D.Double rGrab = getRotateddResizeOrRotateHandle();
+    rect.add(new Rectangle2D.Double(rGrab.x * scale - 6, rGrab.y * scale - 16, 90, 24));
+    Rectangle dBnds = rect.getBounds();
+    dBnds.grow(6, 6);
+    return dBnds;
+  }
 
   /**
    * Draw cadShape to screen
@@ -121,14 +121,17 @@ class CADShapeSpline extends CADShape implements Serializable, LaserCut.StateMes
     Point2D.Double mse = Utils2D.rotatePoint(new Point2D.Double(point.x - xLoc, point.y - yLoc), -rotation);
     int idx = 1;
     Point2D.Double chk = points.get(idx);
-    for (Line2D.Double[] lines : Utils2D.transformShapeToLines(getShape(), 1, .01)) {
-      for (Line2D.Double line : lines) {
-        double dist = line.ptSegDist(mse) * LaserCut.SCREEN_PPI;
+    Polylines poly = new Polylines(getShape(), 1, .01);
+    for (int cc = 0; cc < poly.getContourCount(); cc++) {
+      for (int pp = poly.getStart(cc) + 1; pp < poly.getEnd(cc); pp++) {
+        double x2 = poly.getX(pp);
+        double y2 = poly.getY(pp);
+        double dist = Line2D.ptSegDist(poly.getX(pp - 1), poly.getY(pp - 1), x2, y2, mse.x, mse.y) * LaserCut.SCREEN_PPI;
         if (dist < 5) {
           return idx - 1;
         }
         // Advance idx as we pass control points
-        if (idx < points.size() && chk.distance(line.getP2()) < .000001) {
+        if (idx < points.size() && chk.distance(x2, y2) < .000001) {
           chk = points.get(Math.min(points.size() - 1, ++idx));
         }
       }
@@ -10,6 +10,10 @@ class CNCPath extends CADShape implements Serializable, LaserCut.ChangeListener
   private final CADShape          baseShape;
   public double             radius;
   public boolean            inset;
+  public boolean            rounded;
+  private transient Shape   offsetBase, offsetShape;    // Cached result of PolygonOffset.offset(), which is slow
+  private transient double  offsetRadius;
+  private transient boolean offsetInset, offsetRounded;
 
   CNCPath (CADShape base, double radius, boolean inset) {
     this.baseShape = base;
@@ -18,6 +22,14 @@ class CNCPath extends CADShape implements Serializable, LaserCut.ChangeListener
     baseShape.addChangeListener(this);
   }
 
+  /*
+   * Used by LzrFile, which sets baseShape once all shapes are loaded and then calls readFinished()
+   */
+  @SuppressWarnings("unused")
+  private CNCPath () {
+    baseShape = null;
+  }
+
   @Override
   String getMenuName () {
     return "CNC Path";
@@ -31,6 +43,11 @@ class CNCPath extends CADShape implements Serializable, LaserCut.ChangeListener
     baseShape.addChangeListener(this);
   }
 
+  @Override
+  void readFinished () {
+    baseShape.addChangeListener(this);
+  }
+
   public void shapeChanged (CADShape base) {
     updateShape();
   }
@@ -39,7 +56,8 @@ class CNCPath extends CADShape implements Serializable, LaserCut.ChangeListener
   protected List<String> getEditFields () {
     return Arrays.asList(
       "radius|in{radius of tool}",
-      "inset{If checked, toolpath is inside cadShape, else outside}");
+      "inset{If checked, toolpath is inside cadShape, else outside}",
+      "rounded{If checked, corners are rounded, else mitered}");
   }
 
   @Override
@@ -48,7 +66,7 @@ class CNCPath extends CADShape implements Serializable, LaserCut.ChangeListener
   }
 
   @Override
-  protected Shape getLocallyTransformedShape () {
+  protected Shape buildLocallyTransformedShape () {
     Shape dShape = getShape();
     AffineTransform at = new AffineTransform();
     // Position Shape centered on xLoc/yLoc in inches (x from left, y from top)
@@ -67,22 +85,17 @@ class CNCPath extends CADShape implements Serializable, LaserCut.ChangeListener
     yLoc = baseShape.yLoc;
     centered = baseShape.centered;
     rotation = baseShape.rotation;
-    Path2D.Double path = new Path2D.Double();
-    boolean first = true;
-    for (Line2D.Double[] lines : Utils2D.transformShapeToLines(baseShape.getShape(), 1.0, .01)) {
-      Point2D.Double[] points = CNCTools.pruneOverlap(CNCTools.getParallelPath(lines, radius, !inset));
-      for (Point2D.Double point : points) {
-        if (first) {
-          path.moveTo(point.x, point.y);
-          first = false;
-        } else {
-          path.lineTo(point.x, point.y);
-        }
-      }
-      // Connect back to beginning
-      path.lineTo(points[0].x, points[0].y);
-      first = true;
+    // Only redo the offset if baseShape's outline, or the tool parameters have changed (not when it's just moved)
+    Shape base = baseShape.getShape();
+    if (offsetShape == null || base != offsetBase || radius != offsetRadius || inset != offsetInset ||
+        rounded != offsetRounded) {
+      offsetShape = PolygonOffset.offset(base, inset ? -radius : radius,
+                                         rounded ? PolygonOffset.JOIN_ROUND : PolygonOffset.JOIN_MITER, .01);
+      offsetBase = base;
+      offsetRadius = radius;
+      offsetInset = inset;
+      offsetRounded = rounded;
     }
-    return path;
+    return offsetShape;
   }
 }
@@ -1,6 +1,8 @@
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 class CNCTools {
@@ -125,27 +127,23 @@ class CNCTools {
   }
 
   /**
-   * Prunes sections of a closed path that cross back over themselves by scanning for overlapping line segments
-   * Note: extremely inefficient algorithm (approx n^2 / 2 where n is numebr of input points), but it works
-   * Todo: https://www.geeksforgeeks.org/given-a-set-of-line-segments-find-if-any-two-segments-intersect/
+   * Prunes sections of a closed path that cross back over themselves.  Starting from the first segment, the path
+   * is followed until a segment crosses a later segment, then the section between them is cut out by jumping to
+   * the intersection point and continuing from the later segment.
    * @param points set of input points to prune
    * @return pruned array of points
    */
   static Point2D.Double[] pruneOverlap (Point2D.Double[] points) {
+    int[] firstHit = findFirstCrossings(points);
     List<Point2D.Double> oPoints = new ArrayList<>();
     int exclude = 0;
-    loop1:
     for (int ii = 0; ii < points.length - 1; ii++) {
-      Line2D.Double l1 = new Line2D.Double(points[ii], points[(ii + 1) % points.length]);
-      for (int jj = ii + 1; jj < points.length; jj++) {
-        Line2D.Double l2 = new Line2D.Double(points[jj], points[(jj + 1) % points.length]);
-        if (l1.intersectsLine(l2) && !l1.getP2().equals(l2.getP1()) && !l1.getP1().equals(l2.getP2())) {
-          Point2D.Double xx = getIntersection(l1, l2);
-          oPoints.add(xx);
-          ii = jj - 1;
-          exclude = jj + 1;
-          continue loop1;
-        }
+      int jj = firstHit[ii];
+      if (jj < points.length) {
+        oPoints.add(getIntersection(getSegment(points, ii), getSegment(points, jj)));
+        exclude = jj + 1;
+        ii = jj - 1;
+        continue;
       }
       if (ii >= exclude) {
         oPoints.add(points[ii]);
@@ -155,6 +153,64 @@ class CNCTools {
     return oPoints.toArray(new Point2D.Double[0]);
   }
 
+  private static Line2D.Double getSegment (Point2D.Double[] points, int seg) {
+    return new Line2D.Double(points[seg], points[(seg + 1) % points.length]);
+  }
+
+  /**
+   * Uses a sweep line to find, for each segment of a closed path, the first later segment it crosses (segments
+   * that only share their common end point don't count).  Segments are sorted by their left x coordinate and only
+   * segments whose x extent is still under the sweep line are kept active, so only pairs with overlapping bounding
+   * boxes get the full intersection test instead of testing every pair.
+   * @param points set of points forming a closed path (segment n runs from points[n] to points[n + 1])
+   * @return array indexed by segment of first later segment it crosses, or points.length if none
+   */
+  private static int[] findFirstCrossings (Point2D.Double[] points) {
+    int num = points.length;
+    double[] minX = new double[num], maxX = new double[num], minY = new double[num], maxY = new double[num];
+    Integer[] order = new Integer[num];
+    int[] firstHit = new int[num];
+    for (int ii = 0; ii < num; ii++) {
+      Point2D.Double p1 = points[ii], p2 = points[(ii + 1) % num];
+      minX[ii] = Math.min(p1.x, p2.x);
+      maxX[ii] = Math.max(p1.x, p2.x);
+      minY[ii] = Math.min(p1.y, p2.y);
+      maxY[ii] = Math.max(p1.y, p2.y);
+      order[ii] = ii;
+      firstHit[ii] = num;
+    }
+    Arrays.sort(order, Comparator.comparingDouble(seg -> minX[seg]));
+    int[] active = new int[num];
+    int count = 0;
+    for (int seg : order) {
+      // Drop segments that end before the sweep line
+      int keep = 0;
+      for (int ii = 0; ii < count; ii++) {
+        if (maxX[active[ii]] >= minX[seg]) {
+          active[keep++] = active[ii];
+        }
+      }
+      count = keep;
+      for (int ii = 0; ii < count; ii++) {
+        int other = active[ii];
+        if (maxY[other] >= minY[seg] && minY[other] <= maxY[seg]) {
+          int s1 = Math.min(seg, other), s2 = Math.max(seg, other);
+          if (s2 < firstHit[s1] && crosses(points, s1, s2)) {
+            firstHit[s1] = s2;
+          }
+        }
+      }
+      active[count++] = seg;
+    }
+    return firstHit;
+  }
+
+  private static boolean crosses (Point2D.Double[] points, int s1, int s2) {
+    Line2D.Double l1 = getSegment(points, s1);
+    Line2D.Double l2 = getSegment(points, s2);
+    return l1.intersectsLine(l2) && !l1.getP2().equals(l2.getP1()) && !l1.getP1().equals(l2.getP2());
+  }
+
   /*
    * Computes intersection point for two lines
    */
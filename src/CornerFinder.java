@@ -2,6 +2,7 @@ import java.awt.Shape;
 import java.awt.geom.*;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.List;
 
 // Bezier circle: http://spencermortensen.com/articles/bezier-circle/
 
@@ -25,92 +26,130 @@ public class CornerFinder {
   }
 */
 
+  /**
+   * Round the corners found by checkForCorner() with a fillet of the given radius.  Each fillet is computed
+   * analytically as a circular arc (drawn as a cubic Bezier curve) that is tangent to both lines that meet at the
+   * corner, and spliced into a copy of the path in one pass, so no Area operations are needed.  The fillet's
+   * radius is reduced, if needed, so it doesn't use more than half of either line.  Corners next to curves and
+   * the ends of open subpaths are not changed.
+   * @param shape Shape to round
+   * @param radius radius of fillets
+   * @return new Shape with rounded corners
+   */
   static Shape roundCorners (Shape shape, double radius) {
-    ArrayList<Point2D.Double> points = getPoints(shape);
-    Point2D.Double[] pnts = points.toArray(new Point2D.Double[0]);
-    Area a1 = new Area(shape);
-    for (int ii = 0; ii < pnts.length; ii++) {
-      Point2D.Double p1 = pnts[ii % pnts.length];
-      Point2D.Double p2 = pnts[(ii + 1) % pnts.length];
-      Point2D.Double p3 = pnts[(ii + 2) % pnts.length];
-      if (checkForCorner(p1, p2, p3)) {
-        //shapes.add(getCircle(p2, .1));
-        // Compute new points for radius start/end and draw '+' to indicate
-        Point2D.Double p1b = moveDistance(radius, p2, p1);
-        Point2D.Double p3b = moveDistance(radius, p2, p3);
-        //shapes.add(getPlus(p1b, .1));
-        //shapes.add(getPlus(p3b, .1));
-        // Compute point p2m between p1b and p3b
-        Point2D.Double p2m = new Point2D.Double(p1b.x + (p3b.x - p1b.x) / 2, p1b.y + (p3b.y - p1b.y) / 2);
-        //shapes.add(getPlus(p2m, .1));
-        // Compute reflection of p2 needed to complete square
-        Point2D.Double p2r = new Point2D.Double(p2.x + (p2m.x - p2.x) * 2, p2.y + (p2m.y - p2.y) * 2);
-        //shapes.add(getPlus(p2r, .1));
-        // Compute point p1p and p3p that extend slightly in direction from p2r
-        Point2D.Double p1p = moveDistance(-.01, p2, p1b);
-        Point2D.Double p3p = moveDistance(-.01, p2, p3b);
-        //shapes.add(getPlus(p1p, .1));
-        //shapes.add(getPlus(p3p, .1));
-        // Compute p1x and p3x that extends slightly past p2 in direction from p1 and p3
-        Point2D.Double p1x = moveDistance(-.01, p1b, p2r);
-        Point2D.Double p3x = moveDistance(-.01, p3b, p2r);
-        //shapes.add(getPlus(p1x, .1));
-        //shapes.add(getPlus(p3x, .1));
-        // Compute corner path to add, or subtract depending on whether inner corner, or outer corner
-        Path2D.Double corner = new Path2D.Double();
-        // p2r -> p1x -> p1p -> p3p -> p3x -> p2r
-        corner.moveTo(p2r.x, p2r.y);  // p2r
-        corner.lineTo(p1x.x, p1x.y);  // p1x
-        corner.lineTo(p3p.x, p3p.y);  // p3p
-        corner.lineTo(p1p.x, p1p.y);  // p1p
-        corner.lineTo(p3x.x, p3x.y);  // p3x
-        corner.lineTo(p2r.x, p2r.y);  // p2r
-        corner.closePath();
-        //shapes.add(corner);
-        if (!a1.contains(p2m.x, p2m.y)) {
-          a1.add(new Area(corner));
-          a1.subtract(new Area(new Ellipse2D.Double(p2r.x - radius, p2r.y - radius, radius * 2, radius * 2)));
-        } else {
-          a1.subtract(new Area(corner));
-          a1.add(new Area(new Ellipse2D.Double(p2r.x - radius, p2r.y - radius, radius * 2, radius * 2)));
-        }
-      }
-    }
-    return a1;
-  }
-
-  private static ArrayList<Point2D.Double> getPoints (Shape shape) {
     PathIterator pi = shape.getPathIterator(null);
-    ArrayList<Point2D.Double> points = new ArrayList<>();
-    Point2D.Double start = null;
+    Path2D.Double path = new Path2D.Double(pi.getWindingRule());
+    List<double[]> segs = new ArrayList<>();
+    double[] coords = new double[6];
     while (!pi.isDone()) {
-      double[] coords = new double[6];
       int type = pi.currentSegment(coords);
-      switch (type) {
-        case PathIterator.SEG_MOVETO:
-          points.add(new Point2D.Double(coords[0], coords[1]));
-          if (start == null) {
-            start = new Point2D.Double(coords[0], coords[1]);
-          }
-          break;
-        case PathIterator.SEG_LINETO:
-          Point2D.Double newLine = new Point2D.Double(coords[0], coords[1]);
-          if (!newLine.equals(start)) {
-            points.add(newLine);
-          }
-          break;
-        case PathIterator.SEG_CUBICTO:
-          points.add(new Point2D.Double(coords[2], coords[3]));
-          break;
-        case PathIterator.SEG_QUADTO:
-          points.add(new Point2D.Double(coords[4], coords[5]));
-          break;
-        case PathIterator.SEG_CLOSE:
-          break;
+      if (type == PathIterator.SEG_MOVETO) {
+        addSubpath(path, segs, false, radius);
+        segs.clear();
+      }
+      if (type == PathIterator.SEG_CLOSE) {
+        addSubpath(path, segs, true, radius);
+        segs.clear();
+      } else {
+        // Store as type followed by coords with the end point last
+        int num = type == PathIterator.SEG_CUBICTO ? 6 : type == PathIterator.SEG_QUADTO ? 4 : 2;
+        double[] seg = new double[num + 1];
+        seg[0] = type;
+        System.arraycopy(coords, 0, seg, 1, num);
+        segs.add(seg);
       }
       pi.next();
     }
-    return points;
+    addSubpath(path, segs, false, radius);
+    return path;
+  }
+
+  /*
+   * Append a subpath (starting with its SEG_MOVETO) to path and round its corners
+   */
+  private static void addSubpath (Path2D.Double path, List<double[]> segs, boolean closed, double radius) {
+    if (segs.isEmpty()) {
+      return;
+    }
+    int num = segs.size();
+    // Vertex ii is the end point of segs.get(ii), so vertex 0 is the starting point
+    Point2D.Double[] pnts = new Point2D.Double[num];
+    for (int ii = 0; ii < num; ii++) {
+      double[] seg = segs.get(ii);
+      pnts[ii] = new Point2D.Double(seg[seg.length - 2], seg[seg.length - 1]);
+    }
+    boolean closing = closed && num > 2 && !pnts[num - 1].equals(pnts[0]);
+    if (closed && num > 2 && !closing) {
+      // Drop explicit line back to start
+      if (segs.get(num - 1)[0] == PathIterator.SEG_LINETO) {
+        num--;
+      }
+    }
+    // Segment ii goes from vertex ii - 1 to vertex ii and segment 0 is the one that closes the subpath
+    boolean[] line = new boolean[num];
+    for (int ii = 1; ii < num; ii++) {
+      line[ii] = segs.get(ii)[0] == PathIterator.SEG_LINETO;
+    }
+    line[0] = closed && (closing || segs.get(segs.size() - 1)[0] == PathIterator.SEG_LINETO);
+    // Compute fillet for each corner as tangent points t1 and t2, and Bezier control points c1 and c2
+    Point2D.Double[][] fillets = new Point2D.Double[num][];
+    for (int ii = 0; ii < num && num > 2; ii++) {
+      int prev = (ii + num - 1) % num;
+      int next = (ii + 1) % num;
+      if ((closed || (ii > 0 && ii < num - 1)) && line[ii] && line[next]) {
+        Point2D.Double p1 = pnts[prev], p2 = pnts[ii], p3 = pnts[next];
+        if (checkForCorner(p1, p2, p3)) {
+          fillets[ii] = getFillet(p1, p2, p3, radius);
+        }
+      }
+    }
+    Point2D.Double start = fillets[0] != null ? fillets[0][3] : pnts[0];
+    path.moveTo(start.x, start.y);
+    for (int ii = 1; ii <= num; ii++) {
+      int vv = ii % num;
+      if (ii == num && !closed) {
+        break;
+      }
+      double[] seg = ii < num ? segs.get(ii) : null;
+      if (seg == null || seg[0] == PathIterator.SEG_LINETO) {
+        Point2D.Double end = fillets[vv] != null ? fillets[vv][0] : pnts[vv];
+        path.lineTo(end.x, end.y);
+      } else if (seg[0] == PathIterator.SEG_QUADTO) {
+        path.quadTo(seg[1], seg[2], seg[3], seg[4]);
+      } else {
+        path.curveTo(seg[1], seg[2], seg[3], seg[4], seg[5], seg[6]);
+      }
+      if (fillets[vv] != null) {
+        Point2D.Double[] fillet = fillets[vv];
+        path.curveTo(fillet[1].x, fillet[1].y, fillet[2].x, fillet[2].y, fillet[3].x, fillet[3].y);
+      }
+    }
+    if (closed) {
+      path.closePath();
+    }
+  }
+
+  /*
+   * Compute fillet at corner p2 between lines p1 to p2 and p2 to p3
+   * Returns {tangent point on p1-p2, control point 1, control point 2, tangent point on p2-p3}, or null
+   */
+  private static Point2D.Double[] getFillet (Point2D.Double p1, Point2D.Double p2, Point2D.Double p3, double radius) {
+    double len1 = p2.distance(p1);
+    double len2 = p2.distance(p3);
+    // Angle between the two lines at the corner
+    double angle = Math.abs(Math.atan2((p1.x - p2.x) * (p3.y - p2.y) - (p1.y - p2.y) * (p3.x - p2.x),
+                                       (p1.x - p2.x) * (p3.x - p2.x) + (p1.y - p2.y) * (p3.y - p2.y)));
+    if (len1 == 0 || len2 == 0 || angle < 1e-6 || angle > Math.PI - 1e-6) {
+      return null;
+    }
+    // Distance from corner to tangent points, limited to half of each line
+    double dist = Math.min(radius / Math.tan(angle / 2), Math.min(len1, len2) / 2);
+    double rad = dist * Math.tan(angle / 2);
+    // Arc of (PI - angle) radians, with control points along the tangents (see Bezier circle link above)
+    double ctrl = 4.0 / 3.0 * Math.tan((Math.PI - angle) / 4) * rad;
+    Point2D.Double t1 = moveDistance(dist, p2, p1);
+    Point2D.Double t2 = moveDistance(dist, p2, p3);
+    return new Point2D.Double[] {t1, moveDistance(-ctrl, t1, p1), moveDistance(-ctrl, t2, p3), t2};
   }
 
   private static boolean checkForCorner (Point2D.Double p1, Point2D.Double p2, Point2D.Double p3) {
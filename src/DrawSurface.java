@@ -3,15 +3,14 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
-import java.io.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.prefs.Preferences;
-import java.util.zip.CRC32;
 
 import static javax.swing.JOptionPane.showMessageDialog;
 
@@ -19,6 +18,12 @@ public class DrawSurface extends JPanel {
   private final Preferences                   prefs;
   private Dimension                           workSize;
   private List<CADShape>                      shapes = new ArrayList<>();
+  private final ShapeIndex                    shapeIndex = new ShapeIndex();
+  private BufferedImage                       staticLayer;    // Grid and unselected shapes (see paintStaticLayer())
+  private List<Object>                        staticKey;
+  private boolean                             staticValid;
+  private Set<CADShape>                       liveShapes = new HashSet<>();
+  private Rectangle                           liveBounds;
   private CADShape                            selected, dragged;
   private Placer                              placer;
   private PlacerListener                      placerListener;
@@ -37,8 +42,8 @@ public class DrawSurface extends JPanel {
   private final List<LaserCut.ActionUndoListener>   undoListerners = new ArrayList<>();
   private final List<LaserCut.ActionRedoListener>   redoListerners = new ArrayList<>();
   private final List<LaserCut.ZoomListener>         zoomListeners = new ArrayList<>();
-  private final LinkedList<byte[]>                  undoStack = new LinkedList<>();
-  private final LinkedList<byte[]>                  redoStack = new LinkedList<>();
+  private final UndoLog                             undoLog;
+  private long                                designChanges;  // Bumped by every change to the design (see getDesignVersion())
   private boolean                             pushedToStack, showMeasure, doSnap, showGrid;
   private String                              dUnits;
   private int                                 tipTimer;
@@ -114,7 +119,15 @@ public class DrawSurface extends JPanel {
     super(true);
     this.prefs = prefs;
     useDblClkZoom = prefs.getBoolean("useDblClkZoom", false);
+    undoLog = new UndoLog(prefs.getInt("undo.budgetMB", 64) * 1024L * 1024L);
     DrawSurface thisSurface = this;
+    // Count changes to the design and redraw the cached static layer if a shape that's drawn in it is changed
+    shapeIndex.addChangeListener(cadShape -> {
+      designChanges++;
+      if (!liveShapes.contains(cadShape)) {
+        invalidateStaticLayer();
+      }
+    });
     // Set JPanel size to a temprary default size
     setPreferredSize(workSize = new Dimension(500, 500));
     // Implement KeyListener to track state of shift key
@@ -182,7 +195,7 @@ public class DrawSurface extends JPanel {
             // Process Option, or ALT key
             // Select CADShape and then do CTRL-Click on second CADShape to measure distance from origin to origin
             if (selected != null) {
-              for (CADShape shape : shapes) {
+              for (CADShape shape : getShapesNear(newLoc)) {
                 // Check for mouse pointing to CADShape
                 if (shape.isPositionClicked(newLoc, zoomFactor) || shape.isShapeClicked(newLoc, zoomFactor)) {
                   double dx = shape.xLoc - selected.xLoc;
@@ -203,7 +216,7 @@ public class DrawSurface extends JPanel {
               return;
             } else {
               // Add or remove clicked CADShape from dragList
-              for (CADShape shape : shapes) {
+              for (CADShape shape : getShapesNear(newLoc)) {
                 if (shape.isShapeClicked(newLoc, zoomFactor)) {
                   if (shape != selected && selected != null) {
                     dragList.add(selected);
@@ -233,7 +246,7 @@ public class DrawSurface extends JPanel {
                 showMeasure = false;
                 return;
               }
-              for (CADShape shape : shapes) {
+              for (CADShape shape : getShapesNear(newLoc)) {
                 // Check for click and drag of another CADShape's position anchor
                 if (shape.isPositionClicked(newLoc, zoomFactor)) {
                   dragged = shape;
@@ -263,10 +276,10 @@ public class DrawSurface extends JPanel {
                 return;
               }
             }
-            for (CADShape shape : shapes) {
+            for (CADShape shape : getShapesNear(newLoc)) {
               // Check for selection or deselection of shapes
               if (shape.isShapeClicked(newLoc, zoomFactor)) {
-                pushToUndoStack();
+                pushSelectionToUndoStack();
                 setSelected(shape);
                 showMeasure = false;
                 repaint();
@@ -275,7 +288,7 @@ public class DrawSurface extends JPanel {
             }
             if (keyMeta) {
               // Clicked on nothing with Meta Down, so setup to drag workspace
-              pushToUndoStack();
+              pushSelectionToUndoStack();
               setSelected(null);
               showMeasure = false;
               scrollPoint = newLoc;
@@ -339,7 +352,7 @@ public class DrawSurface extends JPanel {
           if (dragBox != null) {
             setSelected(null);
             // Add all Shapes inside dragBox to dragList
-            for (CADShape shape : shapes) {
+            for (CADShape shape : shapeIndex.query(dragBox)) {
               Rectangle2D.Double rect = shape.getShapeBounds();
               rect.x += shape.xLoc;
               rect.y += shape.yLoc;
@@ -386,7 +399,7 @@ public class DrawSurface extends JPanel {
               }
             }
           }
-          repaint();
+          repaintLiveShapes();
         } else if (selected != null && keyShift) {
           if (!pushedToStack) {
             pushedToStack = true;
@@ -394,14 +407,14 @@ public class DrawSurface extends JPanel {
           }
           newLoc = toGrid(newLoc);
           selected.resizeShape(newLoc, workSize);  // Do resize
-          repaint();
+          repaintLiveShapes();
         } else if (selected != null && keyCtrl) {
           if (!pushedToStack) {
             pushedToStack = true;
             pushToUndoStack();
           }
           selected.rotateShape(newLoc);           // Do rotate
-          repaint();
+          repaintLiveShapes();
         } else if (scrollPoint != null) {
           // Drag the mouse to move the JScrollPane
           double deltaX = scrollPoint.x * getScreenScale() - ev.getX();
@@ -642,6 +655,16 @@ public class DrawSurface extends JPanel {
     return new Point2D.Double(toGrid(loc.x), toGrid(loc.y));
   }
 
+  /**
+   * Use shapeIndex to get the shapes close enough to 'point' to possibly be clicked
+   * Note: isShapeClicked() checks bounds expanded by .1 inch and isPositionClicked() checks within 5 pixels
+   * @param point location clicked in workspace coords (inches)
+   * @return List of candidate CADShape objects in the same order as the shapes List
+   */
+  private List<CADShape> getShapesNear (Point2D.Double point) {
+    return shapeIndex.query(point, Math.max(.1, 5 / (zoomFactor * LaserCut.SCREEN_PPI)));
+  }
+
   void addUndoListener (LaserCut.ActionUndoListener lst) {
     undoListerners.add(lst);
   }
@@ -650,65 +673,65 @@ public class DrawSurface extends JPanel {
     redoListerners.add(lst);
   }
 
-  private byte[] shapesListToBytes () throws IOException {
-    // Use ObjectOutputStream to make a deep copy
-    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
-    ObjectOutputStream out = new ObjectOutputStream(bOut);
-    out.writeObject(selected);
-    out.writeObject(shapes);
-    out.close();
-    bOut.close();
-    return bOut.toByteArray();
+  /**
+   * Set the maximum memory used to hold undo and redo steps (oldest undo steps are dropped first)
+   * @param megabytes budget in MB
+   */
+  void setUndoBudget (int megabytes) {
+    prefs.putInt("undo.budgetMB", megabytes);
+    undoLog.setBudget(megabytes * 1024L * 1024L);
   }
 
-  private ArrayList<CADShape> bytesToShapeList(byte[] bytes) throws Exception {
-    ByteArrayInputStream bIn = new ByteArrayInputStream(bytes);
-    ObjectInputStream in = new ObjectInputStream(bIn);
-    CADShape sel = (CADShape) in.readObject();
-    if (sel != null) {
-      setSelected(sel);
+  int getUndoBudget () {
+    return (int) (undoLog.getBudget() / (1024 * 1024));
+  }
+
+  /**
+   * @return text describing the estimated memory used by undo and redo steps
+   */
+  String getUndoSizeInfo () {
+    return String.format("%d undo and %d redo steps use about %,d KB", undoLog.getUndoCount(), undoLog.getRedoCount(),
+                         (undoLog.getByteSize() + 1023) / 1024);
+  }
+
+  private void updateUndoRedoListeners () {
+    for (LaserCut.ActionUndoListener lst : undoListerners) {
+      lst.undoEnable(undoLog.canUndo());
+    }
+    for (LaserCut.ActionRedoListener lst : redoListerners) {
+      lst.redoEnable(undoLog.canRedo());
     }
-    return (ArrayList<CADShape>) in.readObject();
   }
 
-  void pushToUndoStack () {
-    try {
-      byte[] bytes = shapesListToBytes();
-      undoStack.addFirst(bytes);
-      redoStack.clear();
-      if (undoStack.size() > 200) {
-        undoStack.removeLast();
-      }
-      for (LaserCut.ActionUndoListener lst : undoListerners) {
-        lst.undoEnable(undoStack.size() > 0);
-      }
-      for (LaserCut.ActionRedoListener lst : redoListerners) {
-        lst.redoEnable(redoStack.size() > 0);
-      }
-    } catch (IOException ex) {
-      ex.printStackTrace();
+  // Replace the shapes List with the List recorded in an UndoLog.Step
+  private void restoreStep (UndoLog.Step step) {
+    designChanges++;
+    shapes = step.restore();
+    shapeIndex.rebuild(shapes);
+    if (step.getSelected() != null) {
+      setSelected(step.getSelected());
     }
+    updateUndoRedoListeners();
+    shapeListChanged();
+    repaint();
+  }
+
+  void pushToUndoStack () {
+    // Note: every edit pushes an undo step before it changes the design
+    designChanges++;
+    pushSelectionToUndoStack();
+  }
+
+  // Push an undo step that only records a change of selection, so it doesn't mark the design as changed
+  private void pushSelectionToUndoStack () {
+    undoLog.push(shapes, selected);
+    updateUndoRedoListeners();
   }
 
   void popFromUndoStack () {
     // Suppress Undo while placing objects
-    if (placer == null) {
-      if (undoStack.size() > 0) {
-        try {
-          redoStack.addFirst(shapesListToBytes());
-          shapes = bytesToShapeList(undoStack.pollFirst());
-          for (LaserCut.ActionUndoListener lst : undoListerners) {
-            lst.undoEnable(undoStack.size() > 0);
-          }
-          for (LaserCut.ActionRedoListener lst : redoListerners) {
-            lst.redoEnable(redoStack.size() > 0);
-          }
-          shapeListChanged();
-          repaint();
-        } catch (Exception ex) {
-          ex.printStackTrace();
-        }
-      }
+    if (placer == null && undoLog.canUndo()) {
+      restoreStep(undoLog.undo(shapes, selected));
     }
   }
 
@@ -720,19 +743,8 @@ public class DrawSurface extends JPanel {
   }
 
   void popFromRedoStack () {
-    try {
-      undoStack.addFirst(shapesListToBytes());
-      shapes = bytesToShapeList(redoStack.pollFirst());
-      for (LaserCut.ActionUndoListener lst : undoListerners) {
-        lst.undoEnable(undoStack.size() > 0);
-      }
-      for (LaserCut.ActionRedoListener lst : redoListerners) {
-        lst.redoEnable(redoStack.size() > 0);
-      }
-      shapeListChanged();
-      repaint();
-    } catch (Exception ex) {
-      ex.printStackTrace();
+    if (undoLog.canRedo()) {
+      restoreStep(undoLog.redo(shapes, selected));
     }
   }
 
@@ -755,22 +767,13 @@ public class DrawSurface extends JPanel {
   }
 
   /**
-   * Uses Serilazation to convert design to byte artay and then uses this to compute a checkum
-   * @return checksum for current state of design
+   * Get a version number for the design that changes whenever shapes are added, removed, edited, moved, or when
+   * an Undo or Redo is done.  Used to detect unsaved changes without serializing the design.
+   * Note: undoing back to the saved state still counts as a change
+   * @return version number for current state of design
    */
-  long getDesignChecksum () {
-    CRC32 crc = new CRC32();
-    try {
-      ByteArrayOutputStream bOut = new ByteArrayOutputStream();
-      ObjectOutputStream oOut = new ObjectOutputStream(bOut);
-      oOut.writeObject(shapes);
-      crc.update(bOut.toByteArray());
-      oOut.close();
-      bOut.close();
-    } catch (Exception ex) {
-      ex.printStackTrace();
-    }
-    return crc.getValue();
+  long getDesignVersion () {
+    return designChanges + shapeIndex.getModCount();
   }
 
   /**
@@ -779,6 +782,7 @@ public class DrawSurface extends JPanel {
    */
   void setDesign (SurfaceSettings settings) {
     this.shapes = settings.getDesign();
+    shapeIndex.rebuild(shapes);
     setZoomFactor(settings.zoomFactor);
     setGridSize(settings.gridStep, settings.gridMajor);
     shapeListChanged();
@@ -788,6 +792,7 @@ public class DrawSurface extends JPanel {
   void addShape (CADShape addShape) {
     pushToUndoStack();
     shapes.add(addShape);
+    shapeIndex.add(addShape);
     shapeListChanged();
     repaint();
   }
@@ -795,6 +800,7 @@ public class DrawSurface extends JPanel {
   private void addShapes (List<CADShape> addShapes) {
     pushToUndoStack();
     shapes.addAll(addShapes);
+    shapeIndex.addAll(addShapes);
     shapeListChanged();
     repaint();
   }
@@ -845,8 +851,7 @@ public class DrawSurface extends JPanel {
   private static Rectangle2D getSetBounds (List<CADShape> shapes) {
     Rectangle2D bnds = null;
     for (CADShape shape : shapes) {
-      Shape shp = shape.getWorkspaceTranslatedShape();
-      Rectangle2D bounds = shp.getBounds2D();
+      Rectangle2D bounds = shape.getWorkspaceBounds();
       if (bnds == null) {
         bnds = new Rectangle2D.Double(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
       } else {
@@ -864,6 +869,7 @@ public class DrawSurface extends JPanel {
   void clear () {
     pushToUndoStack();
     shapes.clear();
+    shapeIndex.rebuild(shapes);
     setZoomFactor(1);
     setGridSize(0.1, 10);
     shapeListChanged();
@@ -875,7 +881,9 @@ public class DrawSurface extends JPanel {
     Shape oldShape = selected.buildShape();
     CADShape tmp = new CADScaledShape(CornerFinder.roundCorners(oldShape, radius), selected.xLoc, selected.yLoc, 0);
     shapes.remove(selected);
+    shapeIndex.remove(selected);
     shapes.add(tmp);
+    shapeIndex.add(tmp);
     setSelected(tmp);
     shapeListChanged();
     repaint();
@@ -886,22 +894,28 @@ public class DrawSurface extends JPanel {
     if (group != null) {
       pushToUndoStack();
       Shape base = selected.getLocallyTransformedShape();
-      Area newShape = new Area(base);
+      List<Shape> others = new ArrayList<>();
       shapes.remove(selected);
+      shapeIndex.remove(selected);
       for (CADShape gItem : group.getGroupList()) {
         if (gItem != selected) {
           Shape shape = gItem.getLocallyTransformedShape();
           AffineTransform at = AffineTransform.getTranslateInstance(gItem.xLoc - selected.xLoc, gItem.yLoc - selected.yLoc);
-          if (add) {
-            newShape.add(new Area(at.createTransformedShape(shape)));
-          } else {
-            newShape.subtract(new Area(at.createTransformedShape(shape)));
-          }
+          others.add(at.createTransformedShape(shape));
           shapes.remove(gItem);
+          shapeIndex.remove(gItem);
         }
       }
+      Shape newShape;
+      if (add) {
+        others.add(base);
+        newShape = AreaUnion.union(others);
+      } else {
+        newShape = AreaUnion.subtract(base, others);
+      }
       CADShape tmp = new CADScaledShape(newShape, selected.xLoc, selected.yLoc, 0);
       shapes.add(tmp);
+      shapeIndex.add(tmp);
       setSelected(tmp);
       shapeListChanged();
       repaint();
@@ -914,12 +928,7 @@ public class DrawSurface extends JPanel {
       pushToUndoStack();
       for (CADShape gItem : group.getGroupList()) {
         if (gItem != selected) {
-          if (alignX) {
-            gItem.xLoc = selected.xLoc;
-          }
-          if (alignY) {
-            gItem.yLoc = selected.yLoc;
-          }
+          gItem.setPosition(alignX ? selected.xLoc : gItem.xLoc, alignY ? selected.yLoc : gItem.yLoc);
         }
       }
       repaint();
@@ -991,8 +1000,8 @@ public class DrawSurface extends JPanel {
           if (gItem != selected || rotateSelected) {
             Point2D.Double pt = new Point2D.Double(gItem.xLoc, gItem.yLoc);
             center.transform(pt, pt);
-            gItem.setPosition(pt.x, pt.y);
             gItem.rotation += angle;
+            gItem.setPosition(pt.x, pt.y);
           }
         }
       }
@@ -1021,15 +1030,18 @@ public class DrawSurface extends JPanel {
     if (dragList.size() > 0) {
       pushToUndoStack();
       shapes.removeAll(dragList);
+      shapeIndex.removeAll(dragList);
       clearDragList();
       shapeListChanged();
       repaint();
     } else  if (selected != null) {
       pushToUndoStack();
       shapes.remove(selected);
+      shapeIndex.remove(selected);
       CADShapeGroup group = selected.getGroup();
       if (group != null) {
         shapes.removeAll(group.getGroupList());
+        shapeIndex.removeAll(group.getGroupList());
       }
       setSelected(null);
       shapeListChanged();
@@ -1048,42 +1060,37 @@ public class DrawSurface extends JPanel {
     repaint();
   }
 
-  void combineDragSelected () {
+  /**
+   * Join the line and curve segments of the drag selected shapes into continuous paths (see ShapeOptimizer) and
+   * replace them with one CADScaledShape
+   * @param tolerance maximum distance between endpoints that will be joined (inches)
+   */
+  void combineDragSelected (double tolerance) {
     if (dragList.size() > 0) {
       pushToUndoStack();
       Path2D.Double path = new Path2D.Double();
-      AffineTransform at = AffineTransform.getTranslateInstance(0, 0);
       for (CADShape shape : dragList) {
         if (!(shape instanceof CADReference)) {
-          Shape work = shape.getWorkspaceTranslatedShape();
-          path.append(work.getPathIterator(at), false);
+          path.append(shape.getWorkspaceTranslatedShape(), false);
           shapes.remove(shape);
+          shapeIndex.remove(shape);
         }
       }
-      Rectangle2D bnds = path.getBounds2D();
+      Path2D.Double joined = new Path2D.Double();
+      for (Shape shape : ShapeOptimizer.optimizeShape(path, tolerance)) {
+        joined.append(shape, false);
+      }
+      Rectangle2D bnds = joined.getBounds2D();
       double xLoc = bnds.getX();
       double yLoc = bnds.getY();
       // Transform back to 0, 0
       AffineTransform at2 = AffineTransform.getTranslateInstance(-xLoc - bnds.getWidth() / 2, -yLoc - bnds.getHeight() / 2);
-      Shape nPath = at2.createTransformedShape(path);
+      Shape nPath = at2.createTransformedShape(joined);
       // Move back to original center x/y
       CADScaledShape cShape;
       shapes.add(cShape = new CADScaledShape(nPath, xLoc + bnds.getWidth() / 2, yLoc + bnds.getHeight() / 2, 0));
+      shapeIndex.add(cShape);
       setSelected(cShape);
-/*
-      List<Shape> opt = ShapeOptimizer.optimizeShape(path);
-      // Group Optimized shapes
-      for (Shape shape : opt) {
-        Rectangle2D bnds = shape.getBounds2D();
-        // TODO: is this correct?
-        double xLoc = bnds.getX();
-        double yLoc = bnds.getY();
-        AffineTransform at2 = AffineTransform.getTranslateInstance(-xLoc - bnds.getWidth() / 2, -yLoc - bnds.getHeight() / 2);
-        shape = at2.createTransformedShape(shape);
-        CADShape cadShape = new CADShape(shape, xLoc + bnds.getWidth() / 2, yLoc + bnds.getHeight() / 2, 0);
-        shapes.add(cadShape);
-      }
-*/
       clearDragList();
       shapeListChanged();
       repaint();
@@ -1202,6 +1209,17 @@ public class DrawSurface extends JPanel {
    * @return List of CADShape objects minus culled items
    */
   List<CADShape> selectLaserItems (boolean cutItems, boolean planPath) {
+    return selectLaserItems(cutItems, planPath, null);
+  }
+
+  /**
+   * Select the shapes to send to a laser cutter
+   * @param cutItems true for cut items, false for engrave items
+   * @param planPath true to use PathPlanner to order the shapes
+   * @param stats if not null, PathPlanner's travel distances are added to it
+   * @return List of CADShape objects in the order to cut them
+   */
+  List<CADShape> selectLaserItems (boolean cutItems, boolean planPath, PathPlanner.Stats stats) {
     // Cull out items that will not be cut or that don't match cutItems
     ArrayList<CADShape> cullShapes = new ArrayList<>();
     for (CADShape shape : getDesign()) {
@@ -1209,10 +1227,14 @@ public class DrawSurface extends JPanel {
         cullShapes.add(shape);
       }
     }
-    return planPath ? PathPlanner.optimize(cullShapes) : cullShapes;
+    return planPath ? planPath(cullShapes, stats) : cullShapes;
   }
 
   List<CADShape> selectCutterItems (boolean planPath) {
+    return selectCutterItems(planPath, null);
+  }
+
+  List<CADShape> selectCutterItems (boolean planPath, PathPlanner.Stats stats) {
     // Cull out items that will not be cut or that don't match cutItems
     ArrayList<CADShape> cullShapes = new ArrayList<>();
     for (CADShape shape : getDesign()) {
@@ -1220,7 +1242,45 @@ public class DrawSurface extends JPanel {
         cullShapes.add(shape);
       }
     }
-    return planPath ? PathPlanner.optimize(cullShapes) : cullShapes;
+    return planPath ? planPath(cullShapes, stats) : cullShapes;
+  }
+
+  /*
+   * Run PathPlanner.optimize(), which can take half a second, or more, on a worker thread while a modal dialog
+   * keeps the UI painting and blocks edits to the shapes the planner is reading
+   */
+  private List<CADShape> planPath (List<CADShape> shapes, PathPlanner.Stats stats) {
+    if (!SwingUtilities.isEventDispatchThread() || GraphicsEnvironment.isHeadless()) {
+      return PathPlanner.optimize(shapes, stats);
+    }
+    JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(this), "Planning Path",
+                                 Dialog.ModalityType.APPLICATION_MODAL);
+    JProgressBar progress = new JProgressBar();
+    progress.setIndeterminate(true);
+    dialog.add(progress, BorderLayout.CENTER);
+    dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+    dialog.setSize(300, 60);
+    dialog.setLocationRelativeTo(getParent());
+    SwingWorker<List<CADShape>, Void> worker = new SwingWorker<List<CADShape>, Void>() {
+      @Override
+      protected List<CADShape> doInBackground () {
+        return PathPlanner.optimize(shapes, stats);
+      }
+
+      @Override
+      protected void done () {
+        dialog.dispose();
+      }
+    };
+    worker.execute();
+    // Note: done() runs on this thread, so it can't dispose the dialog until setVisible() starts handling events
+    dialog.setVisible(true);
+    try {
+      return worker.get();
+    } catch (InterruptedException | ExecutionException ex) {
+      ex.printStackTrace();
+      return shapes;
+    }
   }
 
   private void cancelTip () {
@@ -1297,37 +1357,144 @@ public class DrawSurface extends JPanel {
     }
   }
 
+  /**
+   * Get the shapes that are drawn directly in paint(), rather than cached in the static layer, which are the
+   * selected shape, the other shapes in its group and the shapes in dragList
+   * @return Set of CADShape objects
+   */
+  private Set<CADShape> getLiveShapes () {
+    Set<CADShape> live = new LinkedHashSet<>(dragList);
+    if (selected != null) {
+      CADShapeGroup group = selected.getGroup();
+      if (group != null) {
+        live.addAll(group.getGroupList());
+      }
+      live.add(selected);
+    }
+    return live;
+  }
+
+  private void invalidateStaticLayer () {
+    staticValid = false;
+    repaint();
+  }
+
+  /**
+   * Repaint only the region covered by the live shapes in their old and new positions
+   */
+  private void repaintLiveShapes () {
+    Rectangle dirty = liveBounds;
+    for (CADShape shape : liveShapes) {
+      Rectangle bnds = shape.getDrawBounds(zoomFactor);
+      dirty = dirty != null ? dirty.union(bnds) : bnds;
+    }
+    if (dirty != null) {
+      repaint(dirty);
+    } else {
+      repaint();
+    }
+  }
+
+  private void paintGrid (Graphics2D g2) {
+    Stroke bold = new BasicStroke(2.5f);
+    Stroke mild = new BasicStroke(1.0f);
+    g2.setColor(new Color(224, 222, 254));
+    int mCnt = 0;
+    for (double xx = 0; xx <= workSize.width / LaserCut.SCREEN_PPI; xx += gridSpacing) {
+      double col = xx * getScreenScale();
+      double cHyt = workSize.height * zoomFactor;
+      g2.setStroke(gridMajor > 0 && (mCnt++ % gridMajor) == 0 ? bold :mild);
+      g2.draw(new Line2D.Double(col, 0, col, cHyt));
+    }
+    mCnt = 0;
+    for (double yy = 0; yy <= workSize.height / LaserCut.SCREEN_PPI; yy += gridSpacing) {
+      double row = yy  * getScreenScale();
+      double rWid = workSize.width * zoomFactor;
+      g2.setStroke(gridMajor > 0 && (mCnt++ % gridMajor) == 0 ? bold :mild);
+      g2.draw(new Line2D.Double(0, row, rWid, row));
+    }
+  }
+
+  /**
+   * Draw the grid and all the shapes not in the live set into an off screen image the size of the visible area
+   * and then copy it to the screen.  The image is only redrawn when the zoom, grid, scroll position, live set,
+   * or one of the shapes drawn in it changes, so dragging a shape only needs to redraw the live shapes.
+   * @param g2 Graphics2D object passed to paint()
+   * @param live Set of CADShape objects drawn by paint()
+   */
+  private void paintStaticLayer (Graphics2D g2, Set<CADShape> live) {
+    Rectangle vis = getVisibleRect();
+    if (vis.isEmpty()) {
+      return;
+    }
+    // Render at device resolution so the cached image isn't blurry on HiDPI displays
+    double dpiScale = g2.getDeviceConfiguration().getDefaultTransform().getScaleX();
+    List<Object> key = Arrays.asList(vis, zoomFactor, dpiScale, new Dimension(workSize), showGrid, gridSpacing,
+                                     gridMajor, shapeIndex.getModCount(), live);
+    if (!staticValid || staticLayer == null || !key.equals(staticKey)) {
+      int wid = (int) Math.ceil(vis.width * dpiScale);
+      int hyt = (int) Math.ceil(vis.height * dpiScale);
+      if (staticLayer == null || staticLayer.getWidth() != wid || staticLayer.getHeight() != hyt) {
+        staticLayer = new BufferedImage(wid, hyt, BufferedImage.TYPE_INT_RGB);
+      }
+      Graphics2D g2d = staticLayer.createGraphics();
+      g2d.setBackground(Color.white);
+      g2d.clearRect(0, 0, wid, hyt);
+      g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g2d.scale(dpiScale, dpiScale);
+      g2d.translate(-vis.x, -vis.y);
+      g2d.clip(vis);
+      if (showGrid && gridSpacing > 0) {
+        paintGrid(g2d);
+      }
+      // Only draw shapes that could be visible (margin allows for stroke width)
+      double scale = getScreenScale();
+      double margin = 20 / scale;
+      Rectangle2D.Double area = new Rectangle2D.Double(vis.x / scale - margin, vis.y / scale - margin,
+                                                       vis.width / scale + margin * 2, vis.height / scale + margin * 2);
+      for (CADShape shape : shapeIndex.query(area)) {
+        if (!live.contains(shape)) {
+          shape.isSelected = false;
+          shape.inGroup = false;
+          shape.dragged = false;
+          shape.draw(g2d, zoomFactor, keyCtrl, keyShift, keyOption);
+        }
+      }
+      g2d.dispose();
+      staticKey = key;
+      staticValid = true;
+    }
+    AffineTransform at = AffineTransform.getTranslateInstance(vis.x, vis.y);
+    at.scale(1 / dpiScale, 1 / dpiScale);
+    g2.drawImage(staticLayer, at, null);
+  }
+
   public void paint (Graphics g) {
     Dimension d = getSize();
     Graphics2D g2 = (Graphics2D) g;
     g2.setBackground(Color.white);
     g2.clearRect(0, 0, d.width, d.height);
     g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-    if (showGrid && gridSpacing > 0) {
-      Stroke bold = new BasicStroke(2.5f);
-      Stroke mild = new BasicStroke(1.0f);
-      g2.setColor(new Color(224, 222, 254));
-      int mCnt = 0;
-      for (double xx = 0; xx <= workSize.width / LaserCut.SCREEN_PPI; xx += gridSpacing) {
-        double col = xx * getScreenScale();
-        double cHyt = workSize.height * zoomFactor;
-        g2.setStroke(gridMajor > 0 && (mCnt++ % gridMajor) == 0 ? bold :mild);
-        g2.draw(new Line2D.Double(col, 0, col, cHyt));
-      }
-      mCnt = 0;
-      for (double yy = 0; yy <= workSize.height / LaserCut.SCREEN_PPI; yy += gridSpacing) {
-        double row = yy  * getScreenScale();
-        double rWid = workSize.width * zoomFactor;
-        g2.setStroke(gridMajor > 0 && (mCnt++ % gridMajor) == 0 ? bold :mild);
-        g2.draw(new Line2D.Double(0, row, rWid, row));
+    Set<CADShape> live = getLiveShapes();
+    paintStaticLayer(g2, live);
+    // Draw selected, grouped and drag selected shapes on top of the static layer, but only inside the dirty region
+    Rectangle clip = g2.getClipBounds();
+    Rectangle drawn = null;
+    CADShapeGroup selGroup = selected != null ? selected.getGroup() : null;
+    for (CADShape shape : live) {
+      if (shapeIndex.contains(shape)) {
+        Rectangle bnds = shape.getDrawBounds(zoomFactor);
+        drawn = drawn != null ? drawn.union(bnds) : bnds;
+        if (clip == null || clip.intersects(bnds)) {
+          shape.isSelected = shape == selected;
+          shape.inGroup = selGroup != null && selGroup.containsShape(shape);
+          shape.dragged = dragList.contains(shape);
+          shape.draw(g2, zoomFactor, keyCtrl, keyShift, keyOption);
+        }
       }
     }
-    for (CADShape shape : new ArrayList<>(shapes)) {
-      shape.isSelected = shape == selected;
-      shape.inGroup = selected != null && selected.getGroup() != null && selected.getGroup().containsShape(shape);
-      shape.dragged = dragList != null && dragList.contains(shape);
-      shape.draw(g2, zoomFactor, keyCtrl, keyShift, keyOption);
-    }
+    liveShapes = live;
+    liveBounds = drawn;
     if (showMeasure) {
       g2.setColor(Color.gray);
       g2.setStroke(new BasicStroke(0.5f));
@@ -0,0 +1,473 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Post-processing pass over a stream of G-code lines which reduces the number of lines and bytes sent to a device:
+ *  - Drops modal words that don't change the machine's state, such as a repeated "G01", "M04", "S" or "F" value,
+ *    as well as axis words that don't change the position (only when modal is true)
+ *  - Merges runs of collinear, or nearly collinear G01 moves into a single move, as long as every point dropped
+ *    from the run is within tolerance of the merged move and the run doesn't reverse direction
+ *  - Replaces runs of G01 moves which fit a circular arc (such as a flattened circle, or rounded corner) with a
+ *    single G02, or G03 move, as long as every point in the run is within tolerance of the arc and the run turns
+ *    in one direction (only when arcs is true)
+ *  - Drops moves that go nowhere
+ * Lines with words it doesn't understand (such as G28, G4, comments, or "$" commands) are passed on unchanged and
+ * it then forgets what it knows about the machine's state, so that output is always equivalent to the input.
+ * Note: assumes absolute coordinates (G90), which is GRBL's default.
+ */
+
+class GCodeOptimizer {
+  interface Output {
+    void send (String line) throws InterruptedException;
+  }
+
+  private static final int      MAX_RUN = 256;              // Max points checked when merging a run of moves
+  private static final double   MAX_RADIUS = 100;           // Largest arc fitted (larger ones are nearly straight)
+  private static final double   MAX_SWEEP = Math.PI * 1.5;  // Largest angle swept by a fitted arc
+  private static final double   MAX_TURN = Math.toRadians(30);  // Largest turn between moves in a fitted arc
+  private static final int      MIN_ARC_POINTS = 4;         // Fewest points in a run fitted with an arc
+  // Kinds of pending runs
+  private static final int      RUN_LINE = 0;               // All points fit a line
+  private static final int      RUN_ARC = 1;                // All points fit an arc
+  private static final int      RUN_MOVES = 2;              // Too few points to fit an arc, yet, so send each move
+  private final double          tolerance;
+  private final boolean         modal, arcs;
+  private final String          sep;                        // Separator between words in lines this class builds
+  private final Output          out;
+  private final GCodeWriter     gw;
+  // Motion mode implied by the lines added so far (may differ from motion once an arc has been sent)
+  private int                   inMotion = -1;
+  // Machine state after lines sent so far (NaN, or -1 when unknown)
+  private int                   motion = -1, spindle = -1;
+  private double                sValue = Double.NaN, fValue = Double.NaN;
+  private double                xPos = Double.NaN, yPos = Double.NaN;
+  // Pending run of G01 moves (the run starts at runX[0], runY[0] and ends at xPos, yPos, with the text of each
+  // point's X and Y values in runXText and runYText), which can be sent as a single line, an arc, or as is
+  private final double[]        runX = new double[MAX_RUN + 1], runY = new double[MAX_RUN + 1];
+  private final String[]        runXText = new String[MAX_RUN + 1], runYText = new String[MAX_RUN + 1];
+  private int                   runLen, runKind;
+  private boolean               arcCcw;
+  private double                arcX, arcY;                 // Center of arc fitted to run
+  // Words parsed from current line
+  private final char[]          letters = new char[16];
+  private final double[]        values = new double[16];
+  private final int[]           starts = new int[16], ends = new int[16];
+  private int                   wordCount;
+  private final StringBuilder   buf = new StringBuilder();
+  private long                  linesIn, linesOut, bytesIn, bytesOut, arcsOut;
+
+  /**
+   * @param tolerance max distance a point dropped by merging moves may be from the merged move (0 for no merging)
+   * @param modal true if device implements modal G-code (such as GRBL), so unchanged modal words can be dropped
+   * @param arcs true if device implements G02 and G03, so runs of moves which fit an arc can be sent as an arc
+   * @param out where to send optimized lines
+   */
+  GCodeOptimizer (double tolerance, boolean modal, boolean arcs, Output out) {
+    this.tolerance = tolerance;
+    this.modal = modal;
+    this.arcs = arcs;
+    this.out = out;
+    sep = modal ? "" : " ";
+    // Note: arc centers need to be a good deal more precise than the tolerance, as devices check that the distance
+    // from the center to the start and end points of an arc match
+    gw = new GCodeWriter(GCodeWriter.digitsFor(tolerance / 100));
+  }
+
+  /**
+   * Optimize a line of G-code (lines may be held back while checking if they can be merged, so call flush()
+   * after the last line)
+   * @param line G-code line
+   * @throws InterruptedException if interrupted while sending
+   */
+  void add (String line) throws InterruptedException {
+    linesIn++;
+    bytesIn += line.length() + 1;
+    if (!parse(line)) {
+      // Pass on unchanged and forget machine state
+      flush();
+      send(line);
+      inMotion = motion = spindle = -1;
+      sValue = fValue = xPos = yPos = Double.NaN;
+      return;
+    }
+    int newMotion = inMotion, newSpindle = spindle;
+    double newS = sValue, newF = fValue, newX = xPos, newY = yPos;
+    String xText = null, yText = null;
+    boolean changed = false, hasG = false;
+    for (int ii = 0; ii < wordCount; ii++) {
+      double val = values[ii];
+      switch (letters[ii]) {
+        case 'G':
+          changed |= (int) val != inMotion;
+          newMotion = (int) val;
+          hasG = true;
+          break;
+        case 'M':
+          changed |= (int) val != spindle;
+          newSpindle = (int) val;
+          break;
+        case 'S':
+          changed |= val != sValue;
+          newS = val;
+          break;
+        case 'F':
+          changed |= val != fValue;
+          newF = val;
+          break;
+        case 'X':
+          newX = val;
+          xText = line.substring(starts[ii], ends[ii]);
+          break;
+        case 'Y':
+          newY = val;
+          yText = line.substring(starts[ii], ends[ii]);
+          break;
+      }
+    }
+    inMotion = newMotion;
+    boolean moves = (xText != null && newX != xPos) || (yText != null && newY != yPos);
+    // Note: a line sent unchanged when not modal must be a complete move, so it needs both axes
+    if (!changed && newMotion == 1 && !Double.isNaN(xPos) && !Double.isNaN(yPos) &&
+        (modal || (xText != null && yText != null))) {
+      // Line is only a G01 move, so try to add it to the pending run
+      if (moves) {
+        if (runLen > 0) {
+          if (runLen >= MAX_RUN) {
+            flush();
+          } else if (runKind == RUN_LINE && fitsLine(newX, newY)) {
+            runKind = RUN_LINE;
+          } else if (arcs && runLen + 1 >= MIN_ARC_POINTS && fitsArc(newX, newY)) {
+            runKind = RUN_ARC;
+          } else if (arcs && runLen + 1 < MIN_ARC_POINTS && turn(newX, newY) <= MAX_TURN) {
+            // Hold on to move in case the next one lets the run be fitted with an arc
+            runKind = RUN_MOVES;
+          } else {
+            flush();
+          }
+        }
+        if (runLen == 0) {
+          runX[0] = xPos;
+          runY[0] = yPos;
+          runXText[0] = runYText[0] = null;
+          runLen = 1;
+          runKind = RUN_LINE;
+        }
+        runX[runLen] = newX;
+        runY[runLen] = newY;
+        runXText[runLen] = xText != null ? xText : runXText[runLen - 1];
+        runYText[runLen] = yText != null ? yText : runYText[runLen - 1];
+        runLen++;
+        xPos = newX;
+        yPos = newY;
+      } else {
+        // Drop move that goes nowhere
+      }
+      return;
+    }
+    flush();
+    boolean hasAxes = xText != null || yText != null;
+    buf.setLength(0);
+    if (hasAxes && !hasG && newMotion != motion && newMotion >= 0) {
+      // Motion mode implied by the line was changed by an arc, so restore it
+      buf.append(newMotion == 0 ? "G00" : "G01").append(sep);
+    }
+    if (modal) {
+      // Rebuild line without words that don't change the machine's state
+      for (int ii = 0; ii < wordCount; ii++) {
+        double val = values[ii];
+        boolean keep;
+        switch (letters[ii]) {
+          case 'G': keep = (int) val != motion;  break;
+          case 'M': keep = (int) val != spindle; break;
+          case 'S': keep = val != sValue;        break;
+          case 'F': keep = val != fValue;        break;
+          case 'X': keep = val != xPos;          break;
+          case 'Y': keep = val != yPos;          break;
+          default:  keep = true;                 break;
+        }
+        if (keep) {
+          buf.append(letters[ii]).append(line, starts[ii], ends[ii]);
+        }
+      }
+      if (buf.length() > 0) {
+        send(buf.toString());
+      }
+    } else if (changed || moves || newMotion != 1 || newMotion != motion) {
+      send(buf.append(line).toString());
+    }
+    if (hasAxes || hasG) {
+      motion = newMotion;
+    }
+    spindle = newSpindle;
+    sValue = newS;
+    fValue = newF;
+    xPos = newX;
+    yPos = newY;
+  }
+
+  /*
+   * Check if the pending run can be extended to end at x, y with all its points within tolerance of the line
+   * segment from the start of the run to x, y (points beyond either end are measured to the nearest end)
+   */
+  private boolean fitsLine (double x, double y) {
+    double x0 = runX[0], y0 = runY[0];
+    double dx = x - x0, dy = y - y0;
+    double len = Math.sqrt(dx * dx + dy * dy);
+    if (len <= tolerance) {
+      return false;
+    }
+    for (int ii = 1; ii < runLen; ii++) {
+      double px = runX[ii] - x0, py = runY[ii] - y0;
+      double along = Math.max(0, Math.min(len, (px * dx + py * dy) / len));
+      double ex = px - along * dx / len, ey = py - along * dy / len;
+      if (ex * ex + ey * ey > tolerance * tolerance) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Angle (in radians) the pending run's last move turns through to continue on to x, y
+   */
+  private double turn (double x, double y) {
+    int last = runLen - 1;
+    double ax = runX[last] - runX[last - 1], ay = runY[last] - runY[last - 1];
+    double bx = x - runX[last], by = y - runY[last];
+    return Math.abs(Math.atan2(ax * by - ay * bx, ax * bx + ay * by));
+  }
+
+  /*
+   * Check if the pending run can be extended to end at x, y with all its points, and the midpoints of its moves,
+   * within tolerance of an arc which passes through the start, middle and end points of the run, and which turns
+   * in one direction by no more than MAX_TURN per move (sets arcX, arcY and arcCcw, if so).  Checking the midpoints
+   * limits the sagitta of each move, and limiting the turn per move means the corner of a polygon, such as a
+   * square, is never fitted with an arc, even though any three points lie on a circle.
+   */
+  private boolean fitsArc (double x, double y) {
+    int mid = (runLen + 1) / 2;
+    double x0 = runX[0], y0 = runY[0];
+    // Find center of circle through start, mid and end points (intersection of perpendicular bisectors)
+    double ax = runX[mid] - x0, ay = runY[mid] - y0;
+    double bx = x - x0, by = y - y0;
+    double det = 2 * (ax * by - ay * bx);
+    if (det == 0) {
+      return false;
+    }
+    double aa = ax * ax + ay * ay, bb = bx * bx + by * by;
+    double cx = (by * aa - ay * bb) / det;
+    double cy = (ax * bb - bx * aa) / det;
+    double radius = Math.sqrt(cx * cx + cy * cy);
+    if (radius > MAX_RADIUS) {
+      return false;
+    }
+    cx += x0;
+    cy += y0;
+    boolean ccw = det > 0;
+    double sweep = 0;
+    double px = x0 - cx, py = y0 - cy;
+    for (int ii = 1; ii <= runLen; ii++) {
+      double qx = (ii < runLen ? runX[ii] : x) - cx;
+      double qy = (ii < runLen ? runY[ii] : y) - cy;
+      double cross = px * qy - py * qx;
+      if (cross == 0 || (cross > 0) != ccw) {
+        return false;
+      }
+      double angle = Math.abs(Math.atan2(cross, px * qx + py * qy));
+      sweep += angle;
+      double mx = (px + qx) / 2, my = (py + qy) / 2;
+      if (angle > MAX_TURN || Math.abs(Math.sqrt(qx * qx + qy * qy) - radius) > tolerance ||
+          Math.abs(Math.sqrt(mx * mx + my * my) - radius) > tolerance) {
+        return false;
+      }
+      px = qx;
+      py = qy;
+    }
+    if (sweep > MAX_SWEEP) {
+      return false;
+    }
+    arcCcw = ccw;
+    arcX = cx;
+    arcY = cy;
+    return true;
+  }
+
+  /**
+   * Send any pending run of moves
+   * @throws InterruptedException if interrupted while sending
+   */
+  void flush () throws InterruptedException {
+    if (runLen > 0) {
+      int end = runLen - 1;
+      if (runKind == RUN_ARC) {
+        buf.setLength(0);
+        int code = arcCcw ? 3 : 2;
+        if (!modal || motion != code) {
+          buf.append(arcCcw ? "G03" : "G02").append(sep);
+        }
+        // Note: an axis without text never changed during the run
+        if (runXText[end] != null) {
+          buf.append('X').append(runXText[end]).append(sep);
+        }
+        if (runYText[end] != null) {
+          buf.append('Y').append(runYText[end]).append(sep);
+        }
+        // Note: I and J are the offset to the arc's center from its start point
+        buf.append(gw.axis('I', arcX - runX[0]).text(sep).axis('J', arcY - runY[0]).line());
+        motion = code;
+        arcsOut++;
+        send(buf.toString());
+      } else if (runKind == RUN_LINE) {
+        sendMove(0, end);
+      } else {
+        for (int ii = 1; ii <= end; ii++) {
+          sendMove(ii - 1, ii);
+        }
+      }
+      runLen = 0;
+    }
+  }
+
+  /*
+   * Send G01 move from point from to point to in the pending run
+   */
+  private void sendMove (int from, int to) throws InterruptedException {
+    buf.setLength(0);
+    if (modal) {
+      if (motion != 1) {
+        buf.append("G01");
+      }
+      if (runX[to] != runX[from]) {
+        buf.append('X').append(runXText[to]);
+      }
+      if (runY[to] != runY[from]) {
+        buf.append('Y').append(runYText[to]);
+      }
+    } else {
+      buf.append("G01").append(sep).append('X').append(runXText[to]).append(sep).append('Y').append(runYText[to]);
+    }
+    motion = 1;
+    send(buf.toString());
+  }
+
+  private void send (String line) throws InterruptedException {
+    linesOut++;
+    bytesOut += line.length() + 1;
+    out.send(line);
+  }
+
+  /*
+   * Parse line into words, such as "G01X1.5Y-2", or "G00 X1 Y2" (returns false if the line contains anything other
+   * than G0, G1, M3, M4, M5, S, F, X and Y words)
+   */
+  private boolean parse (String line) {
+    wordCount = 0;
+    int len = line.length();
+    int idx = 0;
+    while (idx < len) {
+      char cc = line.charAt(idx++);
+      if (cc == ' ') {
+        continue;
+      }
+      cc = Character.toUpperCase(cc);
+      if ("GMSFXY".indexOf(cc) < 0 || wordCount == letters.length) {
+        return false;
+      }
+      while (idx < len && line.charAt(idx) == ' ') {
+        idx++;
+      }
+      int start = idx;
+      // Parse a decimal number, such as "-12.345"
+      boolean neg = false;
+      if (idx < len && (line.charAt(idx) == '-' || line.charAt(idx) == '+')) {
+        neg = line.charAt(idx++) == '-';
+      }
+      long mantissa = 0;
+      int digits = 0, fraction = -1;
+      while (idx < len) {
+        char dd = line.charAt(idx);
+        if (dd >= '0' && dd <= '9' && digits < 18) {
+          mantissa = mantissa * 10 + (dd - '0');
+          digits++;
+          if (fraction >= 0) {
+            fraction++;
+          }
+        } else if (dd == '.' && fraction < 0) {
+          fraction = 0;
+        } else {
+          break;
+        }
+        idx++;
+      }
+      if (digits == 0 || (idx < len && Character.isDigit(line.charAt(idx)))) {
+        return false;
+      }
+      double val = fraction > 0 ? mantissa / Math.pow(10, fraction) : mantissa;
+      // Check for codes that have meanings other than those handled here
+      int code = (int) val;
+      if ((cc == 'G' && (fraction > 0 || code > 1)) || (cc == 'M' && (fraction > 0 || code < 3 || code > 5))) {
+        return false;
+      }
+      // Duplicate words in a line are an error, so leave them for the device to report
+      for (int ii = 0; ii < wordCount; ii++) {
+        if (letters[ii] == cc) {
+          return false;
+        }
+      }
+      letters[wordCount] = cc;
+      values[wordCount] = neg ? -val : val;
+      starts[wordCount] = start;
+      ends[wordCount] = idx;
+      wordCount++;
+    }
+    return true;
+  }
+
+  long getLinesIn () {
+    return linesIn;
+  }
+
+  long getLinesOut () {
+    return linesOut;
+  }
+
+  long getBytesIn () {
+    return bytesIn;
+  }
+
+  long getBytesOut () {
+    return bytesOut;
+  }
+
+  /**
+   * @return description of the reduction in lines and bytes, such as for a job's log
+   */
+  String getStats () {
+    return String.format("Optimized G-code: %d lines to %d (-%d%%), %d bytes to %d (-%d bytes), %d arcs", linesIn,
+                         linesOut, linesIn > 0 ? (linesIn - linesOut) * 100 / linesIn : 0, bytesIn, bytesOut,
+                         bytesIn - bytesOut, arcsOut);
+  }
+
+  /*
+   * Optimize a G-code file, such as to check the result of the optimizer
+   *  Usage: GCodeOptimizer <in file> <out file> [tolerance] [-nonmodal] [-noarcs]
+   */
+  public static void main (String[] args) throws Exception {
+    double tolerance = args.length > 2 && !args[2].startsWith("-") ? Double.parseDouble(args[2]) : .0002;
+    List<String> options = Arrays.asList(args);
+    boolean modal = !options.contains("-nonmodal");
+    boolean arcs = !options.contains("-noarcs");
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8));
+         PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8))) {
+      GCodeOptimizer opt = new GCodeOptimizer(tolerance, modal, arcs, out::println);
+      String line;
+      while ((line = in.readLine()) != null) {
+        opt.add(line.trim());
+      }
+      opt.flush();
+      System.out.println(opt.getStats());
+    }
+  }
+}
@@ -0,0 +1,208 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded producer/consumer queue of G-code lines, which lets a sender, such as GRBLSender, start streaming a job
+ * to a device while a Generator is still producing it on another thread.  The Generator blocks when the queue is
+ * full, so the number of lines held in memory stays at CAPACITY, no matter how large the job (such as a high DPI
+ * raster engrave, which can generate millions of lines), rather than building every line into a List first.
+ */
+class GCodeQueue {
+  static final int              CAPACITY = 8192;        // Max lines waiting to be sent
+  static final int              LOG_LINES = 1000;       // Lines kept by appendToLog()
+  private static final String   END = new String("");   // Marks end of job (compared by identity)
+  private final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<>(CAPACITY);
+  private volatile boolean      cancelled, complete;
+  private volatile Throwable    error;
+  private volatile int          lineCount;
+  private final GCodeOptimizer  optimizer;
+  private volatile PathPlanner.Stats planStats;
+
+  /**
+   * Thrown by next() when the Generator fails partway through a job (the cause is the Generator's failure)
+   */
+  static class GeneratorException extends Exception {
+    private static final long serialVersionUID = 6283749917285467102L;
+
+    GeneratorException (Throwable cause) {
+      super("Unable to generate G-code: " + cause, cause);
+    }
+  }
+
+  interface Generator {
+    /**
+     * Generate job by calling add() for each line
+     * @param out GCodeQueue to add lines to
+     * @throws Exception if unable to generate job (passed on to the sender by next())
+     */
+    void generate (GCodeQueue out) throws Exception;
+  }
+
+  /**
+   * Start generating a job on a new thread
+   * @param generator Generator for the job's G-code
+   */
+  GCodeQueue (Generator generator) {
+    this(generator, false, 0, false, false);
+  }
+
+  /**
+   * Start generating a job on a new thread and pass it through a GCodeOptimizer
+   * @param generator Generator for the job's G-code
+   * @param tolerance max distance a point can be from a merged move (see GCodeOptimizer)
+   * @param modal true if the device implements modal G-code, such as GRBL (see GCodeOptimizer)
+   * @param arcs true if the device implements G02 and G03 arcs (see GCodeOptimizer)
+   */
+  GCodeQueue (Generator generator, double tolerance, boolean modal, boolean arcs) {
+    this(generator, true, tolerance, modal, arcs);
+  }
+
+  private GCodeQueue (Generator generator, boolean optimize, double tolerance, boolean modal, boolean arcs) {
+    optimizer = optimize ? new GCodeOptimizer(tolerance, modal, arcs, this::send) : null;
+    Thread thread = new Thread(() -> {
+      try {
+        generator.generate(this);
+        if (optimizer != null) {
+          optimizer.flush();
+        }
+      } catch (CancellationException ex) {
+        // Sender stopped taking lines
+      } catch (Throwable ex) {
+        // Note: includes Errors, such as OutOfMemoryError, so the sender is never left waiting for END
+        error = ex;
+      } finally {
+        complete = true;
+        try {
+          put(END);
+        } catch (InterruptedException | CancellationException ex) {
+          // Ignore
+        }
+      }
+    }, "G-code Generator");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Make a job from a fixed list of lines, such as a few setup commands
+   * @param lines G-code lines
+   */
+  GCodeQueue (String[] lines) {
+    this(out -> {
+      for (String line : lines) {
+        out.add(line);
+      }
+    });
+  }
+
+  /**
+   * Called by Generator to add a line (blocks while the queue is full)
+   * @param line G-code line
+   * @throws InterruptedException if interrupted while waiting
+   * @throws CancellationException if the sender has called cancel()
+   */
+  void add (String line) throws InterruptedException {
+    if (optimizer != null) {
+      optimizer.add(line);
+    } else {
+      send(line);
+    }
+  }
+
+  private void send (String line) throws InterruptedException {
+    put(line);
+    lineCount++;
+  }
+
+  private void put (String line) throws InterruptedException {
+    while (!queue.offer(line, 100, TimeUnit.MILLISECONDS)) {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+    }
+    if (cancelled) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Called by the sender to get the next line (blocks until the Generator adds one)
+   * @return next line, or null at end of job
+   * @throws GeneratorException if the Generator failed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  String next () throws GeneratorException, InterruptedException {
+    String line = queue.take();
+    if (line == END) {
+      queue.offer(END);                                 // So further calls also return null
+      if (error != null) {
+        throw new GeneratorException(error);
+      }
+      return null;
+    }
+    return line;
+  }
+
+  /**
+   * Called by the sender to stop the Generator (such as when the job is aborted)
+   */
+  void cancel () {
+    cancelled = true;
+    queue.clear();
+  }
+
+  /**
+   * @return true when the Generator has finished, so getLineCount() is the total for the job
+   */
+  boolean isComplete () {
+    return complete;
+  }
+
+  /**
+   * Set the PathPlanner stats for the shapes in the job, so they can be shown in the job's log by getStats()
+   * @param stats PathPlanner.Stats, or null if the job's path wasn't planned
+   */
+  void setPlanStats (PathPlanner.Stats stats) {
+    planStats = stats;
+  }
+
+  /**
+   * @return description of the travel saved by the PathPlanner and the lines and bytes saved by the job's
+   * GCodeOptimizer, or null if neither was used
+   */
+  String getStats () {
+    String opt = optimizer != null && complete ? optimizer.getStats() : null;
+    if (planStats != null) {
+      return "Path planner " + planStats + (opt != null ? "\n" + opt : "");
+    }
+    return opt;
+  }
+
+  /**
+   * @return number of lines queued by the Generator, so far (after optimization)
+   */
+  int getLineCount () {
+    return lineCount;
+  }
+
+  /**
+   * Append a line to a JTextArea used to log a job, but discard older lines, so the log doesn't grow with the job
+   * @param log JTextArea
+   * @param line text to append (a newline is added)
+   */
+  static void appendToLog (JTextArea log, String line) {
+    log.append(line);
+    log.append("\n");
+    int lines = log.getLineCount();
+    if (lines > LOG_LINES * 2) {
+      try {
+        log.replaceRange("", 0, log.getLineEndOffset(lines - LOG_LINES - 1));
+      } catch (BadLocationException ex) {
+        // Ignore
+      }
+    }
+  }
+}
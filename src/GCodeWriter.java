@@ -0,0 +1,203 @@
+import java.text.DecimalFormat;
+
+/*
+ * Assembles lines of G-code in a reusable buffer, formatting coordinates as fixed-point numbers, rather than using
+ * DecimalFormat (which is slow and not thread-safe) and String concatenation.  Numbers are formatted the same way
+ * as a DecimalFormat("#.###") pattern with the same number of digits, so redundant trailing zeros are dropped, such
+ * as "0.5" for 0.500, or "2" for 2.000, except that a value which rounds to zero is never output as "-0".
+ *
+ * Usage: queue.add(gw.text("G01").axis('X', x).axis('Y', y).line());
+ */
+
+class GCodeWriter {
+  private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L};
+  private static final int    MAX_DIGITS = POW10.length - 1;
+  private char[]              buf = new char[64];
+  private int                 len;
+  private final int           digits;
+  private final long          scale;
+  private final double        maxValue;
+
+  /**
+   * @param digits max digits after the decimal point (0 - 8)
+   */
+  GCodeWriter (int digits) {
+    this.digits = Math.max(0, Math.min(MAX_DIGITS, digits));
+    scale = POW10[this.digits];
+    maxValue = (double) (Long.MAX_VALUE / 10) / scale;
+  }
+
+  /**
+   * Compute the number of digits after the decimal point needed to express a position to within a given resolution,
+   * such as a machine's step size, or a fraction of a raster's pixel size
+   * @param resolution smallest distance that needs to be expressed (in the same units as the G-code)
+   * @return digits after decimal point (0 - 8)
+   */
+  static int digitsFor (double resolution) {
+    int digits = 0;
+    while (digits < MAX_DIGITS && 1.0 / POW10[digits] > resolution * (1 + 1e-9)) {
+      digits++;
+    }
+    return digits;
+  }
+
+  private void ensure (int room) {
+    if (len + room > buf.length) {
+      char[] tmp = new char[Math.max(buf.length * 2, len + room)];
+      System.arraycopy(buf, 0, tmp, 0, len);
+      buf = tmp;
+    }
+  }
+
+  /**
+   * Append text, such as a G-code command, like "G01"
+   * @param text text to append
+   * @return this GCodeWriter (for chaining)
+   */
+  GCodeWriter text (String text) {
+    int tLen = text.length();
+    ensure(tLen);
+    text.getChars(0, tLen, buf, len);
+    len += tLen;
+    return this;
+  }
+
+  /**
+   * Append an integer value, such as the power after "S", or a feed rate after "F"
+   * @param value value to append
+   * @return this GCodeWriter (for chaining)
+   */
+  GCodeWriter value (int value) {
+    appendLong(value);
+    return this;
+  }
+
+  /**
+   * Append an axis letter and coordinate, such as "X1.25"
+   * @param axis axis letter, such as 'X', or 'Y'
+   * @param value coordinate value
+   * @return this GCodeWriter (for chaining)
+   */
+  GCodeWriter axis (char axis, double value) {
+    ensure(1);
+    buf[len++] = axis;
+    return number(value);
+  }
+
+  /**
+   * Append a number, rounded to this GCodeWriter's number of digits after the decimal point
+   * @param value value to append
+   * @return this GCodeWriter (for chaining)
+   */
+  GCodeWriter number (double value) {
+    if (Double.isNaN(value) || Math.abs(value) >= maxValue) {
+      return text(Double.toString(value));
+    }
+    long fixed = Math.round(value * scale);
+    if (fixed < 0) {
+      ensure(1);
+      buf[len++] = '-';
+      fixed = -fixed;
+    }
+    long whole = fixed / scale;
+    long frac = fixed - whole * scale;
+    appendLong(whole);
+    if (frac != 0) {
+      // Drop trailing zeros
+      int fDigits = digits;
+      while (frac % 10 == 0) {
+        frac /= 10;
+        fDigits--;
+      }
+      ensure(fDigits + 1);
+      buf[len] = '.';
+      for (int ii = fDigits; ii > 0; ii--) {
+        buf[len + ii] = (char) ('0' + frac % 10);
+        frac /= 10;
+      }
+      len += fDigits + 1;
+    }
+    return this;
+  }
+
+  private void appendLong (long value) {
+    ensure(20);
+    if (value < 0) {
+      buf[len++] = '-';
+      value = -value;
+    }
+    int start = len;
+    do {
+      buf[len++] = (char) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    // Digits were added in reverse order
+    for (int ii = start, jj = len - 1; ii < jj; ii++, jj--) {
+      char tmp = buf[ii];
+      buf[ii] = buf[jj];
+      buf[jj] = tmp;
+    }
+  }
+
+  /**
+   * @return number of characters in the current line
+   */
+  int length () {
+    return len;
+  }
+
+  /**
+   * Get the line assembled so far and reset the buffer for the next line
+   * @return line of G-code (without a line terminator)
+   */
+  String line () {
+    String line = new String(buf, 0, len);
+    len = 0;
+    return line;
+  }
+
+  /*
+   * Check output against DecimalFormat and compare speed
+   */
+  public static void main (String[] args) {
+    int count = 2000000;
+    double[] vals = new double[count];
+    java.util.Random rand = new java.util.Random(1);
+    for (int ii = 0; ii < count; ii++) {
+      vals[ii] = (rand.nextDouble() - .25) * Math.pow(10, rand.nextInt(4));
+    }
+    for (int digits = 0; digits <= 5; digits++) {
+      DecimalFormat fmt = new DecimalFormat(digits > 0 ? "#." + "#####".substring(0, digits) : "#");
+      GCodeWriter gw = new GCodeWriter(digits);
+      int diffs = 0;
+      for (int ii = 0; ii < count; ii++) {
+        String s1 = fmt.format(vals[ii]);
+        String s2 = gw.number(vals[ii]).line();
+        // Note: DecimalFormat rounds half even and can output "-0", so these differences are expected
+        if (!s1.equals(s2) && !s1.equals("-0") && Math.abs(vals[ii] * POW10[digits] % 1) != .5) {
+          if (diffs++ < 5) {
+            System.out.println(vals[ii] + ": " + s1 + " != " + s2);
+          }
+        }
+      }
+      System.out.println(digits + " digits: " + diffs + " differences");
+    }
+    DecimalFormat fmt = new DecimalFormat("#.####");
+    GCodeWriter gw = new GCodeWriter(4);
+    for (int rep = 0; rep < 5; rep++) {
+      long t0 = System.nanoTime();
+      int chars1 = 0;
+      for (int ii = 0; ii < count - 1; ii++) {
+        chars1 += ("G01X" + fmt.format(vals[ii]) + "Y" + fmt.format(vals[ii + 1])).length();
+      }
+      long t1 = System.nanoTime();
+      int chars2 = 0;
+      for (int ii = 0; ii < count - 1; ii++) {
+        chars2 += gw.text("G01").axis('X', vals[ii]).axis('Y', vals[ii + 1]).line().length();
+      }
+      long t2 = System.nanoTime();
+      System.out.printf("DecimalFormat: %d ms, GCodeWriter: %d ms (%d / %d chars)%n", (t1 - t0) / 1000000,
+                        (t2 - t1) / 1000000, chars1, chars2);
+    }
+  }
+}
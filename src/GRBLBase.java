@@ -115,6 +115,7 @@ import static javax.swing.JOptionPane.*;
    */
 
 abstract class GRBLBase {
+  static final int  GRBL_RX_BUFFER = 128;             // Size of serial RX buffer in standard (Arduino Uno) GRBL
   JSSCPort      jPort;
   Preferences   prefs;
   LaserCut      laserCut;
@@ -145,6 +146,14 @@ abstract class GRBLBase {
     prefs.putDouble(getPrefix() + name, value);
   }
 
+  /**
+   * @return size of GRBL's serial RX buffer, in bytes, used by GRBLSender for flow control (some builds of GRBL,
+   * such as those for 32 bit processors, have a larger buffer)
+   */
+  int getRxBufferSize () {
+    return getInt("rxbuffer", GRBL_RX_BUFFER);
+  }
+
   GRBLBase (LaserCut laserCut, Preferences prefs) {
     this.laserCut = laserCut;
     this.prefs = prefs;
@@ -845,25 +854,44 @@ abstract class GRBLBase {
    *  Used by LaserCut to send engraving and cutting g-code to GRBL-based devices
    *  See: https://github.com/gnea/grbl/wiki
    */
+  /**
+   * Sends G-code to GRBL using its "character counting" flow control, which keeps GRBL's serial RX buffer full
+   * (rather than a fixed number of lines), so the planner never runs dry waiting on short lines, such as those
+   * generated when engraving.  The length of each line sent is kept in a queue and GRBL's "ok", or "error"
+   * response to each line removes its length from the count of bytes in GRBL's buffer.  A line is only sent when
+   * it will fit in the space left in the buffer (see getRxBufferSize()), otherwise the sending thread waits on
+   * lock until a response frees enough space.
+   * See: https://github.com/gnea/grbl/wiki/Grbl-v1.1-Interface#streaming-protocol-character-counting-recommended-with-reservation
+   */
   class GRBLSender extends JDialog implements JSSCPort.RXEvent, Runnable {
     private final StringBuilder   response = new StringBuilder();
-    private String          lastResponse = "";
-    private final String[]        cmds;
-    private final String[] abortCmds;
+    private volatile String       lastResponse = "";
+    private final GCodeQueue      job;
+    private final String[]        abortCmds;
     private final JTextArea       grbl;
     private final JProgressBar    progress;
-    private volatile long   cmdQueue;
-    private final Lock      lock = new Lock();
-    private boolean         doAbort, ready;
+    private final int             rxBufferSize;
+    private final ArrayDeque<Integer> inFlight = new ArrayDeque<>();   // Length of each line GRBL hasn't answered
+    private int                   bytesInFlight;
+    private long                  linesSent, occupancySum;
+    private int                   peakOccupancy;
+    private final Lock            lock = new Lock();
+    private volatile boolean      doAbort, ready;
+    private volatile Exception    jobError;
 
     final class Lock { }
 
-    GRBLSender (String[] cmds, String[] abortCmds) {
+    /*
+     * Stream job to GRBL as it's generated (the total line count isn't known until the job's Generator finishes,
+     * so the progress bar is indeterminate until then)
+     */
+    GRBLSender (GCodeQueue job, String[] abortCmds) {
       super(laserCut, false);
       setTitle("G-Code Monitor");
       setLocationRelativeTo(laserCut);
       add(progress = new JProgressBar(), BorderLayout.NORTH);
-      progress.setMaximum(cmds.length);
+      progress.setIndeterminate(true);
+      progress.setStringPainted(true);
       JScrollPane sPane = new JScrollPane(grbl = new JTextArea());
       grbl.setMargin(new Insets(3, 3, 3, 3));
       DefaultCaret caret = (DefaultCaret) grbl.getCaret();
@@ -872,30 +900,45 @@ abstract class GRBLBase {
       add(sPane, BorderLayout.CENTER);
       JButton abort = new JButton("Abort Job");
       add(abort, BorderLayout.SOUTH);
-      abort.addActionListener(ev -> doAbort = true);
+      abort.addActionListener(ev -> {
+        synchronized (lock) {
+          doAbort = true;
+          lock.notifyAll();
+        }
+      });
       Rectangle loc = getBounds();
       setSize(400, 300);
       setLocation(loc.x + loc.width / 2 - 150, loc.y + loc.height / 2 - 150);
       validate();
-      this.cmds = cmds;
+      this.job = job;
       this.abortCmds = abortCmds;
+      this.rxBufferSize = getRxBufferSize();
       new Thread(this).start();
     }
 
     public void rxChar (byte cc) {
       if (cc == '\n') {
         String rsp = response.toString();
+        response.setLength(0);
         if (ready) {
-          if (!rsp.toLowerCase().contains("ok")) {
-            grbl.append(lastResponse = rsp);
-            grbl.append("\n");
+          String lower = rsp.toLowerCase();
+          boolean ok = lower.startsWith("ok");
+          boolean error = lower.startsWith("error");
+          if (!ok) {
+            GCodeQueue.appendToLog(grbl, lastResponse = rsp);
           }
-          if (rsp.toLowerCase().contains("error")) {
-            doAbort = true;
-          }
-          response.setLength(0);
-          synchronized (lock) {
-            cmdQueue--;
+          if (ok || error) {
+            // GRBL has processed the oldest line, so its bytes have left the RX buffer
+            synchronized (lock) {
+              Integer len = inFlight.poll();
+              if (len != null) {
+                bytesInFlight -= len;
+              }
+              if (error) {
+                doAbort = true;
+              }
+              lock.notifyAll();
+            }
           }
         } else {
           ready = rsp.contains("Grbl");
@@ -905,16 +948,54 @@ abstract class GRBLBase {
       }
     }
 
-    private void stepWait (int top) throws InterruptedException {
-      boolean wait;
-      do {
-        synchronized (lock) {
-          wait = cmdQueue > top && !doAbort;
+    /*
+     * Send a line of G-code once there's room for it in GRBL's RX buffer (a line too long to ever fit is sent
+     * when the buffer is empty)
+     */
+    private void sendLine (String gcode) throws Exception {
+      sendLine(gcode, true);
+    }
+
+    /*
+     * Send a line of G-code once there's room for it in GRBL's RX buffer
+     * @param abortable if true, return without sending the line if the job is aborted (false for abort commands)
+     */
+    private void sendLine (String gcode, boolean abortable) throws Exception {
+      int len = gcode.length() + 1;
+      synchronized (lock) {
+        // Note: GRBL's RX buffer is a ring buffer, which can only hold rxBufferSize - 1 bytes
+        while (!inFlight.isEmpty() && bytesInFlight + len >= rxBufferSize && !(abortable && doAbort)) {
+          lock.wait(100);
         }
-        if (wait) {
-          Thread.sleep(0, 400);
+        if (abortable && doAbort) {
+          return;
         }
-      } while (wait);
+        inFlight.add(len);
+        bytesInFlight += len;
+        linesSent++;
+        occupancySum += bytesInFlight;
+        peakOccupancy = Math.max(peakOccupancy, bytesInFlight);
+      }
+      jPort.sendString(gcode + '\n');
+    }
+
+    /*
+     * Wait until GRBL has responded to every line sent
+     */
+    private void waitForAll () throws InterruptedException {
+      synchronized (lock) {
+        while (!inFlight.isEmpty() && !doAbort) {
+          lock.wait(100);
+        }
+      }
+    }
+
+    private String getStats (long startTime) {
+      double secs = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+      synchronized (lock) {
+        return String.format("%d lines/sec, buffer %d of %d bytes (avg %d, peak %d)", Math.round(linesSent / secs),
+                             bytesInFlight, rxBufferSize, linesSent > 0 ? occupancySum / linesSent : 0, peakOccupancy);
+      }
     }
 
     // Responses to "?" command
@@ -922,7 +1003,6 @@ abstract class GRBLBase {
     //  <Idle|MPos:0.000,0.000,0.000|FS:0,0|Pn:Z>
 
     public void run () {
-      cmdQueue = 0;
       try {
         setVisible(true);
         grbl.setText("Connecting");
@@ -944,10 +1024,12 @@ abstract class GRBLBase {
         }
         grbl.append("\nConnected\n");
         paint(getGraphics());                 // Kludge to get JTextArea to update
-        response.setLength(0);
-        for (int ii = 0; (ii < cmds.length) && !doAbort; ii++) {
-          String gcode = cmds[ii].trim();
-          grbl.append(gcode + '\n');
+        long startTime = System.nanoTime();
+        long lastStats = startTime;
+        String line;
+        for (int ii = 0; !doAbort && (line = nextLine()) != null; ii++) {
+          String gcode = line.trim();
+          GCodeQueue.appendToLog(grbl, gcode);
           if (gcode.contains(";")) {
             // Remove comments
             gcode = gcode.substring(0, gcode.indexOf(";")).trim();
@@ -956,36 +1038,105 @@ abstract class GRBLBase {
           if (gcode.length() == 0) {
             continue;
           }
+          if (progress.isIndeterminate() && job.isComplete()) {
+            progress.setMaximum(job.getLineCount());
+            progress.setIndeterminate(false);
+          }
           progress.setValue(ii);
-          jPort.sendString(gcode + '\n');
-          synchronized (lock) {
-            cmdQueue++;
+          sendLine(gcode);
+          if (System.nanoTime() - lastStats > 500000000L) {
+            lastStats = System.nanoTime();
+            progress.setString(getStats(startTime));
           }
-          stepWait(5);                        // max number of 25 character gcode lines in GRBL's 128 byte buffer
         }
-        stepWait(0);
+        waitForAll();
+        String stats = getStats(startTime);
+        progress.setString(stats);
+        grbl.append(stats + "\n");
+        if (job.getStats() != null) {
+          grbl.append(job.getStats() + "\n");
+        }
         // Wait until all commands have been processed
         boolean waiting = true;
         while (waiting && !doAbort) {
           Thread.sleep(200);
-          jPort.sendString("?");              // Set ? command to query status
-          stepWait(1);
+          jPort.sendString("?");              // Set ? command to query status (real-time command, so not counted)
           if (lastResponse.contains("<Idle")) {
             waiting = false;
           }
         }
         if (doAbort) {
-          for (String cmd : abortCmds) {
-            jPort.sendString(cmd + "\n");     // Set abort command
-            stepWait(1);
-          }
+          abortJob();
         }
       } catch (Exception ex) {
         ex.printStackTrace();
       }
+      job.cancel();                           // Stop the job's Generator, if still running
       jPort.close();
       setVisible(false);
       dispose();
+      if (jobError != null) {
+        SwingUtilities.invokeLater(() -> showMessageDialog(laserCut, jobError.getMessage(), "Error", PLAIN_MESSAGE));
+      }
+    }
+
+    /*
+     * Stop GRBL and send the abort commands.  GRBL's RX buffer is usually nearly full, so the abort commands could
+     * be dropped if sent right away.  Instead, a Feed Hold brings the machine to a controlled stop (so it doesn't
+     * lose its position) and then a Soft Reset empties the RX buffer and planner and turns off the laser, or spindle.
+     * The abort commands are then sent using the same flow control as the job.
+     */
+    private void abortJob () throws Exception {
+      jPort.sendByte((byte) '!');             // Feed Hold (real-time command)
+      boolean stopped = false;
+      for (int ii = 0; ii < 50 && !stopped; ii++) {
+        Thread.sleep(100);
+        jPort.sendString("?");
+        stopped = lastResponse.contains("<Hold:0") || lastResponse.contains("<Idle");
+      }
+      ready = false;
+      jPort.sendByte((byte) 0x18);            // Soft Reset (Ctrl-X)
+      synchronized (lock) {
+        inFlight.clear();
+        bytesInFlight = 0;
+      }
+      for (int ii = 0; ii < 50 && !ready; ii++) {
+        Thread.sleep(100);                    // Wait for GRBL's startup message
+      }
+      ready = true;
+      GCodeQueue.appendToLog(grbl, "-abort-");
+      if (!stopped) {
+        // Reset during motion puts GRBL in Alarm state, which locks out G-code
+        sendLine("$X", false);
+      }
+      for (String cmd : abortCmds) {
+        GCodeQueue.appendToLog(grbl, cmd);
+        sendLine(cmd, false);
+      }
+      synchronized (lock) {
+        for (int ii = 0; ii < 50 && !inFlight.isEmpty(); ii++) {
+          lock.wait(100);
+        }
+      }
+    }
+
+    /*
+     * Get next line of the job, but abort the job if its Generator failed partway through, so the abort commands
+     * are sent to turn off the laser, or spindle
+     */
+    private String nextLine () throws InterruptedException {
+      try {
+        return job.next();
+      } catch (GCodeQueue.GeneratorException ex) {
+        ex.printStackTrace();
+        jobError = ex;
+        GCodeQueue.appendToLog(grbl, ex.getMessage());
+        synchronized (lock) {
+          doAbort = true;
+          lock.notifyAll();
+        }
+        return null;
+      }
     }
   }
 }
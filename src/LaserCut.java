@@ -44,7 +44,7 @@ public class LaserCut extends JFrame {
   private final JMenuBar              menuBar = new JMenuBar();
   private JMenuItem                   gerberZip;
   private int                         pxDpi = prefs.getInt("svg.pxDpi", 96);
-  private long                        savedCrc;
+  private long                        savedVersion;
   private boolean                     useMouseWheel = prefs.getBoolean("useMouseWheel", false);
   private boolean                     snapToGrid = prefs.getBoolean("snapToGrid", true);
   private boolean                     displayGrid = prefs.getBoolean("displayGrid", true);
@@ -93,7 +93,7 @@ public class LaserCut extends JFrame {
   }
 
   private boolean quitHandler () {
-    if (savedCrc == surface.getDesignChecksum() || showWarningDialog("You have unsaved changes!\nDo you really want to quit?")) {
+    if (savedVersion == surface.getDesignVersion() || showWarningDialog("You have unsaved changes!\nDo you really want to quit?")) {
       try {
         if (outputDevice != null) {
           outputDevice.closeDevice();
@@ -148,6 +148,8 @@ public class LaserCut extends JFrame {
     }
     items.put("macMenuBar", new ParameterDialog.ParmItem("Enable Mac Menu Bar", prefs.getBoolean("macMenuBar", false)));
     items.put("pxDpi", new ParameterDialog.ParmItem("px per Inch (SVG Import/Export)", prefs.getInt("svg.pxDpi", 96)));
+    items.put("undoBudget", new ParameterDialog.ParmItem("Undo Memory Limit (MB){" + surface.getUndoSizeInfo() + "}",
+              surface.getUndoBudget()));
     ParameterDialog.ParmItem[] parmSet = items.values().toArray(new ParameterDialog.ParmItem[0]);
     ParameterDialog dialog = (new ParameterDialog("LaserCut Preferences", parmSet, new String[]{"Save", "Cancel"},
                               prefs.get("displayUnits", "in")));
@@ -198,6 +200,8 @@ public class LaserCut extends JFrame {
         } else if ("pxDpi".equals(name)) {
           pxDpi = (Integer) parm.value;
           prefs.putInt("svg.pxDpi", pxDpi);
+        } else if ("undoBudget".equals(name)) {
+          surface.setUndoBudget(Math.max(1, (Integer) parm.value));
         } else if ("onStartup".equals(name)) {
           onStartup = (String) parm.value;
           prefs.put("onStartup", onStartup);
@@ -356,7 +360,7 @@ public class LaserCut extends JFrame {
           return;
         }
         surface.clear();
-        savedCrc = surface.getDesignChecksum();
+        savedVersion = surface.getDesignVersion();
         setTitle("LaserCut");
       }
     });
@@ -371,7 +375,7 @@ public class LaserCut extends JFrame {
           SurfaceSettings settings = loadLaserCutFile(oFile);
           surface.setDesign(settings);
           setTitle("LaserCut - " + oFile.getAbsolutePath());
-          savedCrc = surface.getDesignChecksum();
+          savedVersion = surface.getDesignVersion();
           prefs.put("default.dir", oFile.getAbsolutePath());
           prefs.put("lastFile", oFile.getAbsolutePath());
           setTitle("LaserCut - (" + oFile + ")");
@@ -395,7 +399,7 @@ public class LaserCut extends JFrame {
     FileChooserMenu saveAsMenu = new FileChooserMenu(this, "Save LaserCut File As", "lzr", KeyEvent.VK_S, true, false) {
       void processFile (File sFile) throws Exception {
         writeToLaserCutFile(sFile, false);
-        savedCrc = surface.getDesignChecksum();
+        savedVersion = surface.getDesignVersion();
         setTitle("LaserCut - " + sFile);
         prefs.put("lastFile", sFile.getAbsolutePath());
         prefs.put("default.dir", sFile.getAbsolutePath());
@@ -408,7 +412,7 @@ public class LaserCut extends JFrame {
     FileChooserMenu saveSelectedMenu = new FileChooserMenu(this, "Save Selected As", "lzr", 0, true, false) {
       void processFile (File sFile) throws Exception {
         writeToLaserCutFile(sFile, true);
-        savedCrc = surface.getDesignChecksum();
+        savedVersion = surface.getDesignVersion();
         setTitle("LaserCut - " + sFile);
         prefs.put("lastFile", sFile.getAbsolutePath());
         prefs.put("default.dir", sFile.getAbsolutePath());
@@ -554,7 +558,18 @@ public class LaserCut extends JFrame {
     //
     JMenuItem combineDragSelected = new MyMenuItem("Combine Selected Paths", KeyEvent.VK_C, false);
     combineDragSelected.setToolTipText("Experimental Feature");
-    combineDragSelected.addActionListener((ev) -> surface.combineDragSelected());
+    combineDragSelected.addActionListener((ev) -> {
+      double tolerance = prefs.getDouble("combine.tolerance", ShapeOptimizer.DEFAULT_TOLERANCE);
+      ParameterDialog.ParmItem[] cParms = {new ParameterDialog.ParmItem("tolerance|in{join ends closer than this (0 joins only ends that match exactly)}", tolerance)};
+      ParameterDialog cDialog = (new ParameterDialog("Edit Parameters", cParms, new String[]{"Combine", "Cancel"}, prefs.get("displayUnits", "in")));
+      cDialog.setLocationRelativeTo(surface.getParent());
+      cDialog.setVisible(true);              // Note: this call invokes dialog
+      if (cDialog.wasPressed()) {
+        tolerance = Math.max(0, (Double) cParms[0].value);
+        prefs.putDouble("combine.tolerance", tolerance);
+        surface.combineDragSelected(tolerance);
+      }
+    });
     editMenu.add(combineDragSelected);
     //
     // Add "Align Grouped Shape(s) to Selected Shape's" submenu
@@ -874,7 +889,7 @@ public class LaserCut extends JFrame {
       // Add Test Gear
       surface.addShape(new CADGear(2.25, 2.25, .1, 30, 10, 20, .25, 0, Utils2D.mmToInches(3)));
     }
-    savedCrc = surface.getDesignChecksum();   // Allow quit if unchanged
+    savedVersion = surface.getDesignVersion();   // Allow quit if unchanged
   }
 
   void updateWorkspace () {
@@ -982,14 +997,11 @@ public class LaserCut extends JFrame {
         saveFile = new File(fPath + ".lzr");
       }
       FileOutputStream fileOut = new FileOutputStream(saveFile);
-      ObjectOutputStream out = new ObjectOutputStream(fileOut);
       List<CADShape> design = selected ? surface.getSelectedAsDesign() : surface.getDesign();
-      out.writeObject(design);
       // Save DrawSurface setting and JScrollPane position
       JViewport viewPort = scrollPane.getViewport();
       SurfaceSettings settings = new SurfaceSettings(surface, viewPort);
-      out.writeObject(settings);
-      out.close();
+      LzrFile.write(fileOut, design, settings);
       fileOut.close();
     } catch (Exception ex) {
       showErrorDialog("Unable to save LaserCut file");
@@ -997,9 +1009,23 @@ public class LaserCut extends JFrame {
     }
   }
 
-  private static SurfaceSettings loadLaserCutFile (File readFile) throws Exception {
+  /**
+   * Load a ".lzr" file saved in LzrFile's format, or as serialized objects by older versions
+   * @param readFile File to read
+   * @return SurfaceSettings with design attached
+   * @throws Exception if file cannot be read
+   */
+  static SurfaceSettings loadLaserCutFile (File readFile) throws Exception {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(readFile))) {
+      if (LzrFile.isLzrFile(in)) {
+        return LzrFile.read(in);
+      }
+      return loadSerializedFile(in);
+    }
+  }
+
+  static SurfaceSettings loadSerializedFile (InputStream fileIn) throws Exception {
     SurfaceSettings settings = null;
-    FileInputStream fileIn = new FileInputStream(readFile);
     ObjectInputStream in = new FixInputStream(fileIn);
     List<CADShape> design = (ArrayList<CADShape>) in.readObject();
     try {
@@ -1010,14 +1036,13 @@ public class LaserCut extends JFrame {
       // Ignore (catching EOFException is the only way to tell if SurfaceSettings object was serialized)
       //ex.printStackTrace();
     }
-    in.close();
-    fileIn.close();
     if (settings == null) {
       //
       // Need code here XY offsets to make old files compatible with new ones
       //
       for (CADShape shape : design) {
-        Rectangle2D bnds = shape.getShapeBounds();
+        // Note: older files were positioned using bounds that include the control points of curves
+        Rectangle2D bnds = shape.getShape().getBounds2D();
         if (!shape.centered) {
           shape.xLoc = shape.xLoc + bnds.getWidth() / 2;
           shape.yLoc = shape.yLoc + bnds.getHeight() / 2;
@@ -0,0 +1,789 @@
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Versioned, chunked binary format for ".lzr" files (version 2).  Older files are Java serialized streams and are
+ * still read by LaserCut.loadSerializedFile(), which LaserCut.loadLaserCutFile() falls back on when the file
+ * doesn't start with the "LZR2" magic number (serialized streams start with 0xACED).
+ *
+ * Layout (all values big endian, strings are an int length followed by UTF-8 bytes):
+ *    Header:   int MAGIC ("LZR2"), short VERSION
+ *    Chunks:   int tag, int length, byte[length] payload
+ *      "SETG"  SurfaceSettings: viewPoint x, y, zoomFactor, gridStep, gridMajor and version (may be null)
+ *      "CLAS"  Shape table entry: class id, class name and the name and type of each field saved for the class
+ *      "IMAG"  Raster blob: id (SHA-256 of data) and the image's encoded bytes (PNG, JPEG, etc, already compressed)
+ *      "SHPE"  One CADShape: shape id, whether it's in the design, class id and then its field values, in order
+ *      "END "  End of file
+ *
+ * Fields are found by reflection (the same non-static, non-transient fields Java serialization would save) and
+ * each value is written using a primitive encoding, such as the segment types and coordinates of a Shape's path,
+ * with a leading boolean for values that can be null.  Shapes are read back by creating them with their default
+ * constructor and then setting each field, so fields missing from the file keep their default values, while
+ * fields no longer in the class (or whose type has changed) are skipped, as are unknown chunks.  This lets shapes
+ * gain or lose fields without breaking older files, as with serialization.  References to
+ * other shapes (such as CNCPath.baseShape) and to CADShapeGroups are saved as ids and resolved once all shapes
+ * are read.  Both Writer and Reader work a chunk at a time, so only one shape, or one image is buffered.
+ */
+class LzrFile {
+  static final int          MAGIC = 0x4C5A5232;       // "LZR2"
+  static final int          VERSION = 2;
+  private static final int  TAG_SETTINGS = 0x53455447; // "SETG"
+  private static final int  TAG_CLASS = 0x434C4153;    // "CLAS"
+  private static final int  TAG_IMAGE = 0x494D4147;    // "IMAG"
+  private static final int  TAG_SHAPE = 0x53485045;    // "SHPE"
+  private static final int  TAG_END = 0x454E4420;      // "END "
+  // Field types
+  private static final int  T_DOUBLE = 1;
+  private static final int  T_INT = 2;
+  private static final int  T_BOOLEAN = 3;
+  private static final int  T_STRING = 4;
+  private static final int  T_PATH = 5;
+  private static final int  T_POINT = 6;
+  private static final int  T_POINT_LIST = 7;
+  private static final int  T_BOOLEAN_GRID = 8;
+  private static final int  T_DIMENSION = 9;
+  private static final int  T_SHAPE_REF = 10;
+  private static final int  T_GROUP_REF = 11;
+  private static final int  T_IMAGE_REF = 12;
+  private static final int  SEG_END = -1;
+  private static final String IMAGE_FIELD = "image";  // Pseudo field for CADRasterImage's (transient) image
+
+  /*
+   * Fields saved for a class, in the order their values are written (fields is null for the image pseudo field,
+   * and, when reading, for fields the class no longer has)
+   */
+  private static class Layout {
+    private final int             id;
+    private final Class<?>        clazz;
+    private final Field[]         fields;
+    private final int[]           types;
+    private Constructor<?>        cons;   // Used by Reader to create instances
+
+    Layout (int id, Class<?> clazz, Field[] fields, int[] types) {
+      this.id = id;
+      this.clazz = clazz;
+      this.fields = fields;
+      this.types = types;
+    }
+  }
+
+  /**
+   * Check for the LZR2 magic number without consuming any bytes
+   * @param in InputStream that supports mark() and reset()
+   * @return true if stream is in LZR2 format
+   * @throws IOException on read error
+   */
+  static boolean isLzrFile (InputStream in) throws IOException {
+    in.mark(4);
+    DataInputStream dIn = new DataInputStream(in);
+    int magic;
+    try {
+      magic = dIn.readInt();
+    } catch (EOFException ex) {
+      magic = 0;
+    }
+    in.reset();
+    return magic == MAGIC;
+  }
+
+  /**
+   * Write a design and its SurfaceSettings as an LZR2 stream
+   * @param out OutputStream (not closed)
+   * @param design List of CADShape objects
+   * @param settings SurfaceSettings, or null
+   * @throws IOException on write error, or if a shape has a field type this format can't encode
+   */
+  static void write (OutputStream out, List<CADShape> design, SurfaceSettings settings) throws IOException {
+    Writer writer = new Writer(out);
+    if (settings != null) {
+      writer.writeSettings(settings);
+    }
+    writer.writeDesign(design);
+    writer.finish();
+  }
+
+  /**
+   * Read an LZR2 stream
+   * @param in InputStream (not closed)
+   * @return SurfaceSettings with design attached
+   * @throws IOException on read error, or if the stream isn't in LZR2 format
+   */
+  static SurfaceSettings read (InputStream in) throws IOException {
+    return new Reader(in).read();
+  }
+
+  static class Writer {
+    private final DataOutputStream            out;
+    private ByteBuffer                        chunk = ByteBuffer.allocate(4096);
+    private final Map<Class<?>, Layout>       layouts = new HashMap<>();
+    private final Map<CADShape, Integer>      shapeIds = new IdentityHashMap<>();
+    private final Map<CADShapeGroup, Integer> groupIds = new IdentityHashMap<>();
+    private final Set<String>                 imagesWritten = new HashSet<>();
+    private final Set<CADShape>               written = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final double[]                    coords = new double[6];
+
+    Writer (OutputStream out) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(out, 8192));
+      this.out.writeInt(MAGIC);
+      this.out.writeShort(VERSION);
+    }
+
+    void writeSettings (SurfaceSettings settings) throws IOException {
+      room(4).putInt(settings.viewPoint.x);
+      room(4).putInt(settings.viewPoint.y);
+      room(8).putDouble(settings.zoomFactor);
+      room(8).putDouble(settings.gridStep);
+      room(4).putInt(settings.gridMajor);
+      putNullableString(settings.version);
+      endChunk(TAG_SETTINGS);
+    }
+
+    void writeDesign (List<CADShape> design) throws IOException {
+      Set<CADShape> listed = Collections.newSetFromMap(new IdentityHashMap<>());
+      listed.addAll(design);
+      for (CADShape shape : design) {
+        writeShape(shape, listed);
+      }
+    }
+
+    void finish () throws IOException {
+      endChunk(TAG_END);
+      out.flush();
+    }
+
+    /*
+     * Write shape, but first write its class's layout, if not already written, any shapes it refers to that
+     * haven't been written (so a CNCPath saved without its base shape still loads, as it did with serialization)
+     * and any image it uses
+     */
+    private void writeShape (CADShape shape, Set<CADShape> listed) throws IOException {
+      if (!written.add(shape)) {
+        return;
+      }
+      Layout layout = getLayout(shape.getClass());
+      for (int ii = 0; ii < layout.types.length; ii++) {
+        if (layout.types[ii] == T_SHAPE_REF) {
+          CADShape ref = (CADShape) getValue(layout.fields[ii], shape);
+          if (ref != null) {
+            writeShape(ref, listed);
+          }
+        }
+      }
+      RasterStore.Image image = shape instanceof CADRasterImage ? ((CADRasterImage) shape).image : null;
+      if (image != null && imagesWritten.add(image.getId())) {
+        byte[] data = image.getData();
+        putString(image.getId());
+        room(4).putInt(data.length);
+        room(data.length).put(data);
+        endChunk(TAG_IMAGE);
+      }
+      room(4).putInt(getShapeId(shape));
+      putBoolean(listed.contains(shape));
+      room(2).putShort((short) layout.id);
+      try {
+        for (int ii = 0; ii < layout.types.length; ii++) {
+          Field field = layout.fields[ii];
+          switch (layout.types[ii]) {
+            case T_DOUBLE:
+              room(8).putDouble(field.getDouble(shape));
+              break;
+            case T_INT:
+              room(4).putInt(field.getInt(shape));
+              break;
+            case T_BOOLEAN:
+              putBoolean(field.getBoolean(shape));
+              break;
+            case T_IMAGE_REF:
+              putNullableString(image != null ? image.getId() : null);
+              break;
+            default:
+              writeObject(layout.types[ii], field.get(shape));
+              break;
+          }
+        }
+      } catch (IllegalAccessException ex) {
+        throw new IOException(ex);
+      }
+      endChunk(TAG_SHAPE);
+    }
+
+    private Layout getLayout (Class<?> clazz) throws IOException {
+      Layout layout = layouts.get(clazz);
+      if (layout == null) {
+        List<Field> fields = getFields(clazz);
+        if (CADRasterImage.class.isAssignableFrom(clazz)) {
+          fields.add(null);
+        }
+        int[] types = new int[fields.size()];
+        room(2).putShort((short) layouts.size());
+        putString(clazz.getName());
+        room(2).putShort((short) types.length);
+        for (int ii = 0; ii < types.length; ii++) {
+          Field field = fields.get(ii);
+          types[ii] = field != null ? getType(field) : T_IMAGE_REF;
+          if (types[ii] < 0) {
+            throw new IOException("Unable to save field " + clazz.getName() + "." + field.getName() + " of type " +
+                                  field.getGenericType().getTypeName());
+          }
+          putString(field != null ? field.getName() : IMAGE_FIELD);
+          room(1).put((byte) types[ii]);
+        }
+        endChunk(TAG_CLASS);
+        layout = new Layout(layouts.size(), clazz, fields.toArray(new Field[0]), types);
+        layouts.put(clazz, layout);
+      }
+      return layout;
+    }
+
+    private int getShapeId (CADShape shape) {
+      return shapeIds.computeIfAbsent(shape, k -> shapeIds.size());
+    }
+
+    /*
+     * Write value of a field that can be null, preceded by a boolean that's true if not null
+     */
+    private void writeObject (int type, Object value) throws IOException {
+      putBoolean(value != null);
+      if (value == null) {
+        return;
+      }
+      switch (type) {
+        case T_STRING:
+          putString((String) value);
+          break;
+        case T_PATH:
+          writePath((Shape) value);
+          break;
+        case T_POINT: {
+          Point2D.Double pnt = (Point2D.Double) value;
+          room(8).putDouble(pnt.x);
+          room(8).putDouble(pnt.y);
+        } break;
+        case T_POINT_LIST: {
+          List<?> list = (List<?>) value;
+          room(4).putInt(list.size());
+          for (Object item : list) {
+            Point2D.Double pnt = (Point2D.Double) item;
+            room(8).putDouble(pnt.x);
+            room(8).putDouble(pnt.y);
+          }
+        } break;
+        case T_BOOLEAN_GRID: {
+          boolean[][] grid = (boolean[][]) value;
+          room(4).putInt(grid.length);
+          for (boolean[] row : grid) {
+            // Pack each row 8 cells per byte
+            room(4).putInt(row.length);
+            for (int ii = 0; ii < row.length; ii += 8) {
+              int bits = 0;
+              for (int jj = 0; jj < 8 && ii + jj < row.length; jj++) {
+                bits |= row[ii + jj] ? 1 << jj : 0;
+              }
+              room(1).put((byte) bits);
+            }
+          }
+        } break;
+        case T_DIMENSION: {
+          Dimension dim = (Dimension) value;
+          room(4).putInt(dim.width);
+          room(4).putInt(dim.height);
+        } break;
+        case T_SHAPE_REF:
+          room(4).putInt(getShapeId((CADShape) value));
+          break;
+        case T_GROUP_REF:
+          room(4).putInt(groupIds.computeIfAbsent((CADShapeGroup) value, k -> groupIds.size()));
+          break;
+      }
+    }
+
+    private void writePath (Shape shape) throws IOException {
+      PathIterator pi = shape.getPathIterator(null);
+      room(1).put((byte) pi.getWindingRule());
+      while (!pi.isDone()) {
+        int type = pi.currentSegment(coords);
+        room(1).put((byte) type);
+        for (int ii = 0; ii < getCoordCount(type); ii++) {
+          room(8).putDouble(coords[ii]);
+        }
+        pi.next();
+      }
+      room(1).put((byte) SEG_END);
+    }
+
+    private void endChunk (int tag) throws IOException {
+      out.writeInt(tag);
+      out.writeInt(chunk.position());
+      out.write(chunk.array(), 0, chunk.position());
+      chunk.clear();
+    }
+
+    /*
+     * Get chunk buffer with room for at least bytes more bytes
+     */
+    private ByteBuffer room (int bytes) {
+      if (chunk.remaining() < bytes) {
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(chunk.capacity() * 2, chunk.position() + bytes));
+        buf.put(chunk.array(), 0, chunk.position());
+        chunk = buf;
+      }
+      return chunk;
+    }
+
+    private void putBoolean (boolean value) {
+      room(1).put((byte) (value ? 1 : 0));
+    }
+
+    private void putString (String str) {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      room(4 + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    private void putNullableString (String str) {
+      putBoolean(str != null);
+      if (str != null) {
+        putString(str);
+      }
+    }
+  }
+
+  static class Reader {
+    private final DataInputStream                 in;
+    private ByteBuffer                            chunk;
+    private final Map<Integer, Layout>            layouts = new HashMap<>();
+    private final Map<String, RasterStore.Image>  images = new HashMap<>();
+    private final Map<Integer, CADShape>          shapes = new HashMap<>();
+    private final Map<Integer, CADShapeGroup>     groups = new HashMap<>();
+    private final List<Runnable>                  fixups = new ArrayList<>();
+    private final List<CADShape>                  design = new ArrayList<>();
+    private SurfaceSettings                       settings;
+
+    Reader (InputStream in) throws IOException {
+      this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 8192));
+      if (this.in.readInt() != MAGIC) {
+        throw new IOException("Not an LZR2 file");
+      }
+      int version = this.in.readUnsignedShort();
+      if (version > VERSION) {
+        throw new IOException("File was saved by a newer version of LaserCut (format " + version + ")");
+      }
+    }
+
+    SurfaceSettings read () throws IOException {
+      while (true) {
+        int tag = in.readInt();
+        int length = in.readInt();
+        if (tag == TAG_END) {
+          break;
+        }
+        // Read whole chunk, as ByteBuffer's get methods are much faster than DataInputStream's
+        byte[] data = new byte[length];
+        in.readFully(data);
+        chunk = ByteBuffer.wrap(data);
+        switch (tag) {
+          case TAG_SETTINGS:
+            settings = new SurfaceSettings(new Point(chunk.getInt(), chunk.getInt()), chunk.getDouble(),
+                                           chunk.getDouble(), chunk.getInt(), getNullableString());
+            break;
+          case TAG_CLASS:
+            readLayout();
+            break;
+          case TAG_IMAGE: {
+            String id = getString();
+            int size = chunk.getInt();
+            RasterStore.Image image = RasterStore.fromData(id, Arrays.copyOfRange(data, chunk.position(),
+                                                                                  chunk.position() + size));
+            images.put(image.getId(), image);
+          } break;
+          case TAG_SHAPE:
+            readShape();
+            break;
+          default:
+            // Ignore chunk types added by later versions
+            break;
+        }
+      }
+      // Resolve references to shapes and groups, then let shapes rebuild their transient state
+      for (Runnable fixup : fixups) {
+        fixup.run();
+      }
+      for (CADShape shape : shapes.values()) {
+        shape.readFinished();
+      }
+      if (settings == null) {
+        settings = new SurfaceSettings();
+      }
+      settings.setDesign(design);
+      return settings;
+    }
+
+    private void readLayout () throws IOException {
+      int id = chunk.getShort() & 0xFFFF;
+      String className = getString();
+      Class<?> clazz;
+      try {
+        clazz = Class.forName(className);
+      } catch (ClassNotFoundException ex) {
+        throw new IOException("Unknown shape class " + className, ex);
+      }
+      Map<String, Field> classFields = new HashMap<>();
+      for (Field field : getFields(clazz)) {
+        classFields.putIfAbsent(field.getName(), field);
+      }
+      int count = chunk.getShort() & 0xFFFF;
+      Field[] fields = new Field[count];
+      int[] types = new int[count];
+      for (int ii = 0; ii < count; ii++) {
+        Field field = classFields.get(getString());
+        types[ii] = chunk.get() & 0xFF;
+        // Skip values for fields whose type no longer matches
+        fields[ii] = field != null && getType(field) == types[ii] ? field : null;
+      }
+      Layout layout = new Layout(id, clazz, fields, types);
+      try {
+        layout.cons = clazz.getDeclaredConstructor();
+        layout.cons.setAccessible(true);
+      } catch (NoSuchMethodException ex) {
+        throw new IOException("Shape class " + className + " has no default constructor", ex);
+      }
+      layouts.put(id, layout);
+    }
+
+    private void readShape () throws IOException {
+      int id = chunk.getInt();
+      boolean listed = chunk.get() != 0;
+      Layout layout = layouts.get(chunk.getShort() & 0xFFFF);
+      CADShape shape;
+      try {
+        shape = (CADShape) layout.cons.newInstance();
+      } catch (Exception ex) {
+        throw new IOException("Unable to create shape " + layout.clazz.getName(), ex);
+      }
+      shapes.put(id, shape);
+      if (listed) {
+        design.add(shape);
+      }
+      try {
+        for (int ii = 0; ii < layout.types.length; ii++) {
+          Field field = layout.fields[ii];
+          switch (layout.types[ii]) {
+            case T_DOUBLE: {
+              double val = chunk.getDouble();
+              if (field != null) {
+                field.setDouble(shape, val);
+              }
+            } break;
+            case T_INT: {
+              int val = chunk.getInt();
+              if (field != null) {
+                field.setInt(shape, val);
+              }
+            } break;
+            case T_BOOLEAN: {
+              boolean val = chunk.get() != 0;
+              if (field != null) {
+                field.setBoolean(shape, val);
+              }
+            } break;
+            case T_SHAPE_REF:
+              if (chunk.get() != 0) {
+                int ref = chunk.getInt();
+                if (field != null) {
+                  fixups.add(() -> setValue(field, shape, shapes.get(ref)));
+                }
+              } else if (field != null) {
+                field.set(shape, null);
+              }
+              break;
+            case T_GROUP_REF:
+              if (chunk.get() != 0) {
+                CADShapeGroup group = groups.computeIfAbsent(chunk.getInt(), k -> new CADShapeGroup());
+                fixups.add(() -> group.addToGroup(shape));
+              }
+              break;
+            case T_IMAGE_REF: {
+              String imageId = getNullableString();
+              if (imageId != null) {
+                RasterStore.Image image = images.get(imageId);
+                if (image == null) {
+                  throw new IOException("Missing image for " + layout.clazz.getName());
+                }
+                ((CADRasterImage) shape).setImage(image);
+              }
+            } break;
+            default: {
+              Object val = readObject(layout.types[ii]);
+              if (field != null) {
+                field.set(shape, val);
+              }
+            } break;
+          }
+        }
+      } catch (IllegalAccessException ex) {
+        throw new IOException(ex);
+      }
+    }
+
+    private Object readObject (int type) throws IOException {
+      if (chunk.get() == 0) {
+        return null;
+      }
+      switch (type) {
+        case T_STRING:
+          return getString();
+        case T_PATH:
+          return readPath();
+        case T_POINT:
+          return new Point2D.Double(chunk.getDouble(), chunk.getDouble());
+        case T_POINT_LIST: {
+          int count = chunk.getInt();
+          List<Point2D.Double> list = new ArrayList<>(count);
+          for (int ii = 0; ii < count; ii++) {
+            list.add(new Point2D.Double(chunk.getDouble(), chunk.getDouble()));
+          }
+          return list;
+        }
+        case T_BOOLEAN_GRID: {
+          boolean[][] grid = new boolean[chunk.getInt()][];
+          for (int ii = 0; ii < grid.length; ii++) {
+            boolean[] row = grid[ii] = new boolean[chunk.getInt()];
+            for (int jj = 0; jj < row.length; jj += 8) {
+              int bits = chunk.get() & 0xFF;
+              for (int kk = 0; kk < 8 && jj + kk < row.length; kk++) {
+                row[jj + kk] = (bits & (1 << kk)) != 0;
+              }
+            }
+          }
+          return grid;
+        }
+        case T_DIMENSION:
+          return new Dimension(chunk.getInt(), chunk.getInt());
+        default:
+          throw new IOException("Unknown field type " + type);
+      }
+    }
+
+    private Path2D.Double readPath () throws IOException {
+      Path2D.Double path = new Path2D.Double(chunk.get());
+      int type;
+      while ((type = chunk.get()) != SEG_END) {
+        switch (type) {
+          case PathIterator.SEG_MOVETO:
+            path.moveTo(chunk.getDouble(), chunk.getDouble());
+            break;
+          case PathIterator.SEG_LINETO:
+            path.lineTo(chunk.getDouble(), chunk.getDouble());
+            break;
+          case PathIterator.SEG_QUADTO:
+            path.quadTo(chunk.getDouble(), chunk.getDouble(), chunk.getDouble(), chunk.getDouble());
+            break;
+          case PathIterator.SEG_CUBICTO:
+            path.curveTo(chunk.getDouble(), chunk.getDouble(), chunk.getDouble(), chunk.getDouble(), chunk.getDouble(),
+                         chunk.getDouble());
+            break;
+          case PathIterator.SEG_CLOSE:
+            path.closePath();
+            break;
+          default:
+            throw new IOException("Unknown path segment " + type);
+        }
+      }
+      return path;
+    }
+
+    private String getString () {
+      byte[] bytes = new byte[chunk.getInt()];
+      chunk.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String getNullableString () {
+      return chunk.get() != 0 ? getString() : null;
+    }
+  }
+
+  /*
+   * Convert files saved as serialized objects to LZR2 format (args: file.lzr [out.lzr], where out defaults to
+   * replacing file, which is first renamed to file.lzr.bak), or, with no args, benchmark loading and saving the
+   * files in "LaserCut Files/" both ways
+   */
+  public static void main (String[] args) throws Exception {
+    if (args.length > 0) {
+      File inFile = new File(args[0]);
+      SurfaceSettings settings = LaserCut.loadLaserCutFile(inFile);
+      File outFile = args.length > 1 ? new File(args[1]) : inFile;
+      if (outFile.equals(inFile) && !inFile.renameTo(new File(inFile.getPath() + ".bak"))) {
+        throw new IOException("Unable to rename " + inFile + " to .bak");
+      }
+      try (OutputStream out = new FileOutputStream(outFile)) {
+        write(out, settings.getDesign(), settings);
+      }
+      System.out.println("Converted " + inFile + " -> " + outFile + " (" + settings.getDesign().size() + " shapes)");
+      return;
+    }
+    File dir = new File("LaserCut Files");
+    if (!dir.isDirectory()) {
+      dir = new File("../LaserCut Files");
+    }
+    File[] files = dir.listFiles((d, name) -> name.endsWith(".lzr"));
+    if (files == null || files.length == 0) {
+      System.out.println("No .lzr files found in " + dir.getAbsolutePath());
+      return;
+    }
+    Arrays.sort(files);
+    List<CADShape> all = new ArrayList<>();
+    for (File file : files) {
+      byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+      SurfaceSettings settings = LaserCut.loadLaserCutFile(file);
+      all.addAll(settings.getDesign());
+      benchmark(file.getName(), bytes, settings);
+    }
+    // Copies of every shape in every file, laid out in a grid, to show how each format scales
+    List<CADShape> big = new ArrayList<>();
+    for (int ii = 0; ii < 2000 / all.size() + 1; ii++) {
+      for (CADShape shape : all) {
+        CADShape copy = shape.copy();
+        copy.xLoc += (ii % 40) * 2;
+        copy.yLoc += (ii / 40) * 2;
+        big.add(copy);
+      }
+    }
+    SurfaceSettings settings = new SurfaceSettings();
+    settings.setDesign(big);
+    benchmark(big.size() + " copies", null, settings);
+  }
+
+  /*
+   * Time loading and saving a design as serialized objects and as LZR2 (bytes is the original file, if any)
+   */
+  private static void benchmark (String name, byte[] bytes, SurfaceSettings settings) throws Exception {
+    List<CADShape> design = settings.getDesign();
+    int reps = Math.max(20, 200000 / design.size());
+    byte[] oldBytes = null, newBytes = null;
+    long oldSave = 0, newSave = 0, oldLoad = 0, newLoad = 0;
+    // First reps warm up the JIT and aren't counted
+    for (int rep = -reps; rep < reps; rep++) {
+      long t0 = System.nanoTime();
+      ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+      ObjectOutputStream oOut = new ObjectOutputStream(bOut);
+      oOut.writeObject(new ArrayList<>(design));
+      oOut.writeObject(settings);
+      oOut.close();
+      oldBytes = bOut.toByteArray();
+      long t1 = System.nanoTime();
+      bOut = new ByteArrayOutputStream();
+      write(bOut, design, settings);
+      newBytes = bOut.toByteArray();
+      long t2 = System.nanoTime();
+      LaserCut.loadSerializedFile(new ByteArrayInputStream(bytes != null ? bytes : oldBytes));
+      long t3 = System.nanoTime();
+      SurfaceSettings loaded = read(new ByteArrayInputStream(newBytes));
+      long t4 = System.nanoTime();
+      if (loaded.getDesign().size() != design.size()) {
+        throw new IllegalStateException("Loaded " + loaded.getDesign().size() + " of " + design.size() + " shapes");
+      }
+      if (rep >= 0) {
+        oldSave += t1 - t0;
+        newSave += t2 - t1;
+        oldLoad += t3 - t2;
+        newLoad += t4 - t3;
+      }
+    }
+    System.out.printf("%-20s %5d shapes  serialized: %8d bytes, save %8.3f ms, load %8.3f ms  " +
+                      "LZR2: %8d bytes, save %8.3f ms, load %8.3f ms%n", name, design.size(),
+                      bytes != null ? bytes.length : oldBytes.length, oldSave / 1e6 / reps, oldLoad / 1e6 / reps,
+                      newBytes.length, newSave / 1e6 / reps, newLoad / 1e6 / reps);
+  }
+
+  /*
+   * Get the fields Java serialization would save, from the most derived class up to CADShape
+   */
+  private static List<Field> getFields (Class<?> clazz) {
+    List<Field> fields = new ArrayList<>();
+    for (Class<?> cls = clazz; cls != Object.class; cls = cls.getSuperclass()) {
+      for (Field field : cls.getDeclaredFields()) {
+        int mods = field.getModifiers();
+        if (!Modifier.isStatic(mods) && !Modifier.isTransient(mods)) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+    }
+    return fields;
+  }
+
+  /*
+   * Get the type used to save a field, or -1 if this format can't save it (types read back as Path2D.Double and
+   * ArrayList must also be assignable to the field)
+   */
+  private static int getType (Field field) {
+    Class<?> type = field.getType();
+    if (type == double.class) {
+      return T_DOUBLE;
+    } else if (type == int.class) {
+      return T_INT;
+    } else if (type == boolean.class) {
+      return T_BOOLEAN;
+    } else if (type == String.class) {
+      return T_STRING;
+    } else if (type.isAssignableFrom(Path2D.Double.class)) {
+      return T_PATH;
+    } else if (type == Point2D.Double.class) {
+      return T_POINT;
+    } else if (type.isAssignableFrom(ArrayList.class) && field.getGenericType() instanceof ParameterizedType) {
+      Type[] args = ((ParameterizedType) field.getGenericType()).getActualTypeArguments();
+      return args.length == 1 && args[0] == Point2D.Double.class ? T_POINT_LIST : -1;
+    } else if (type == boolean[][].class) {
+      return T_BOOLEAN_GRID;
+    } else if (type == Dimension.class) {
+      return T_DIMENSION;
+    } else if (CADShape.class.isAssignableFrom(type)) {
+      return T_SHAPE_REF;
+    } else if (type == CADShapeGroup.class) {
+      return T_GROUP_REF;
+    }
+    return -1;
+  }
+
+  private static Object getValue (Field field, Object obj) throws IOException {
+    try {
+      return field.get(obj);
+    } catch (IllegalAccessException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  private static void setValue (Field field, Object obj, Object value) {
+    try {
+      field.set(obj, value);
+    } catch (IllegalAccessException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static int getCoordCount (int type) {
+    switch (type) {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO:
+        return 2;
+      case PathIterator.SEG_QUADTO:
+        return 4;
+      case PathIterator.SEG_CUBICTO:
+        return 6;
+      default:
+        return 0;
+    }
+  }
+}
@@ -2,9 +2,7 @@ import javax.swing.*;
 import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.prefs.Preferences;
@@ -67,6 +65,7 @@ class MiniCutter implements LaserCut.OutputDevice {
   private static final int      MINI_PAPER_CUTTER_DEFAULT_SPEED = 90;           // Max feed rate (inches/min)
   private static final int      MINI_PAPER_CUTTER_MAX_SPEED = 200;              // Max feed rate (inches/min)
   private static final boolean  INVERT_Y_AXIS = false;
+  private static final double   MERGE_TOLERANCE = .001;                         // Max error merging moves, or fitting arcs (inches)
   private final JSSCPort        jPort;
   private final LaserCut        laserCut;
   private final Preferences     prefs;
@@ -109,59 +108,61 @@ class MiniCutter implements LaserCut.OutputDevice {
       if (jPort.hasSerial()) {
         if (showConfirmDialog(laserCut, panel, "Send Job to " + getName(), YES_NO_OPTION, PLAIN_MESSAGE, null) == OK_OPTION) {
           boolean planPath = prefs.getBoolean(getPrefix() + "pathplan", true);
+          boolean fitArcs = prefs.getBoolean(getPrefix() + "arcs", false);
           int iterations = Integer.parseInt(tf.getText());
           // Cut Settings
-          int cutSpeed = prefs.getInt(getPrefix() + "speed", MINI_PAPER_CUTTER_DEFAULT_SPEED);
-          cutSpeed = Math.min(MINI_PAPER_CUTTER_MAX_SPEED, cutSpeed);                         // Setting cutting speed
-          // Generate G_Code for TeensyCNC
-          List<String> cmds = new ArrayList<>();
-          cmds.add("G28");                                                                    // Make sure tool is Homed
-          cmds.add("G20");                                                                    // Set Inches as Units
-          cmds.add("M05");                                                                    // Set Tool Head Up
-          cmds.add("F" + cutSpeed);                                                           // Set feed rate (inches/min)
+          int cutSpeed = Math.min(MINI_PAPER_CUTTER_MAX_SPEED,
+                                  prefs.getInt(getPrefix() + "speed", MINI_PAPER_CUTTER_DEFAULT_SPEED));  // Setting cutting speed
           // Process only cut items
-          List<CADShape> shapes = laserCut.surface.selectCutterItems(planPath);
-          DecimalFormat fmt = new DecimalFormat("#.###");
+          PathPlanner.Stats planStats = planPath ? new PathPlanner.Stats() : null;
+          List<CADShape> shapes = laserCut.surface.selectCutterItems(planPath, planStats);
+          // Get toolpaths here, as the G-code is generated on another thread while the job is being sent
+          List<Polylines> paths = new ArrayList<>();
+          double toolX = 0, toolY = 0;
           for (CADShape shape : shapes) {
             if (!(shape instanceof CADRasterImage)) {
+              Polylines poly = shape.getScaledPolylines(1, .001);
+              if (planPath && poly.getPointCount() > 0) {
+                // Start each contour at the point closest to where the last one ended
+                poly = poly.withBestEntries(toolX, toolY);
+                toolX = poly.getX(poly.getPointCount() - 1);
+                toolY = poly.getY(poly.getPointCount() - 1);
+              }
+              paths.add(poly);
+            }
+          }
+          // Generate G_Code for TeensyCNC
+          // Note: TeensyCNC's handling of modal words is untested, so only merge collinear moves (and fit arcs, if enabled)
+          GCodeQueue job = new GCodeQueue(cmds -> {
+            cmds.add("G28");                                                                  // Make sure tool is Homed
+            cmds.add("G20");                                                                  // Set Inches as Units
+            cmds.add("M05");                                                                  // Set Tool Head Up
+            cmds.add("F" + cutSpeed);                                                         // Set feed rate (inches/min)
+            GCodeWriter gw = new GCodeWriter(3);
+            for (Polylines poly : paths) {
               for (int ii = 0; ii < iterations; ii++) {
-                double lastX = 0, lastY = 0;
-                for (Line2D.Double[] lines : shape.getListOfScaledLines(1, .001)) {
-                  boolean first = true;
-                  for (Line2D.Double line : lines) {
-                    String x1 = fmt.format(line.x1);
-                    String y1 = fmt.format(INVERT_Y_AXIS ? 12 - line.y1 : line.y1);
-                    String x2 = fmt.format(line.x2);
-                    String y2 = fmt.format(INVERT_Y_AXIS ? 12 - line.y2 : line.y2);
-                    if (first) {
-                      cmds.add("M05");                                                        // Tool Up
-                      cmds.add("G00 X" + x1 + " Y" + y1);                                     // Move to x1 y1 with tool up
-                      cmds.add("M03");                                                        // Tool Down
-                      cmds.add("G01 X" + x2 + " Y" + y2);                                     // Draw Line to x2 y2
-                      first = false;
-                    } else {
-                      if (lastX != line.x1 || lastY != line.y1) {
-                        cmds.add("M05");                                                      // Tool Up
-                        cmds.add("G00 X" + x1 + " Y" + y1);                                   // Move to x1 y1 with tool up
-                        cmds.add("M03");                                                      // Tool Down
-                        cmds.add("G01 X" + x2 + " Y" + y2);                                   // Draw Line to x2 y2
-                      } else {
-                        cmds.add("G01 X" + x2 + " Y" + y2);                                   // Draw Line to x2 y2
-                      }
-                    }
-                    lastX = line.x2;
-                    lastY = line.y2;
+                for (int cc = 0; cc < poly.getContourCount(); cc++) {
+                  // Note: each contour is a connected run of points, so only its first point needs a move
+                  int start = poly.getStart(cc);
+                  double y1 = INVERT_Y_AXIS ? 12 - poly.getY(start) : poly.getY(start);
+                  cmds.add("M05");                                                            // Tool Up
+                  cmds.add(gw.text("G00 ").axis('X', poly.getX(start)).text(" ").axis('Y', y1).line()); // Move to x1 y1 with tool up
+                  cmds.add("M03");                                                            // Tool Down
+                  for (int pp = start + 1; pp < poly.getEnd(cc); pp++) {
+                    double y2 = INVERT_Y_AXIS ? 12 - poly.getY(pp) : poly.getY(pp);
+                    cmds.add(gw.text("G01 ").axis('X', poly.getX(pp)).text(" ").axis('Y', y2).line());   // Draw Line to x2 y2
                   }
                 }
               }
               cmds.add("M05");                                                                // Set Tool Head Up (just in case)
             }
-          }
-          // Add ending G-codes
-          cmds.add("M05");                                                                    // Set Tool Head Up
-          cmds.add("G00 X0 Y0");                                                              // Move back close to Origin
+            // Add ending G-codes
+            cmds.add("M05");                                                                  // Set Tool Head Up
+            cmds.add("G00 X0 Y0");                                                            // Move back close to Origin
+          }, MERGE_TOLERANCE, false, fitArcs);
+          job.setPlanStats(planStats);
           try {
-            new GCodeSender(cmds.toArray(new String[0]), new String[]{"M05", "G28", "M02"});  // Abort commands
+            new GCodeSender(job, new String[]{"M05", "G28", "M02"});                           // Abort commands
           } catch (Exception ex) {
             ex.printStackTrace();
             showMessageDialog(laserCut, "Error sending commands", "Error", PLAIN_MESSAGE);
@@ -179,10 +180,13 @@ class MiniCutter implements LaserCut.OutputDevice {
           new ParameterDialog.ParmItem("Use Path Planner", prefs.getBoolean(getPrefix() + "pathplan", true)),
           new ParameterDialog.ParmItem("Cut Speed{inches/minute}", prefs.getInt(getPrefix() + "speed",
                                        MINI_PAPER_CUTTER_DEFAULT_SPEED)),
+          new ParameterDialog.ParmItem("Fit Arcs{send curves as G2/G3 arcs (untested with TeensyCNC)}",
+                                       prefs.getBoolean(getPrefix() + "arcs", false)),
       };
       if (ParameterDialog.showSaveCancelParameterDialog(parmSet, prefs.get("displayUnits", "in"), laserCut)) {
         prefs.putBoolean(getPrefix() + "pathplan", (Boolean) parmSet[0].value);
         prefs.putInt(getPrefix() + "speed", (Integer) parmSet[1].value);
+        prefs.putBoolean(getPrefix() + "arcs", (Boolean) parmSet[2].value);
       }
     });
     miniCutterMenu.add(miniLazerSettings);
@@ -206,12 +210,14 @@ class MiniCutter implements LaserCut.OutputDevice {
 
   class GCodeSender extends JDialog implements JSSCPort.RXEvent, Runnable {
     private final StringBuilder response = new StringBuilder();
-    private String[]            cmds, abortCmds;
+    private GCodeQueue          job;
+    private String[]            abortCmds;
     private JTextArea           gcodePane;
     private JProgressBar        progress;
     private volatile long       cmdQueue;
     private final MiniCutter.GCodeSender.Lock lock = new MiniCutter.GCodeSender.Lock();
     private boolean             doAbort, printInfo;
+    private Exception           jobError;
 
     final class Lock { }
 
@@ -220,13 +226,21 @@ class MiniCutter implements LaserCut.OutputDevice {
     }
 
     GCodeSender (String[] cmds, String[] abortCmds, boolean printInfo) {
+      this(new GCodeQueue(cmds), abortCmds, printInfo);
+    }
+
+    GCodeSender (GCodeQueue job, String[] abortCmds) {
+      this(job, abortCmds, false);
+    }
+
+    GCodeSender (GCodeQueue job, String[] abortCmds, boolean printInfo) {
       super(laserCut, false);
       if (jPort.hasSerial()) {
         this.printInfo = printInfo;
         setTitle("G-Code Monitor");
         setLocationRelativeTo(laserCut);
         add(progress = new JProgressBar(), BorderLayout.NORTH);
-        progress.setMaximum(cmds.length);
+        progress.setIndeterminate(true);                  // Until job's line count is known
         JScrollPane sPane = new JScrollPane(gcodePane = new JTextArea());
         gcodePane.setMargin(new Insets(3, 3, 3, 3));
         DefaultCaret caret = (DefaultCaret) gcodePane.getCaret();
@@ -240,10 +254,11 @@ class MiniCutter implements LaserCut.OutputDevice {
         setSize(400, 300);
         setLocation(loc.x + loc.width / 2 - 150, loc.y + loc.height / 2 - 150);
         validate();
-        this.cmds = cmds;
+        this.job = job;
         this.abortCmds = abortCmds;
         new Thread(this).start();
       } else {
+        job.cancel();
         showMessageDialog(laserCut, "No Serial Port Selected", "Error", PLAIN_MESSAGE);
       }
     }
@@ -260,8 +275,7 @@ class MiniCutter implements LaserCut.OutputDevice {
                 //System.out.println(rsp + "\t" + cmdQueue);
               }
             } else {
-              gcodePane.append(rsp);
-              gcodePane.append("\n");
+              GCodeQueue.appendToLog(gcodePane, rsp);
             }
             response.setLength(0);
           } else if (rsp.startsWith("*") && printInfo) {
@@ -298,16 +312,21 @@ class MiniCutter implements LaserCut.OutputDevice {
         // Connect to device and start sending gcode
         jPort.open(this);
         response.setLength(0);
-        for (int ii = 0; (ii < cmds.length) && !doAbort; ii++) {
-          String gcode = cmds[ii].trim();
+        String line;
+        for (int ii = 0; !doAbort && (line = nextLine()) != null; ii++) {
+          String gcode = line.trim();
           //System.out.println(gcode);
           if (!printInfo) {
-            this.gcodePane.append(gcode + '\n');
+            GCodeQueue.appendToLog(gcodePane, gcode);
           }
           // Ignore blank lines
           if (gcode.length() == 0) {
             continue;
           }
+          if (progress.isIndeterminate() && job.isComplete()) {
+            progress.setMaximum(job.getLineCount());
+            progress.setIndeterminate(false);
+          }
           progress.setValue(ii);
           try {
             jPort.sendString(gcode + "\n\r");
@@ -320,6 +339,9 @@ class MiniCutter implements LaserCut.OutputDevice {
           }
           cmdWait();
         }
+        if (job.getStats() != null && !printInfo) {
+          gcodePane.append(job.getStats() + "\n");
+        }
         if (doAbort) {
           cmdQueue = 0;
           doAbort = false;
@@ -337,9 +359,29 @@ class MiniCutter implements LaserCut.OutputDevice {
       } catch (Exception ex) {
         ex.printStackTrace();
       }
+      job.cancel();                           // Stop the job's Generator, if still running
       jPort.close();
       setVisible(false);
       dispose();
+      if (jobError != null) {
+        SwingUtilities.invokeLater(() -> showMessageDialog(laserCut, jobError.getMessage(), "Error", PLAIN_MESSAGE));
+      }
+    }
+
+    /*
+     * Get next line of the job, but abort the job if its Generator failed partway through, so the abort commands
+     * are sent to raise the tool
+     */
+    private String nextLine () throws InterruptedException {
+      try {
+        return job.next();
+      } catch (GCodeQueue.GeneratorException ex) {
+        ex.printStackTrace();
+        jobError = ex;
+        GCodeQueue.appendToLog(gcodePane, ex.getMessage());
+        doAbort = true;
+        return null;
+      }
     }
   }
 
@@ -2,15 +2,15 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.WritableRaster;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.prefs.Preferences;
 
 // https://www.cnccookbook.com/g-code-basics-program-format-structure-blocks/
@@ -34,6 +34,7 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
   private static final int      MINI_DPI_DEFAULT = 200;       // Default Engraving DPI (dots/inch)
   private static final int      MINI_MAX_POWER = 255;         // Laser control value for 100% power
   private static final int      MINI_MAX_SPEED = 200;         // Max feed rate (inches/min)
+  private static final double   MINI_MERGE_TOLERANCE = .001;  // Max error merging moves, or fitting arcs (inches)
 
   MiniLaser (LaserCut laserCut, Preferences prefs) {
     super(laserCut, prefs);
@@ -76,94 +77,114 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
         if (showConfirmDialog(laserCut, panel, "Send Job to " + getName(), YES_NO_OPTION, PLAIN_MESSAGE, null) == OK_OPTION) {
           boolean dynamicLaser = getBoolean("dynamic", true);
           boolean planPath = getBoolean("pathplan", true);
+          boolean optimize = getBoolean("optimize", true);
+          boolean fitArcs = getBoolean("arcs", true);
           int iterations = Integer.parseInt(tf.getText());
           // Cut Settings
-          int cutSpeed = getInt("speed", MINI_CSPEED_DEFAULT);
-          cutSpeed = Math.min(MINI_MAX_SPEED, cutSpeed);                                      // Min speed = 10 inches/min
+          int cutSpeed = Math.min(MINI_MAX_SPEED, getInt("speed", MINI_CSPEED_DEFAULT));      // Min speed = 10 inches/min
           int cutPower = getInt("power", MINI_CPOWER_DEFAULT) * MINI_MAX_POWER / 100;         // Max power == 255
+          double kerf = getDouble("kerf", 0);
           // Engrave Settings
-          int engraveSpeed = getInt("espeed", MINI_ESPEED_DEFAULT);
-          engraveSpeed = Math.min(MINI_MAX_SPEED, engraveSpeed);                              // Min speed = 10 inches/min
+          int engraveSpeed = Math.min(MINI_MAX_SPEED, getInt("espeed", MINI_ESPEED_DEFAULT)); // Min speed = 10 inches/min
           int engravePower = getInt("epower", MINI_EPOWER_DEFAULT) * MINI_MAX_POWER / 100;    // Max power == 255
           int engraveDpi = getInt("dpi", MINI_DPI_DEFAULT);
-          // Generate G_Code for GRBL 1.1
-          List<String> cmds = new ArrayList<>();
-          // Add starting G-codes
-          cmds.add("G20");                                                                    // Set Inches as Units
-          cmds.add("M05");                                                                    // Set Laser Off
           // Process engraved items first, then cut items
-          List<CADShape> shapes = laserCut.surface.selectLaserItems(false, planPath);
-          shapes.addAll(laserCut.surface.selectLaserItems(true, planPath));
-          DecimalFormat fmt = new DecimalFormat("#.#####");
-          int lastSpeed = -1;
-          int lastPower = -1;
-          for (CADShape shape : shapes) {
+          PathPlanner.Stats planStats = planPath ? new PathPlanner.Stats() : null;
+          List<CADShape> shapes = laserCut.surface.selectLaserItems(false, planPath, planStats);
+          List<CADShape> cutShapes = laserCut.surface.selectLaserItems(true, planPath, planStats);
+          shapes.addAll(cutShapes);
+          // Get toolpaths and snapshot rasters here, as the G-code is generated on another thread while the job is
+          // being sent and the user can edit the design while the job runs
+          List<Polylines> paths = new ArrayList<>();
+          List<RasterJob> rasters = new ArrayList<>();
+          boolean[] engraved = new boolean[shapes.size()];
+          Map<CADShape, Integer> depths = kerf > 0 ? PathPlanner.getNestingDepths(cutShapes) : Collections.emptyMap();
+          double toolX = 0, toolY = 0;
+          for (int ss = 0; ss < shapes.size(); ss++) {
+            CADShape shape = shapes.get(ss);
+            Polylines poly = null;
+            RasterJob raster = null;
+            engraved[ss] = shape.engrave;
             if (shape instanceof CADRasterImage) {
-              RasterSettings settings = new RasterSettings(engraveDpi, engraveSpeed, 1, engravePower);
-              CADRasterImage raster = (CADRasterImage) shape;
-              List<String>  rList = toGCode(raster, settings);
-              cmds.addAll(rList);
-              lastSpeed = -1;
-              lastPower = -1;
+              raster = new RasterJob((CADRasterImage) shape);
             } else {
-              String cmd = "";
-              if (shape.engrave) {
-                if (engravePower != lastPower) {
-                  cmd = "S" + engravePower;                                                   // Set Laser Power (0 - 255)
-                  lastPower = engravePower;
-                }
-                if (engraveSpeed != lastSpeed) {
-                  cmd += "F" + engraveSpeed;                                                  // Set feed rate (inches/min)
-                  lastSpeed = engraveSpeed;
-                }
+              boolean hole = (depths.getOrDefault(shape, 0) & 1) != 0;
+              poly = shape.getKerfCompensatedPolylines(kerf, hole, 1, .001);
+              if (planPath && poly.getPointCount() > 0) {
+                // Start each contour at the point closest to where the last one ended
+                poly = poly.withBestEntries(toolX, toolY);
+                toolX = poly.getX(poly.getPointCount() - 1);
+                toolY = poly.getY(poly.getPointCount() - 1);
+              }
+            }
+            paths.add(poly);
+            rasters.add(raster);
+          }
+          // Generate G_Code for GRBL 1.1
+          GCodeQueue.Generator generator = cmds -> {
+            // Add starting G-codes
+            cmds.add("G20");                                                                  // Set Inches as Units
+            cmds.add("M05");                                                                  // Set Laser Off
+            GCodeWriter gw = new GCodeWriter(5);
+            int lastSpeed = -1;
+            int lastPower = -1;
+            for (int ss = 0; ss < paths.size(); ss++) {
+              RasterJob raster = rasters.get(ss);
+              if (raster != null) {
+                RasterSettings settings = new RasterSettings(engraveDpi, engraveSpeed, 1, engravePower);
+                toGCode(raster, settings, cmds);
+                lastSpeed = -1;
+                lastPower = -1;
               } else {
-                if (cutPower != lastPower) {
-                  cmd = "S" + cutPower;                                                       // Set Laser Power (0 - 255)
-                  lastPower = cutPower;
+                String cmd = "";
+                if (engraved[ss]) {
+                  if (engravePower != lastPower) {
+                    cmd = "S" + engravePower;                                                 // Set Laser Power (0 - 255)
+                    lastPower = engravePower;
+                  }
+                  if (engraveSpeed != lastSpeed) {
+                    cmd += "F" + engraveSpeed;                                                // Set feed rate (inches/min)
+                    lastSpeed = engraveSpeed;
+                  }
+                } else {
+                  if (cutPower != lastPower) {
+                    cmd = "S" + cutPower;                                                     // Set Laser Power (0 - 255)
+                    lastPower = cutPower;
+                  }
+                  if (cutSpeed != lastSpeed) {
+                    cmd += "F" + cutSpeed;                                                    // Set feed rate (inches/min)
+                    lastSpeed = cutSpeed;
+                  }
                 }
-                if (cutSpeed != lastSpeed) {
-                  cmd += "F" + cutSpeed;                                                      // Set feed rate (inches/min)
-                  lastSpeed = cutSpeed;
+                if (cmd.length() > 0) {
+                  cmds.add(cmd);
                 }
-              }
-              if (cmd.length() > 0) {
-                cmds.add(cmd);
-              }
-              for (int ii = 0; ii < iterations; ii++) {
-                double lastX = 0, lastY = 0;
-                for (Line2D.Double[] lines : shape.getListOfScaledLines(1, .001)) {
-                  boolean first = true;
-                  for (Line2D.Double line : lines) {
-                    String x1 = fmt.format(line.x1);
-                    String y1 = fmt.format(line.y1);
-                    String x2 = fmt.format(line.x2);
-                    String y2 = fmt.format(line.y2);
-                    if (first) {
-                      cmds.add("M05G00X" + x1 + "Y" + y1);                                    // Move to x1 y1 with laser off
-                      cmds.add((dynamicLaser ? "M04" : "M03") + "G01X" + x2 + "Y" + y2);      // Draw Line to x2 y2
-                      first = false;
-                    } else {
-                      if (lastX != line.x1 || lastY != line.y1) {
-                        cmds.add("M05G00X" + x1 + "Y" + y1);                                  // Move to x1 y1 with laser off
-                        cmds.add((dynamicLaser ? "M04" : "M03") + "G01X" + x2 + "Y" + y2);    // Draw Line to x2 y2
-                      } else {
-                        cmds.add("G01X" + x2 + "Y" + y2);                                     // Draw Line to x2 y2
-                      }
+                Polylines poly = paths.get(ss);
+                for (int ii = 0; ii < iterations; ii++) {
+                  for (int cc = 0; cc < poly.getContourCount(); cc++) {
+                    // Note: each contour is a connected run of points, so only its first point needs a move
+                    int start = poly.getStart(cc);
+                    gw.text("M05G00").axis('X', poly.getX(start)).axis('Y', poly.getY(start));  // Move to x1 y1 with laser off
+                    cmds.add(gw.line());
+                    gw.text(dynamicLaser ? "M04G01" : "M03G01");                              // Draw Line to x2 y2
+                    cmds.add(gw.axis('X', poly.getX(start + 1)).axis('Y', poly.getY(start + 1)).line());
+                    for (int pp = start + 2; pp < poly.getEnd(cc); pp++) {
+                      cmds.add(gw.text("G01").axis('X', poly.getX(pp)).axis('Y', poly.getY(pp)).line()); // Draw Line to x2 y2
                     }
-                    lastX = line.x2;
-                    lastY = line.y2;
                   }
                 }
+                cmds.add("M05");                                                              // Set Laser Off
               }
-              cmds.add("M05");                                                                // Set Laser Off
             }
-          }
-          // Add ending G-codes
-          cmds.add("M5");                                                                     // Set Laser Off
-          cmds.add("G00X0Y0");                                                                // Move back to Origin
+            // Add ending G-codes
+            cmds.add("M5");                                                                   // Set Laser Off
+            cmds.add("G00X0Y0");                                                              // Move back to Origin
+          };
+          // Note: GRBL is modal, so the optimizer can also drop G-code words that don't change its state
+          GCodeQueue job = optimize ? new GCodeQueue(generator, MINI_MERGE_TOLERANCE, true, fitArcs) : new GCodeQueue(generator);
+          job.setPlanStats(planStats);
           try {
-            new GRBLSender(cmds.toArray(new String[0]),
-                          new String[]{"M5", "G00X0Y0"});                                     // Abort commands
+            new GRBLSender(job, new String[]{"M5", "G00X0Y0"});                               // Abort commands
           } catch (Exception ex) {
             ex.printStackTrace();
             showMessageDialog(laserCut, "Error sending commands", "Error", PLAIN_MESSAGE);
@@ -185,6 +206,7 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
           new ParameterDialog.ParmItem("Dynamic Laser", getBoolean("dynamic", true)),
           new ParameterDialog.ParmItem("Cut Power|%(0-100)", getInt("power", MINI_CPOWER_DEFAULT)),
           new ParameterDialog.ParmItem("Cut Speed{inches/minute}", getInt("speed", MINI_CSPEED_DEFAULT)),
+          new ParameterDialog.ParmItem("Kerf Width|in{width of cut, or 0 for no kerf compensation}", getDouble("kerf", 0)),
           new ParameterDialog.ParmItem(new JSeparator()),
           new ParameterDialog.ParmItem("Engrave Power|%(0-100)", getInt("epower", MINI_EPOWER_DEFAULT)),
           new ParameterDialog.ParmItem("Engrave Speed{inches/minute}", getInt("espeed", MINI_ESPEED_DEFAULT)),
@@ -193,6 +215,12 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
           new ParameterDialog.ParmItem("Workspace Zoom:1 ; 1|1:2 ; 1|2:4 ; 1|4:8 ; 1|8", Integer.toString((int) getZoomFactor())),
           new ParameterDialog.ParmItem("Workspace Width{inches}", workspace.width),
           new ParameterDialog.ParmItem("Workspace Height{inches}", workspace.height),
+          new ParameterDialog.ParmItem(new JSeparator()),
+          new ParameterDialog.ParmItem("GRBL RX Buffer|bytes{size of GRBL's serial receive buffer (128 for Arduino Uno)}",
+                                       getRxBufferSize()),
+          new ParameterDialog.ParmItem("Optimize G-code{drop redundant words and merge collinear moves}",
+                                       getBoolean("optimize", true)),
+          new ParameterDialog.ParmItem("Fit Arcs{send curves as G2/G3 arcs (needs Optimize G-code)}", getBoolean("arcs", true)),
       };
       if (ParameterDialog.showSaveCancelParameterDialog(parmSet, prefs.get("displayUnits", "in"), laserCut)) {
         putBoolean("pathplan", (Boolean) parmSet[0].value);
@@ -201,16 +229,21 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
         putBoolean("dynamic", (Boolean) parmSet[3].value);
         putInt("power", (Integer) parmSet[4].value);
         putInt("speed", (Integer) parmSet[5].value);
+        putDouble("kerf", (Double) parmSet[6].value);
         // Separator
-        putInt("epower", (Integer) parmSet[7].value);
-        putInt("espeed", (Integer) parmSet[8].value);
-        putInt("dpi", (Integer) parmSet[9].value);
+        putInt("epower", (Integer) parmSet[8].value);
+        putInt("espeed", (Integer) parmSet[9].value);
+        putInt("dpi", (Integer) parmSet[10].value);
         // Separator
-        putDouble("workzoom", Double.parseDouble((String) parmSet[11].value));
+        putDouble("workzoom", Double.parseDouble((String) parmSet[12].value));
         laserCut.surface.setZoomFactor(getZoomFactor());
-        putDouble("workwidth", (Double) parmSet[12].value);
-        putDouble("workheight", (Double) parmSet[13].value);
+        putDouble("workwidth", (Double) parmSet[13].value);
+        putDouble("workheight", (Double) parmSet[14].value);
         laserCut.surface.setSurfaceSize(getWorkspaceSize());
+        // Separator
+        putInt("rxbuffer", Math.max(16, (Integer) parmSet[16].value));
+        putBoolean("optimize", (Boolean) parmSet[17].value);
+        putBoolean("arcs", (Boolean) parmSet[18].value);
       }
     });
     miniLaserMenu.add(miniLazerSettings);
@@ -242,14 +275,36 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
     }
   }
 
+  /*
+   * Copy of the image, position, size and rotation of a CADRasterImage, which is taken when a job is started, as
+   * toGCode() runs on the job's Generator thread
+   */
+  static class RasterJob {
+    private final BufferedImage image;
+    private final double        width, height, xLoc, yLoc, rotation;
+
+    RasterJob (CADRasterImage cadRaster) {
+      image = cadRaster.getImage();
+      width = cadRaster.width;
+      height = cadRaster.height;
+      xLoc = cadRaster.xLoc;
+      yLoc = cadRaster.yLoc;
+      rotation = cadRaster.rotation;
+    }
+  }
+
   static private int map (int value, int minIn, int maxIn, int minOut, int maxOut) {
     return (value - minIn) * (maxOut - minOut) / (maxIn - minIn) + minOut;
   }
 
-  static private List<String> toGCode (CADRasterImage cadRaster, RasterSettings settings) {
-    BufferedImage imgIn = cadRaster.img;
-    double xSize = cadRaster.width;
-    double ySize = cadRaster.height;
+  /*
+   * Generate G-code to engrave a raster, adding it to buf as it's generated, so a large, high DPI raster never
+   * needs to be held in memory as text
+   */
+  static private void toGCode (RasterJob rasterJob, RasterSettings settings, GCodeQueue buf) throws InterruptedException {
+    BufferedImage imgIn = rasterJob.image;
+    double xSize = rasterJob.width;
+    double ySize = rasterJob.height;
     if (settings == null) {
       settings = new RasterSettings(100, 100, 1, 255);                    // Default settings 100 dpi, 100 in/min, 1 min, 255 max
     }
@@ -264,8 +319,8 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
     g2.dispose();
     WritableRaster raster = img.getRaster();
     DataBuffer data = raster.getDataBuffer();
-    DecimalFormat fmt = new DecimalFormat("#.####");
-    List<String> buf = new ArrayList<>();
+    // Note: positions only need to be accurate to a fraction of a pixel at the engraving DPI
+    GCodeWriter gw = new GCodeWriter(GCodeWriter.digitsFor(0.1 / settings.rasterDpi));
     buf.add("G20");                                                                         // Set units to inches
     buf.add("M4");                                                                          // Dynamic Laser Mode
     buf.add("S0");                                                                          // S0 ; Laser off
@@ -273,11 +328,11 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
     // Compute step sizes for raster
     double xStep = 1.0 / settings.rasterDpi;
     double yStep = 1.0 / settings.rasterDpi;
-    if (cadRaster.rotation != 0) {
+    if (rasterJob.rotation != 0) {
       // Compute AffineTransform for rotation
       AffineTransform at = new AffineTransform();
-      at.translate(cadRaster.xLoc - xSize / 2, cadRaster.yLoc - ySize / 2);
-      at.rotate(Math.toRadians(cadRaster.rotation), xSize / 2, ySize / 2);
+      at.translate(rasterJob.xLoc - xSize / 2, rasterJob.yLoc - ySize / 2);
+      at.rotate(Math.toRadians(rasterJob.rotation), xSize / 2, ySize / 2);
 
       int prevValue = 0;
       Point2D.Double loc = new Point2D.Double(0, 0);
@@ -291,7 +346,7 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
               double xLoc = xx * xStep;
               loc.setLocation(xLoc, yLoc);
               at.transform(loc, loc);
-              buf.add("G00X" + fmt.format(loc.x) + "Y" + fmt.format(loc.y));                // G00Xn.nYn.n
+              buf.add(gw.text("G00").axis('X', loc.x).axis('Y', loc.y).line());            // G00Xn.nYn.n
             }
             double xLoc = xx * xStep;
             loc.setLocation(xLoc, yLoc);
@@ -299,9 +354,9 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
             int grey = 255 - data.getElem(yy * imgWid + xx);                                // Read pixel and convert to greyscale
             grey = map(grey, 0, 255, settings.laserMin, settings.laserMax);                 // Map 8 bit range to Laser Power Level range
             if (grey != prevValue) {                                                        // Only send Command if power has changed
-              buf.add("S" + grey + "G01X" + fmt.format(loc.x) + "Y" + fmt.format(loc.y));   // G01Xn.nYn.n ; Set Laser Power and start draw
+              buf.add(gw.text("S").value(grey).text("G01").axis('X', loc.x).axis('Y', loc.y).line()); // Set Laser Power and start draw
             } else if (xx == imgWid - 1) {
-              buf.add("G01X" + fmt.format(loc.x) + "Y" + fmt.format(loc.y));                // G01Xn.nYn.n ; continue draw at last power
+              buf.add(gw.text("G01").axis('X', loc.x).axis('Y', loc.y).line());            // G01Xn.nYn.n ; continue draw at last power
             }
             prevValue = grey;                                                               // Save the laser power for the next loop
           }
@@ -312,7 +367,7 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
               double xLoc = xx * xStep;
               loc.setLocation(xLoc, yLoc);
               at.transform(loc, loc);
-              buf.add("G00X" + fmt.format(loc.x) + "Y" + fmt.format(loc.y));                // G00Xn.nYn.n
+              buf.add(gw.text("G00").axis('X', loc.x).axis('Y', loc.y).line());            // G00Xn.nYn.n
             }
             double xLoc = xx * xStep;
             loc.setLocation(xLoc, yLoc);
@@ -320,9 +375,9 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
             int grey = 255 - data.getElem(yy * imgWid + xx);                                // Read pixel and convert to greyscale
             grey = map(grey, 0, 255, settings.laserMin, settings.laserMax);                 // Map 8 bit range to Laser Power Level range
             if (grey != prevValue) {                                                        // Only send Command if power has changed
-              buf.add("S" + grey + "G01X" + fmt.format(loc.x) + "Y" + fmt.format(loc.y));   // G01Xn.nYn.n ; Set Laser Power and start draw
+              buf.add(gw.text("S").value(grey).text("G01").axis('X', loc.x).axis('Y', loc.y).line()); // Set Laser Power and start draw
             } else if (xx == imgWid - 1) {
-              buf.add("G01X" + fmt.format(loc.x) + "Y" + fmt.format(loc.y));                // G01Xn.nYn.n ; continue draw at last power
+              buf.add(gw.text("G01").axis('X', loc.x).axis('Y', loc.y).line());            // G01Xn.nYn.n ; continue draw at last power
             }
             prevValue = grey;                                                               // Save the laser power for the next loop
           }
@@ -330,39 +385,39 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
       }
     } else {
       // Get workspace location of upper left corner
-      double xOff = cadRaster.xLoc - xSize / 2;
-      double yOff = cadRaster.yLoc - ySize / 2;
+      double xOff = rasterJob.xLoc - xSize / 2;
+      double yOff = rasterJob.yLoc - ySize / 2;
       int prevValue = 0;
       // Move quickly to start of next scan line
-      buf.add("G00X" + fmt.format(xOff) + "Y" + fmt.format(yOff));                          // G00Xn.nYn.n
+      buf.add(gw.text("G00").axis('X', xOff).axis('Y', yOff).line());                      // G00Xn.nYn.n
       // Output GRBL Commands to Draw Raster Image
       for (int yy = 0; yy < imgHyt; yy++) {
         double yLoc = yOff + yStep * yy;
         if ((yy & 1) == 0) {                                                                // Scan left to right for even lines
           // Step down to start of next scan line
-          buf.add("G00Y" + fmt.format(yLoc));                                               // G00Yn.n
+          buf.add(gw.text("G00").axis('Y', yLoc).line());                                   // G00Yn.n
           for (int xx = 0; xx < imgWid; xx++) {
             double xLoc = xOff + xx * xStep;
             int grey = 255 - data.getElem(yy * imgWid + xx);                                // Read pixel and convert to greyscale
             grey = map(grey, 0, 255, settings.laserMin, settings.laserMax);                 // Map 8 bit range to Laser Power Level range
             if (grey != prevValue) {                                                        // Only send Command if power has changed
-              buf.add("S" + grey + "G01X" + fmt.format(xLoc));                              // Sn ; Set Laser Power and start draw
+              buf.add(gw.text("S").value(grey).text("G01").axis('X', xLoc).line());         // Sn ; Set Laser Power and start draw
             } else if (xx == imgWid - 1) {
-              buf.add("G01X" + fmt.format(xLoc));                                           // G01Xn.n ; continue draw at last power
+              buf.add(gw.text("G01").axis('X', xLoc).line());                               // G01Xn.n ; continue draw at last power
             }
             prevValue = grey;                                                               // Save the laser power for the next loop
           }
         } else {                                                                            // Scan right to left for off lines
           // Step down to end of next scan line
-          buf.add("G00Y" + fmt.format(yLoc));                                               // G00Yn.n
+          buf.add(gw.text("G00").axis('Y', yLoc).line());                                   // G00Yn.n
           for (int xx = imgWid - 1; xx >= 0; xx--) {
             double xLoc = xOff + xx * xStep;
             int grey = 255 - data.getElem(yy * imgWid + xx);                                // Read pixel and convert to greyscale
             grey = map(grey, 0, 255, settings.laserMin, settings.laserMax);                 // Map 8 bit range to Laser Power Level range
             if (grey != prevValue) {                                                        // Only send Command if power has changed
-              buf.add("S" + grey + "G01X" + fmt.format(xLoc));                              // Sn ; Set Laser Power and start draw
+              buf.add(gw.text("S").value(grey).text("G01").axis('X', xLoc).line());         // Sn ; Set Laser Power and start draw
             } else if (xx == 0) {
-              buf.add("G01X" + fmt.format(xLoc));                                           // G01Xn.n ; continue draw at last power
+              buf.add(gw.text("G01").axis('X', xLoc).line());                               // G01Xn.n ; continue draw at last power
             }
             prevValue = grey;                                                               // Save the laser power for the next loop
           }
@@ -370,7 +425,6 @@ class MiniLaser extends GRBLBase implements LaserCut.OutputDevice {
       }
     }
     buf.add("S0M5");                                                                        // S0M5 ; Laser off
-    return buf;
   }
 
   // Implemented for LaserCut.OutputDevice
@@ -1,56 +1,82 @@
+import java.awt.*;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.*;
+import java.util.List;
 
 /**
  * PathPlanner: This class tries to organize the cutting order of CADShape objects so that interior
  * details of a CADShape object, such as other, nested CADShape objects are cut before the path of
  * the outer CADShape.  The algorithm workd by first sorting shape into descending order by the area
- * of the shape's bounding box.  Then, it it recursively tries to organize shapes into nested groups
- * by checking if a the bounding box of a potentially nested shape fits inside the outline of the
- * enclosing shape.  As it works it builds a list of Tries where each Trie represents a unique area
- * of the workspace that is not nested in any other shape and the contents of the Trie contain the
- * shapes nested inside the outermost shape.
+ * of the shape's bounding box.  Then, it it organizes shapes into nested groups by checking if the
+ * bounding box of a potentially nested shape fits inside the bounding box of the enclosing shape and if
+ * one of its vertices is inside the enclosing shape's flattened outline.  A ShapeIndex is used to find the
+ * shapes whose bounds might enclose each shape.  As it works it builds a list of Tries where each Trie
+ * represents a unique area of the workspace that is not nested in any other shape and the contents of
+ * the Trie contain the shapes nested inside the outermost shape.
  *
- * todo: add code to minimize travel time when cutting shapes in the same level in a Trie
- * See:
+ * Shapes in the same level of a Trie are ordered by a greedy nearest neighbor search (see reorderGroups()) which
+ * uses a k-d tree of each shape's precomputed start point, so ordering n shapes takes O(n log n), on average.
+ * Then, a time-limited local search (see refine()) uses 2-opt and Or-opt moves to shorten the travel between the
+ * shapes in each level.  Only shapes in the same level are reordered, so nested shapes are still cut before the
+ * shape that encloses them.
  *
  * Ref: https://en.wikipedia.org/wiki/Trie
+ * Ref: https://en.wikipedia.org/wiki/2-opt
  */
 
 public class PathPlanner {
+  private static final long REFINE_TIME = 500;        // Time limit for refine() (milliseconds per optimize() call)
+
+  /**
+   * Rapid travel distance (inches) between the start points of shapes in the order they're cut before and after
+   * refine() was used (totaled, if the same Stats is passed to more than one optimize() call)
+   */
+  static class Stats {
+    double  travelBefore, travelAfter;
+
+    @Override
+    public String toString () {
+      return String.format("travel before: %.2f in, after: %.2f in (%.1f%% shorter)", travelBefore, travelAfter,
+                           travelBefore > 0 ? (travelBefore - travelAfter) / travelBefore * 100 : 0.0);
+    }
+  }
 
   static class PathTrie {
     CADShape cadShape;
+    Point2D.Double   start;
     List<PathTrie>   items = new ArrayList<>();
+    private Rectangle2D bounds;
+    private Polylines   outline;
+    private boolean     evenOdd;
 
     PathTrie (CADShape shape) {
       this.cadShape = shape;
+      start = shape.getStartCoords();
     }
 
-    private boolean contains (CADShape shape) {
-      return cadShape.getWorkspaceTranslatedShape().contains(shape.getShapeBounds());
+    // Cache workspace bounds and flattened outline (only needed while building the Tries)
+    private void prepare () {
+      Shape shape = cadShape.getWorkspaceTranslatedShape();
+      bounds = cadShape.getWorkspaceBounds();
+      outline = cadShape.getScaledPolylines(1, .01);
+      evenOdd = shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD;
     }
 
-    boolean addShape (CADShape shape) {
-      if (contains(shape)) {
-        for (PathTrie item : items) {
-          if (item.contains(shape)) {
-            if (item.addShape(shape)) {
-              return true;
-            }
-          }
-        }
-        items.add(new PathTrie(shape));
-        return true;
-      }
-      return false;
+    /**
+     * Test if the other shape is nested inside this one, which is true if its bounds are inside this shape's bounds
+     * and its first vertex is inside this shape's outline
+     */
+    private boolean contains (PathTrie other) {
+      return outline.getPointCount() > 0 && other.outline.getPointCount() > 0 && bounds.contains(other.bounds) &&
+              outline.contains(other.outline.getX(0), other.outline.getY(0), evenOdd);
     }
 
-    Point2D.Double unravel (List<CADShape> list, Point2D.Double startPos) {
-      startPos = reorderGroups(startPos, items);
+    Point2D.Double unravel (List<CADShape> list, Point2D.Double startPos, long deadline) {
+      startPos = reorderGroups(startPos, items, deadline);
       for (PathTrie item : items) {
-        item.unravel(list, startPos);
+        item.unravel(list, startPos, deadline);
       }
       list.add(cadShape);
       return startPos;
@@ -63,7 +89,7 @@ public class PathPlanner {
 
     ShapeArea (CADShape cadShape) {
       this.cadShape = cadShape;
-      Rectangle2D bnds = cadShape.getShape().getBounds2D();
+      Rectangle2D bnds = cadShape.getShapeBounds();
       area = bnds.getWidth() * bnds.getHeight();
     }
 
@@ -72,32 +98,264 @@ public class PathPlanner {
     }
   }
 
-  private static Point2D.Double reorderGroups (Point2D.Double startPos, List<PathTrie> inList) {
-    List<PathTrie> oldItems = new ArrayList<>(inList);
-    List<PathTrie>  newItems = new ArrayList<>();
-    while (oldItems.size() > 0) {
-      PathTrie closest = null;
-      double minDist = Double.MAX_VALUE;
-      for (PathTrie item : oldItems) {
-        CADShape cadShape = item.cadShape;
-        Point2D.Double pnt = cadShape.getStartCoords();
-        double dist = startPos.distance(pnt);
-        if (dist < minDist) {
-          minDist = dist;
-          closest = item;
-        }
-      }
+  /**
+   * Reorder the items in a List so each item is the one whose start point is closest to the start point of the
+   * previous item (greedy nearest neighbor), beginning with the item closest to startPos, and then refine the order
+   * @param startPos starting location
+   * @param inList List of PathTrie objects to reorder in place
+   * @param deadline System.nanoTime() value after which to stop refining the order (0 to skip refine())
+   * @return start point of the last item in the reordered List
+   */
+  private static Point2D.Double reorderGroups (Point2D.Double startPos, List<PathTrie> inList, long deadline) {
+    KdTree tree = new KdTree(inList);
+    List<PathTrie> newItems = new ArrayList<>(inList.size());
+    Point2D.Double pos = startPos;
+    for (int ii = 0; ii < inList.size(); ii++) {
+      PathTrie closest = inList.get(tree.removeNearest(pos.x, pos.y));
       newItems.add(closest);
-      oldItems.remove(closest);
-      assert closest != null;
-      startPos = closest.cadShape.getStartCoords();
+      pos = closest.start;
+    }
+    if (deadline != 0) {
+      refine(startPos, newItems, deadline);
     }
     inList.clear();
     inList.addAll(newItems);
-    return startPos;
+    return inList.isEmpty() ? startPos : inList.get(inList.size() - 1).start;
+  }
+
+  /**
+   * Shorten the travel from startPos through the start points of the items in a List (an open path) using 2-opt
+   * moves, which reverse a run of items, and Or-opt moves, which move a run of 1 to 3 items (possibly reversed) to
+   * a different place in the List.  Moves are applied whenever they shorten the path and passes repeat until no
+   * move helps, or the deadline passes.
+   * @param startPos starting location (fixed)
+   * @param items List of PathTrie objects to reorder in place
+   * @param deadline System.nanoTime() value after which to stop
+   */
+  private static void refine (Point2D.Double startPos, List<PathTrie> items, long deadline) {
+    int num = items.size();
+    if (num < 2) {
+      return;
+    }
+    // Position 0 in tour is startPos and tour[ii] is the index into xs, ys of the point at position ii
+    double[] xs = new double[num + 1];
+    double[] ys = new double[num + 1];
+    int[] tour = new int[num + 1];
+    xs[0] = startPos.x;
+    ys[0] = startPos.y;
+    for (int ii = 1; ii <= num; ii++) {
+      Point2D.Double pnt = items.get(ii - 1).start;
+      xs[ii] = pnt.x;
+      ys[ii] = pnt.y;
+      tour[ii] = ii;
+    }
+    final double eps = 1e-9;
+    boolean improved = true;
+    while (improved && System.nanoTime() < deadline) {
+      improved = false;
+      // 2-opt: reverse positions ii to jj
+      for (int ii = 1; ii < num && System.nanoTime() < deadline; ii++) {
+        for (int jj = ii + 1; jj <= num; jj++) {
+          double delta = dist(xs, ys, tour[ii - 1], tour[jj]) - dist(xs, ys, tour[ii - 1], tour[ii]);
+          if (jj < num) {
+            delta += dist(xs, ys, tour[ii], tour[jj + 1]) - dist(xs, ys, tour[jj], tour[jj + 1]);
+          }
+          if (delta < -eps) {
+            for (int aa = ii, bb = jj; aa < bb; aa++, bb--) {
+              int tmp = tour[aa];
+              tour[aa] = tour[bb];
+              tour[bb] = tmp;
+            }
+            improved = true;
+          }
+        }
+      }
+      // Or-opt: move the run at positions ss to ee so it follows position kk, either forward or reversed
+      for (int len = 1; len <= 3; len++) {
+        for (int ss = 1; ss + len - 1 <= num && System.nanoTime() < deadline; ss++) {
+          int ee = ss + len - 1;
+          int prev = tour[ss - 1];
+          int next = ee < num ? tour[ee + 1] : -1;
+          double gain = dist(xs, ys, prev, tour[ss]);
+          if (next >= 0) {
+            gain += dist(xs, ys, tour[ee], next) - dist(xs, ys, prev, next);
+          }
+          for (int kk = 0; kk <= num; kk++) {
+            if (kk >= ss - 1 && kk <= ee) {
+              continue;
+            }
+            int after = kk < num ? tour[kk + 1] : -1;
+            double fwd = dist(xs, ys, tour[kk], tour[ss]);
+            double rev = dist(xs, ys, tour[kk], tour[ee]);
+            if (after >= 0) {
+              double link = dist(xs, ys, tour[kk], after);
+              fwd += dist(xs, ys, tour[ee], after) - link;
+              rev += dist(xs, ys, tour[ss], after) - link;
+            }
+            boolean reverse = rev < fwd;
+            if (Math.min(fwd, rev) - gain < -eps) {
+              tour = moveRun(tour, ss, ee, kk, reverse);
+              improved = true;
+              break;
+            }
+          }
+        }
+      }
+    }
+    List<PathTrie> oldItems = new ArrayList<>(items);
+    for (int ii = 1; ii <= num; ii++) {
+      items.set(ii - 1, oldItems.get(tour[ii] - 1));
+    }
+  }
+
+  private static double dist (double[] xs, double[] ys, int p1, int p2) {
+    double dx = xs[p1] - xs[p2];
+    double dy = ys[p1] - ys[p2];
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  // Return a copy of tour with the run at positions ss to ee moved to follow position kk
+  private static int[] moveRun (int[] tour, int ss, int ee, int kk, boolean reverse) {
+    int[] moved = new int[tour.length];
+    int idx = 0;
+    for (int ii = 0; ii < tour.length; ii++) {
+      if (ii >= ss && ii <= ee) {
+        continue;
+      }
+      moved[idx++] = tour[ii];
+      if (ii == kk) {
+        for (int jj = 0; jj <= ee - ss; jj++) {
+          moved[idx++] = tour[reverse ? ee - jj : ss + jj];
+        }
+      }
+    }
+    return moved;
+  }
+
+  /**
+   * Static 2D k-d tree over the start points of a List of PathTrie objects that supports finding and removing the
+   * nearest remaining point.  Nodes are stored implicitly in the order array (each node is the median of its
+   * range) and alive[] holds the count of points not yet removed in the range each node covers, which lets the
+   * search skip subtrees that are empty.
+   */
+  private static class KdTree {
+    private final double[]  xs, ys;
+    private final int[]     order, pos, alive;
+    private final boolean[] removed;
+    private int             best;
+    private double          bestDist;
+
+    KdTree (List<PathTrie> items) {
+      int size = items.size();
+      xs = new double[size];
+      ys = new double[size];
+      Integer[] idx = new Integer[size];
+      for (int ii = 0; ii < size; ii++) {
+        Point2D.Double pnt = items.get(ii).start;
+        xs[ii] = pnt.x;
+        ys[ii] = pnt.y;
+        idx[ii] = ii;
+      }
+      build(idx, 0, size, 0);
+      order = new int[size];
+      pos = new int[size];
+      alive = new int[size];
+      removed = new boolean[size];
+      for (int ii = 0; ii < size; ii++) {
+        order[ii] = idx[ii];
+        pos[idx[ii]] = ii;
+      }
+      countAlive(0, size);
+    }
+
+    // Sort each range by alternating axis so its median splits it into the left and right subtrees
+    private void build (Integer[] idx, int lo, int hi, int depth) {
+      if (hi - lo > 1) {
+        double[] keys = (depth & 1) == 0 ? xs : ys;
+        Arrays.sort(idx, lo, hi, Comparator.comparingDouble(ii -> keys[ii]));
+        int mid = (lo + hi) >>> 1;
+        build(idx, lo, mid, depth + 1);
+        build(idx, mid + 1, hi, depth + 1);
+      }
+    }
+
+    private int countAlive (int lo, int hi) {
+      if (lo >= hi) {
+        return 0;
+      }
+      int mid = (lo + hi) >>> 1;
+      return alive[mid] = countAlive(lo, mid) + countAlive(mid + 1, hi) + 1;
+    }
+
+    /**
+     * Find and remove the remaining point closest to x, y (ties go to the point that's first in the List)
+     * @return index of the point in the List used to build the tree
+     */
+    int removeNearest (double x, double y) {
+      best = -1;
+      bestDist = Double.MAX_VALUE;
+      search(0, order.length, 0, x, y);
+      // Walk down to the removed point's node, decrementing the alive counts
+      for (int lo = 0, hi = order.length, target = pos[best]; ; ) {
+        int mid = (lo + hi) >>> 1;
+        alive[mid]--;
+        if (target == mid) {
+          break;
+        } else if (target < mid) {
+          hi = mid;
+        } else {
+          lo = mid + 1;
+        }
+      }
+      removed[best] = true;
+      return best;
+    }
+
+    private void search (int lo, int hi, int depth, double x, double y) {
+      if (lo >= hi) {
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      if (alive[mid] == 0) {
+        return;
+      }
+      int ii = order[mid];
+      double dx = x - xs[ii];
+      double dy = y - ys[ii];
+      if (!removed[ii]) {
+        double dist = dx * dx + dy * dy;
+        if (dist < bestDist || (dist == bestDist && ii < best)) {
+          bestDist = dist;
+          best = ii;
+        }
+      }
+      // Search the side of the split containing x, y first, then the other side if it could hold a closer point
+      double diff = (depth & 1) == 0 ? dx : dy;
+      if (diff < 0) {
+        search(lo, mid, depth + 1, x, y);
+        if (diff * diff <= bestDist) {
+          search(mid + 1, hi, depth + 1, x, y);
+        }
+      } else {
+        search(mid + 1, hi, depth + 1, x, y);
+        if (diff * diff <= bestDist) {
+          search(lo, mid, depth + 1, x, y);
+        }
+      }
+    }
   }
 
   static List<CADShape> optimize (List<CADShape> shapes) {
+    return optimize(shapes, null);
+  }
+
+  /**
+   * Organize shapes so nested shapes are cut first and travel between shapes is minimized
+   * @param shapes List of CADShape objects to cut
+   * @param stats if not null, the rapid travel distance before and after refinement is added to it
+   * @return reordered List of CADShape objects
+   */
+  static List<CADShape> optimize (List<CADShape> shapes, Stats stats) {
     // Sort CADShape objects into descending order by the area of each's bounding box
     List<ShapeArea>  byArea = new ArrayList<>();
     for (CADShape shape : shapes) {
@@ -105,28 +363,112 @@ public class PathPlanner {
     }
     Collections.sort(byArea);
     Collections.reverse((byArea));
-    // Organize CADShape objects into hierarchical groups
+    List<PathTrie> groups = buildTries(byArea);
+    // Order using only nearest neighbor, then again with refinement and keep whichever has less travel
+    List<CADShape> greedy = unravel(groups, 0);
+    List<CADShape> output = unravel(groups, System.nanoTime() + REFINE_TIME * 1000000);
+    double before = getTravel(greedy);
+    double after = getTravel(output);
+    if (after > before) {
+      output = greedy;
+      after = before;
+    }
+    if (stats != null) {
+      stats.travelBefore += before;
+      stats.travelAfter += after;
+    }
+    return output;
+  }
+
+  /**
+   * Find how deeply each shape is nested inside the other shapes, so shapes at an odd depth are holes cut in the
+   * enclosing shape and shapes at an even depth are parts, or islands inside a hole (used for kerf compensation)
+   * @param shapes List of CADShape objects to cut
+   * @return Map of CADShape to the number of shapes that enclose it (0 for outermost shapes)
+   */
+  static Map<CADShape, Integer> getNestingDepths (List<CADShape> shapes) {
+    List<ShapeArea>  byArea = new ArrayList<>();
+    for (CADShape shape : shapes) {
+      byArea.add(new ShapeArea(shape));
+    }
+    Collections.sort(byArea);
+    Collections.reverse((byArea));
+    Map<CADShape, Integer> depths = new IdentityHashMap<>();
+    addDepths(buildTries(byArea), 0, depths);
+    return depths;
+  }
+
+  private static void addDepths (List<PathTrie> items, int depth, Map<CADShape, Integer> depths) {
+    for (PathTrie item : items) {
+      depths.put(item.cadShape, depth);
+      addDepths(item.items, depth + 1, depths);
+    }
+  }
+
+  /**
+   * Organize CADShape objects into hierarchical groups where each shape is added to the smallest shape that
+   * encloses it.  Because shapes are added in descending order by area, the enclosing shapes are already in the
+   * index and the smallest one is the last one added.
+   * @param byArea List of ShapeArea objects in descending order by area
+   * @return List of top level PathTrie objects
+   */
+  private static List<PathTrie> buildTries (List<ShapeArea> byArea) {
     List<PathTrie> groups = new ArrayList<>();
+    ShapeIndex index = new ShapeIndex();
+    Map<CADShape, PathTrie> tries = new IdentityHashMap<>();
     for (ShapeArea item : byArea) {
-      boolean added = false;
-      for (PathTrie group : groups) {
-        if (added = group.addShape(item.cadShape)) {
-          break;
+      PathTrie trie = new PathTrie(item.cadShape);
+      trie.prepare();
+      PathTrie parent = null;
+      if (trie.outline.getPointCount() > 0) {
+        Point2D.Double sample = new Point2D.Double(trie.outline.getX(0), trie.outline.getY(0));
+        List<CADShape> candidates = index.query(sample, 0);
+        for (int ii = candidates.size() - 1; ii >= 0 && parent == null; ii--) {
+          PathTrie candidate = tries.get(candidates.get(ii));
+          if (candidate.contains(trie)) {
+            parent = candidate;
+          }
         }
       }
-      if (!added) {
-        groups.add(new PathTrie(item.cadShape));
-      }
+      (parent != null ? parent.items : groups).add(trie);
+      tries.put(item.cadShape, trie);
+      index.add(item.cadShape);
+    }
+    // Release cached outlines and unsubscribe index from shapes
+    for (PathTrie trie : tries.values()) {
+      trie.bounds = null;
+      trie.outline = null;
     }
+    index.rebuild(Collections.emptyList());
+    return groups;
+  }
+
+  private static List<CADShape> unravel (List<PathTrie> groups, long deadline) {
     List<CADShape> output = new ArrayList<>();
     Point2D.Double startPos = new Point2D.Double(0, 0);
-    startPos = reorderGroups(startPos, groups);
+    startPos = reorderGroups(startPos, groups, deadline);
     for (PathTrie group : groups) {
-      startPos = group.unravel(output, startPos);
+      startPos = group.unravel(output, startPos, deadline);
     }
     return output;
   }
 
+  /**
+   * Compute rapid travel distance from 0, 0 through the start point of each shape in order
+   * @param shapes List of CADShape objects in the order they're cut
+   * @return travel distance (inches)
+   */
+  static double getTravel (List<CADShape> shapes) {
+    double travel = 0;
+    Point2D.Double pos = new Point2D.Double(0, 0);
+    for (CADShape shape : shapes) {
+      Point2D.Double start = shape.getStartCoords();
+      travel += pos.distance(start);
+      pos = start;
+    }
+    return travel;
+  }
+
   private static final Map<CADShape,String> map = new HashMap<>();
 
   private static CADShape add (String name, CADShape val) {
@@ -134,7 +476,112 @@ public class PathPlanner {
     return val;
   }
 
+  /*
+   * Original greedy nearest neighbor ordering (O(n^2) and calls getStartCoords() for every comparison) which is
+   * used as a reference by benchmark()
+   */
+  private static void reorderLinear (Point2D.Double startPos, List<PathTrie> inList) {
+    List<PathTrie> oldItems = new ArrayList<>(inList);
+    List<PathTrie>  newItems = new ArrayList<>();
+    while (oldItems.size() > 0) {
+      PathTrie closest = null;
+      double minDist = Double.MAX_VALUE;
+      for (PathTrie item : oldItems) {
+        double dist = startPos.distance(item.cadShape.getStartCoords());
+        if (dist < minDist) {
+          minDist = dist;
+          closest = item;
+        }
+      }
+      newItems.add(closest);
+      oldItems.remove(closest);
+      startPos = closest.cadShape.getStartCoords();
+    }
+    inList.clear();
+    inList.addAll(newItems);
+  }
+
+  /*
+   * Time ordering of a sheet of n small, randomly placed parts with reorderGroups() and with the original O(n^2)
+   * search and check that both produce the same order
+   */
+  private static void benchmark () {
+    Random rand = new Random(1234);
+    for (int count = 500; count <= 16000; count *= 2) {
+      List<PathTrie> items = new ArrayList<>();
+      for (int ii = 0; ii < count; ii++) {
+        items.add(new PathTrie(new CADRectangle(rand.nextDouble() * 48, rand.nextDouble() * 24, .25, .25, 0, 0)));
+      }
+      List<PathTrie> kdItems = new ArrayList<>(items);
+      long start = System.nanoTime();
+      reorderGroups(new Point2D.Double(0, 0), kdItems, 0);
+      long kdTime = System.nanoTime() - start;
+      String linear = "skipped";
+      if (count <= 4000) {
+        List<PathTrie> linItems = new ArrayList<>(items);
+        start = System.nanoTime();
+        reorderLinear(new Point2D.Double(0, 0), linItems);
+        linear = String.format("%8.1f ms, same order: %s", (System.nanoTime() - start) / 1e6, linItems.equals(kdItems));
+      }
+      System.out.printf("%6d parts: k-d tree %7.1f ms, linear %s%n", count, kdTime / 1e6, linear);
+    }
+    for (int count = 250; count <= 4000; count *= 2) {
+      List<PathTrie> items = new ArrayList<>();
+      for (int ii = 0; ii < count; ii++) {
+        items.add(new PathTrie(new CADRectangle(rand.nextDouble() * 48, rand.nextDouble() * 24, .25, .25, 0, 0)));
+      }
+      List<PathTrie> greedy = new ArrayList<>(items);
+      reorderGroups(new Point2D.Double(0, 0), greedy, 0);
+      long start = System.nanoTime();
+      reorderGroups(new Point2D.Double(0, 0), items, start + REFINE_TIME * 1000000);
+      long refineTime = System.nanoTime() - start;
+      Stats stats = new Stats();
+      stats.travelBefore = getTravel(toShapes(greedy));
+      stats.travelAfter = getTravel(toShapes(items));
+      System.out.printf("%6d parts: refined in %5.1f ms, %s%n", count, refineTime / 1e6, stats);
+    }
+    // Time building the Tries for a sheet of squares that each enclose three nested circles
+    for (int count = 1000; count <= 16000; count *= 2) {
+      List<CADShape> shapes = new ArrayList<>();
+      int cols = (int) Math.ceil(Math.sqrt(count / 4.0));
+      for (int ii = 0; ii < count / 4; ii++) {
+        double xx = (ii % cols) * 1.25, yy = (ii / cols) * 1.25;
+        shapes.add(new CADRectangle(xx, yy, 1, 1, 0, 0));
+        for (int jj = 0; jj < 3; jj++) {
+          shapes.add(new CADOval(xx - .3 + jj * .3, yy, .2, .2, 0));
+        }
+      }
+      List<ShapeArea> byArea = new ArrayList<>();
+      for (CADShape shape : shapes) {
+        byArea.add(new ShapeArea(shape));
+      }
+      Collections.sort(byArea);
+      Collections.reverse((byArea));
+      long start = System.nanoTime();
+      List<PathTrie> groups = buildTries(byArea);
+      long buildTime = System.nanoTime() - start;
+      int nested = 0;
+      for (PathTrie group : groups) {
+        nested += group.items.size();
+      }
+      System.out.printf("%6d shapes: built Tries in %6.1f ms, %d top level, %d nested%n", shapes.size(),
+                        buildTime / 1e6, groups.size(), nested);
+    }
+  }
+
+  private static List<CADShape> toShapes (List<PathTrie> items) {
+    List<CADShape> shapes = new ArrayList<>();
+    for (PathTrie item : items) {
+      shapes.add(item.cadShape);
+    }
+    return shapes;
+  }
+
   public static void main (String[] args) {
+    if (args.length > 0 && args[0].equals("-benchmark")) {
+      benchmark();
+      return;
+    }
     // A nests in E, B nests in F and D, D, E & F nest in G
     List<CADShape> shapes = new ArrayList<>();
     if (false) {
@@ -154,10 +601,12 @@ public class PathPlanner {
       shapes.add(add("F", new CADRectangle(30, 10, 15, 15, 0, 0)));
       shapes.add(add("G", new CADRectangle(5, 5, 55, 25, 0, 0)));
     }
-    List<CADShape>  oShapes = optimize(shapes);
+    Stats stats = new Stats();
+    List<CADShape>  oShapes = optimize(shapes, stats);
     for (CADShape shape : oShapes) {
       Rectangle2D bnds = shape.getShapeBounds();
       System.out.println(map.get(shape) + ": " + bnds.getX() + ", " + bnds.getY() + " (" + bnds.getWidth() + ", " + bnds.getHeight() + ")");
     }
+    System.out.println(stats);
   }
 }
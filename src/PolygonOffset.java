@@ -0,0 +1,280 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offsets the region enclosed by a Shape (grows it for a positive distance, shrinks it for a negative distance)
+ * with mitered or rounded corners.  Unlike CNCTools.getParallelPath(), which intersects each offset line with the
+ * next and then has to prune the loops this leaves at tight corners, the offset is computed as a set operation:
+ *
+ *   1. The Shape is flattened and every vertex is snapped to an integer grid (scaled by a power of two from the
+ *      Shape's size, like Clipper) so duplicate and collinear vertices can be removed with exact integer tests.
+ *   2. Each edge is swept by the offset distance on both sides to form a band and each vertex adds a join on the
+ *      outside of its turn (a miter, squared off past MITER_LIMIT, or an arc).  All these pieces are given the
+ *      same orientation so the non-zero winding rule makes their union.  As Area's cost grows much faster than
+ *      the number of edges, each run of CHUNK edges makes a Path2D and these are combined by AreaUnion.
+ *   3. The union is added to (or subtracted from) the Area of the snapped region.
+ *
+ * Because the region is filled using the Shape's own winding rule, holes and nested contours are offset as one
+ * region, and there are never self intersecting loops to prune.  Open contours are treated as closed.
+ */
+class PolygonOffset {
+  static final int      JOIN_MITER = 0;
+  static final int      JOIN_ROUND = 1;
+  static final double   MITER_LIMIT = 2.0;        // Miters longer than this times the distance are squared off
+  private static final int GRID_BITS = 30;        // Snap coordinates to about 2^30 units across the shape
+  private static final int CHUNK = 8;             // Number of edges per Path2D passed to AreaUnion
+
+  /**
+   * Offset the region enclosed by a Shape
+   * @param shape    Shape to offset
+   * @param delta    offset distance (positive grows the region, negative shrinks it)
+   * @param join     JOIN_MITER, or JOIN_ROUND
+   * @param flatten  controls how closely line segments follow curves and round joins (smaller is closer)
+   * @return offset Shape (made only of line segments)
+   */
+  static Shape offset (Shape shape, double delta, int join, double flatten) {
+    Rectangle2D bounds = shape.getBounds2D();
+    double max = Math.max(Math.max(Math.abs(bounds.getMinX()), Math.abs(bounds.getMaxX())),
+                          Math.max(Math.abs(bounds.getMinY()), Math.abs(bounds.getMaxY()))) + Math.abs(delta);
+    double scale = max > 0 ? Math.scalb(1.0, GRID_BITS - Math.getExponent(max) - 1) : 1.0;
+    List<long[]> contours = getContours(shape, scale, flatten);
+    Path2D.Double region = new Path2D.Double(shape.getPathIterator(null).getWindingRule());
+    for (long[] contour : contours) {
+      region.moveTo(contour[0], contour[1]);
+      for (int ii = 2; ii < contour.length; ii += 2) {
+        region.lineTo(contour[ii], contour[ii + 1]);
+      }
+      region.closePath();
+    }
+    Area area = new Area(region);
+    if (delta != 0) {
+      Area sweep = getSweep(contours, Math.abs(delta) * scale, join, flatten * scale);
+      if (delta > 0) {
+        area.add(sweep);
+      } else {
+        area.subtract(sweep);
+      }
+    }
+    return AffineTransform.getScaleInstance(1 / scale, 1 / scale).createTransformedShape(area);
+  }
+
+  /*
+   * Flatten Shape into contours of snapped integer x, y pairs with duplicate and collinear vertices removed
+   */
+  private static List<long[]> getContours (Shape shape, double scale, double flatten) {
+    Polylines poly = new Polylines(shape, 1.0, flatten);
+    List<long[]> contours = new ArrayList<>();
+    for (int cc = 0; cc < poly.getContourCount(); cc++) {
+      int start = poly.getStart(cc);
+      int end = poly.getEnd(cc);
+      long[] pts = new long[(end - start) * 2];
+      int num = 0;
+      for (int pp = start; pp < end; pp++) {
+        long x = Math.round(poly.getX(pp) * scale);
+        long y = Math.round(poly.getY(pp) * scale);
+        // Drop duplicates and any vertex that's in line with the vertex before it and this one
+        if (num > 0 && pts[num * 2 - 2] == x && pts[num * 2 - 1] == y) {
+          continue;
+        }
+        while (num > 1 && cross(pts, num - 2, num - 1, x, y) == 0) {
+          num--;
+        }
+        pts[num * 2] = x;
+        pts[num * 2 + 1] = y;
+        num++;
+      }
+      // Contour is closed, so also check around the ends
+      if (num > 1 && pts[0] == pts[num * 2 - 2] && pts[1] == pts[num * 2 - 1]) {
+        num--;
+      }
+      int first = 0;
+      boolean changed = true;
+      while (changed && num - first > 2) {
+        changed = false;
+        if (cross(pts, num - 2, num - 1, pts[first * 2], pts[first * 2 + 1]) == 0) {
+          num--;
+          changed = true;
+        }
+        if (num - first > 2 && cross(pts, num - 1, first, pts[first * 2 + 2], pts[first * 2 + 3]) == 0) {
+          first++;
+          changed = true;
+        }
+      }
+      if (num - first > 2) {
+        long[] contour = new long[(num - first) * 2];
+        System.arraycopy(pts, first * 2, contour, 0, contour.length);
+        contours.add(contour);
+      }
+    }
+    return contours;
+  }
+
+  /*
+   * Cross product of vectors from point p1 to point p2 and from point p2 to x, y (exact for 2^30 sized grid)
+   */
+  private static long cross (long[] pts, int p1, int p2, long x, long y) {
+    long dx1 = pts[p2 * 2] - pts[p1 * 2];
+    long dy1 = pts[p2 * 2 + 1] - pts[p1 * 2 + 1];
+    return dx1 * (y - pts[p2 * 2 + 1]) - dy1 * (x - pts[p2 * 2]);
+  }
+
+  /*
+   * Build an Area that covers everything within distance of the contours' edges
+   */
+  private static Area getSweep (List<long[]> contours, double dist, int join, double flatten) {
+    List<Shape> chunks = new ArrayList<>();
+    Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+    double step = Math.PI / 2;
+    if (flatten > 0 && flatten < dist) {
+      step = Math.min(step, 2 * Math.acos(1 - flatten / dist));
+    }
+    double[] piece = new double[16];
+    for (long[] pts : contours) {
+      int num = pts.length / 2;
+      for (int ii = 0; ii < num; ii++) {
+        int jj = (ii + 1) % num;
+        int kk = (ii + 2) % num;
+        double x1 = pts[ii * 2], y1 = pts[ii * 2 + 1];
+        double x2 = pts[jj * 2], y2 = pts[jj * 2 + 1];
+        double dx1 = x2 - x1, dy1 = y2 - y1;
+        double len1 = Math.sqrt(dx1 * dx1 + dy1 * dy1);
+        double nx1 = dy1 / len1 * dist, ny1 = -dx1 / len1 * dist;
+        // Band on both sides of edge from x1, y1 to x2, y2
+        addPiece(path, new double[] {x1 + nx1, y1 + ny1, x2 + nx1, y2 + ny1, x2 - nx1, y2 - ny1, x1 - nx1, y1 - ny1}, 4);
+        // Join at x2, y2 on the outside of the turn to the next edge
+        double dx2 = pts[kk * 2] - x2, dy2 = pts[kk * 2 + 1] - y2;
+        double len2 = Math.sqrt(dx2 * dx2 + dy2 * dy2);
+        double nx2 = dy2 / len2 * dist, ny2 = -dx2 / len2 * dist;
+        double turn = dx1 * dy2 - dy1 * dx2;
+        if (turn < 0) {
+          // Turns right, so outside is on the left (nx, ny is on the right)
+          nx1 = -nx1;
+          ny1 = -ny1;
+          nx2 = -nx2;
+          ny2 = -ny2;
+        }
+        double theta = Math.acos(Math.max(-1, Math.min(1, (nx1 * nx2 + ny1 * ny2) / (dist * dist))));
+        int count = 0;
+        piece = ensure(piece, 8);
+        piece[count++] = x2;
+        piece[count++] = y2;
+        piece[count++] = x2 + nx1;
+        piece[count++] = y2 + ny1;
+        if (join == JOIN_ROUND) {
+          int steps = Math.max(1, (int) Math.ceil(theta / step));
+          double start = Math.atan2(ny1, nx1);
+          double inc = Math.atan2(nx1 * ny2 - ny1 * nx2, nx1 * nx2 + ny1 * ny2) / steps;
+          piece = ensure(piece, steps * 2 + 6);
+          for (int ss = 1; ss < steps; ss++) {
+            piece[count++] = x2 + Math.cos(start + inc * ss) * dist;
+            piece[count++] = y2 + Math.sin(start + inc * ss) * dist;
+          }
+        } else {
+          // Miter point is where the offset edges meet, which is along the bisector of the two normals
+          double cosHalf = Math.cos(theta / 2);
+          double bx = nx1 + nx2, by = ny1 + ny2;
+          double blen = Math.sqrt(bx * bx + by * by);
+          bx /= blen;
+          by /= blen;
+          if (cosHalf >= 1 / MITER_LIMIT) {
+            piece[count++] = x2 + bx * dist / cosHalf;
+            piece[count++] = y2 + by * dist / cosHalf;
+          } else {
+            // Square off at dist from the vertex by extending each offset edge to the line perpendicular to the bisector
+            double t1 = dist * (1 - cosHalf) / ((dx1 * bx + dy1 * by) / len1);
+            double t2 = dist * (1 - cosHalf) / ((dx2 * bx + dy2 * by) / len2);
+            piece[count++] = x2 + nx1 + dx1 / len1 * t1;
+            piece[count++] = y2 + ny1 + dy1 / len1 * t1;
+            piece[count++] = x2 + nx2 - dx2 / len2 * t2;
+            piece[count++] = y2 + ny2 - dy2 / len2 * t2;
+          }
+        }
+        piece[count++] = x2 + nx2;
+        piece[count++] = y2 + ny2;
+        if (turn != 0) {
+          addPiece(path, piece, count / 2);
+        }
+        if ((ii + 1) % CHUNK == 0 || ii == num - 1) {
+          chunks.add(path);
+          path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+        }
+      }
+    }
+    return AreaUnion.unionArea(chunks);
+  }
+
+  private static double[] ensure (double[] piece, int size) {
+    return piece.length >= size ? piece : new double[size * 2];
+  }
+
+  /*
+   * Add closed polygon to path so it winds counter clockwise (in y down coordinates)
+   */
+  private static void addPiece (Path2D.Double path, double[] coords, int num) {
+    double area = 0;
+    for (int ii = 0; ii < num; ii++) {
+      int jj = (ii + 1) % num;
+      area += coords[ii * 2] * coords[jj * 2 + 1] - coords[jj * 2] * coords[ii * 2 + 1];
+    }
+    boolean reverse = area < 0;
+    for (int ii = 0; ii < num; ii++) {
+      int pp = reverse ? num - 1 - ii : ii;
+      if (ii == 0) {
+        path.moveTo(coords[pp * 2], coords[pp * 2 + 1]);
+      } else {
+        path.lineTo(coords[pp * 2], coords[pp * 2 + 1]);
+      }
+    }
+    path.closePath();
+  }
+
+  /*
+   * Benchmark against CNCTools.getParallelPath() and CNCTools.pruneOverlap() on large outlines
+   */
+  public static void main (String[] args) {
+    for (int num : new int[] {1000, 5000, 20000}) {
+      Path2D.Double outline = new Path2D.Double();
+      for (int ii = 0; ii < num; ii++) {
+        double ang = ii * 2 * Math.PI / num;
+        double rad = 3 + .3 * Math.sin(ang * 7) + .05 * Math.sin(ang * 97);
+        if (ii == 0) {
+          outline.moveTo(rad * Math.cos(ang), rad * Math.sin(ang));
+        } else {
+          outline.lineTo(rad * Math.cos(ang), rad * Math.sin(ang));
+        }
+      }
+      outline.closePath();
+      for (double delta : new double[] {.125, -.125}) {
+        long time = System.nanoTime();
+        int oldPoints = 0;
+        for (java.awt.geom.Line2D.Double[] lines : Utils2D.transformShapeToLines(outline, 1.0, .01)) {
+          oldPoints += CNCTools.pruneOverlap(CNCTools.getParallelPath(lines, Math.abs(delta), delta > 0)).length;
+        }
+        long oldTime = System.nanoTime() - time;
+        time = System.nanoTime();
+        Shape miter = offset(outline, delta, JOIN_MITER, .01);
+        long miterTime = System.nanoTime() - time;
+        time = System.nanoTime();
+        Shape round = offset(outline, delta, JOIN_ROUND, .01);
+        long roundTime = System.nanoTime() - time;
+        System.out.printf("%6d vertices, delta %6.3f: getParallelPath %5d ms (%d points), miter %5d ms (%d points), " +
+                          "round %5d ms (%d points)%n", num, delta, oldTime / 1000000, oldPoints, miterTime / 1000000,
+                          countPoints(miter), roundTime / 1000000, countPoints(round));
+      }
+    }
+  }
+
+  private static int countPoints (Shape shape) {
+    int count = 0;
+    for (PathIterator pi = shape.getPathIterator(null); !pi.isDone(); pi.next()) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,310 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flattened outline of a Shape stored as polylines in primitive arrays.  The x, y coordinates of every point are
+ * packed into one double[] and an int[] holds the index of the first point of each contour, so flattening a
+ * Shape into a reused Polylines object doesn't allocate a Line2D.Double per segment, or any other per segment
+ * object.  forEachSegment() is a streaming variant that passes each segment to a SegmentVisitor without storing
+ * anything at all.
+ *
+ * Each contour is a connected run of line segments that starts at a SEG_MOVETO.  A SEG_CLOSE adds a segment
+ * back to the contour's first point (if needed) and contours without any segments are dropped, which matches
+ * the arrays of lines previously returned by Utils2D.transformShapeToLines().
+ */
+class Polylines {
+  private double[]  coords = new double[256];     // x, y pairs of all points in all contours
+  private int[]     starts = new int[8];          // Index of first point of each contour and, at [contours], the end
+  private int       points, contours;
+  private int       openContour;                  // Contour number from forEachSegment() of last contour
+
+  interface SegmentVisitor {
+    /**
+     * Called for each line segment in order
+     * @param contour contour number (starts at 0)
+     * @return true to continue, or false to stop
+     */
+    boolean segment (int contour, double x1, double y1, double x2, double y2);
+  }
+
+  Polylines () {
+  }
+
+  Polylines (Shape shape, double scale, double flatten) {
+    flatten(shape, scale, flatten);
+  }
+
+  /**
+   * Replace current contents with the flattened outline of a Shape (reuses the current arrays)
+   * @param shape   Shape to flatten (assumed to be defined in inches)
+   * @param scale   used to scale from inches to the render resolution, such as Screen or Laser DPI.
+   * @param flatten controls how closely the line segments follow the curve (smaller is closer)
+   * @return this Polylines object
+   */
+  Polylines flatten (Shape shape, double scale, double flatten) {
+    points = contours = 0;
+    starts[0] = 0;
+    forEachSegment(shape, scale, flatten, this::addSegment);
+    return this;
+  }
+
+  /**
+   * Use FlatteningPathIterator to convert a Shape to line segments and pass each one to a SegmentVisitor
+   * @param shape   Shape to flatten (assumed to be defined in inches)
+   * @param scale   used to scale from inches to the render resolution, such as Screen or Laser DPI.
+   * @param flatten controls how closely the line segments follow the curve (smaller is closer)
+   * @param visitor SegmentVisitor to call for each segment
+   * @return true if all segments were visited, or false if visitor stopped early
+   */
+  static boolean forEachSegment (Shape shape, double scale, double flatten, SegmentVisitor visitor) {
+    AffineTransform at = scale != 1.0 ? AffineTransform.getScaleInstance(scale, scale) : null;
+    FlatteningPathIterator fpi = new FlatteningPathIterator(shape.getPathIterator(at), flatten, 8);
+    double[] seg = new double[6];
+    double lastX = 0, lastY = 0, firstX = 0, firstY = 0;
+    int contour = 0;
+    boolean empty = true;
+    while (!fpi.isDone()) {
+      switch (fpi.currentSegment(seg)) {
+        case PathIterator.SEG_MOVETO:
+          if (!empty) {
+            contour++;
+            empty = true;
+          }
+          firstX = lastX = seg[0];
+          firstY = lastY = seg[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          if (!visitor.segment(contour, lastX, lastY, seg[0], seg[1])) {
+            return false;
+          }
+          empty = false;
+          lastX = seg[0];
+          lastY = seg[1];
+          break;
+        case PathIterator.SEG_CLOSE:
+          if (lastX != firstX || lastY != firstY) {
+            if (!visitor.segment(contour, lastX, lastY, firstX, firstY)) {
+              return false;
+            }
+            empty = false;
+            lastX = firstX;
+            lastY = firstY;
+          }
+          break;
+      }
+      fpi.next();
+    }
+    return true;
+  }
+
+  private boolean addSegment (int contour, double x1, double y1, double x2, double y2) {
+    if (contours == 0 || contour != openContour) {
+      openContour = contour;
+      if (++contours >= starts.length) {
+        int[] tmp = new int[starts.length * 2];
+        System.arraycopy(starts, 0, tmp, 0, starts.length);
+        starts = tmp;
+      }
+      addPoint(x1, y1);
+    }
+    addPoint(x2, y2);
+    starts[contours] = points;
+    return true;
+  }
+
+  private void addPoint (double x, double y) {
+    if (points * 2 + 2 > coords.length) {
+      double[] tmp = new double[coords.length * 2];
+      System.arraycopy(coords, 0, tmp, 0, points * 2);
+      coords = tmp;
+    }
+    coords[points * 2] = x;
+    coords[points * 2 + 1] = y;
+    points++;
+  }
+
+  int getContourCount () {
+    return contours;
+  }
+
+  int getPointCount () {
+    return points;
+  }
+
+  int getSegmentCount () {
+    return points - contours;
+  }
+
+  /**
+   * @param contour contour number
+   * @return index of contour's first point
+   */
+  int getStart (int contour) {
+    return starts[contour];
+  }
+
+  /**
+   * @param contour contour number
+   * @return index after contour's last point
+   */
+  int getEnd (int contour) {
+    return starts[contour + 1];
+  }
+
+  double getX (int point) {
+    return coords[point * 2];
+  }
+
+  double getY (int point) {
+    return coords[point * 2 + 1];
+  }
+
+  /**
+   * Pass each stored line segment to a SegmentVisitor
+   * @param visitor SegmentVisitor to call for each segment
+   * @return true if all segments were visited, or false if visitor stopped early
+   */
+  boolean forEachSegment (SegmentVisitor visitor) {
+    for (int cc = 0; cc < contours; cc++) {
+      for (int pp = starts[cc] + 1; pp < starts[cc + 1]; pp++) {
+        int ii = pp * 2;
+        if (!visitor.segment(cc, coords[ii - 2], coords[ii - 1], coords[ii], coords[ii + 1])) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param contour contour number
+   * @return true if contour ends at the same point it starts
+   */
+  boolean isClosed (int contour) {
+    int start = getStart(contour);
+    int last = getEnd(contour) - 1;
+    return last - start > 1 && getX(start) == getX(last) && getY(start) == getY(last);
+  }
+
+  /**
+   * Test if a point is inside the polygon formed by all the contours (open contours are treated as closed)
+   * @param x x coordinate of point
+   * @param y y coordinate of point
+   * @param evenOdd if true use even-odd rule, else use non-zero winding rule (see PathIterator.getWindingRule())
+   * @return true if point is inside
+   */
+  boolean contains (double x, double y, boolean evenOdd) {
+    int winding = 0, crossings = 0;
+    for (int cc = 0; cc < contours; cc++) {
+      int start = starts[cc], end = starts[cc + 1];
+      for (int pp = start; pp < end; pp++) {
+        int qq = pp + 1 < end ? pp + 1 : start;
+        double x1 = coords[pp * 2], y1 = coords[pp * 2 + 1];
+        double x2 = coords[qq * 2], y2 = coords[qq * 2 + 1];
+        if ((y1 <= y) != (y2 <= y)) {
+          // Edge crosses horizontal line through point, so check which side of the edge the point is on
+          double side = (x2 - x1) * (y - y1) - (x - x1) * (y2 - y1);
+          if (y1 <= y && side > 0) {
+            winding++;
+            crossings++;
+          } else if (y1 > y && side < 0) {
+            winding--;
+            crossings++;
+          }
+        }
+      }
+    }
+    return evenOdd ? (crossings & 1) != 0 : winding != 0;
+  }
+
+  /**
+   * Make a copy where each contour starts at the point closest to where the previous contour ended (starting with
+   * x, y) to minimize rapid travel.  Closed contours are rotated to start at the nearest vertex, or at the nearest
+   * point on an edge (which adds a point), and keep their direction.  Open contours are reversed when their far
+   * end is closer.  The order of the contours isn't changed.
+   * @param x starting x location of tool
+   * @param y starting y location of tool
+   * @return new Polylines object (the last point is where the tool ends up)
+   */
+  Polylines withBestEntries (double x, double y) {
+    Polylines out = new Polylines();
+    out.coords = new double[points * 2 + contours * 2 + 2];
+    out.starts = new int[contours + 1];
+    for (int cc = 0; cc < contours; cc++) {
+      int start = getStart(cc);
+      int last = getEnd(cc) - 1;
+      out.starts[out.contours++] = out.points;
+      if (isClosed(cc)) {
+        // Find closest point on any edge
+        int edge = start;
+        double bestDist = Double.MAX_VALUE, bestT = 0;
+        for (int pp = start; pp < last; pp++) {
+          double x1 = getX(pp), y1 = getY(pp);
+          double dx = getX(pp + 1) - x1, dy = getY(pp + 1) - y1;
+          double len = dx * dx + dy * dy;
+          double tt = len > 0 ? Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / len)) : 0;
+          double ex = x1 + tt * dx - x, ey = y1 + tt * dy - y;
+          double dist = ex * ex + ey * ey;
+          if (dist < bestDist) {
+            bestDist = dist;
+            bestT = tt;
+            edge = pp;
+          }
+        }
+        int num = last - start;                     // Number of unique points in contour
+        if (bestT > 1e-6 && bestT < 1 - 1e-6) {
+          // Enter on edge, go around and come back to entry point
+          double ex = getX(edge) + bestT * (getX(edge + 1) - getX(edge));
+          double ey = getY(edge) + bestT * (getY(edge + 1) - getY(edge));
+          out.addPoint(ex, ey);
+          for (int ii = 1; ii <= num; ii++) {
+            int pp = start + (edge - start + ii) % num;
+            out.addPoint(getX(pp), getY(pp));
+          }
+          out.addPoint(ex, ey);
+        } else {
+          // Enter at vertex
+          int first = bestT > .5 ? edge + 1 - start : edge - start;
+          for (int ii = 0; ii <= num; ii++) {
+            int pp = start + (first + ii) % num;
+            out.addPoint(getX(pp), getY(pp));
+          }
+        }
+      } else {
+        double dx1 = getX(start) - x, dy1 = getY(start) - y;
+        double dx2 = getX(last) - x, dy2 = getY(last) - y;
+        boolean reverse = dx2 * dx2 + dy2 * dy2 < dx1 * dx1 + dy1 * dy1;
+        for (int ii = 0; ii <= last - start; ii++) {
+          int pp = reverse ? last - ii : start + ii;
+          out.addPoint(getX(pp), getY(pp));
+        }
+      }
+      out.starts[out.contours] = out.points;
+      x = out.getX(out.points - 1);
+      y = out.getY(out.points - 1);
+    }
+    return out;
+  }
+
+  /**
+   * Convert to a List of arrays of lines (one array per contour) for code that still needs Line2D.Double objects
+   * @return List of array of lines
+   */
+  List<Line2D.Double[]> toLines () {
+    List<Line2D.Double[]> paths = new ArrayList<>(contours);
+    for (int cc = 0; cc < contours; cc++) {
+      Line2D.Double[] lines = new Line2D.Double[getEnd(cc) - getStart(cc) - 1];
+      for (int ii = 0; ii < lines.length; ii++) {
+        int pp = getStart(cc) + ii;
+        lines[ii] = new Line2D.Double(getX(pp), getY(pp), getX(pp + 1), getY(pp + 1));
+      }
+      paths.add(lines);
+    }
+    return paths;
+  }
+}
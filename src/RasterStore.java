@@ -0,0 +1,232 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Content-addressed store for the images used by CADRasterImage.  Each image is kept as its encoded bytes (the
+ * original file's bytes when imported, or PNG when created from a BufferedImage) and identified by the SHA-256
+ * hash of those bytes, so an image is hashed and encoded only once.  CADRasterImage serializes a reference to an
+ * Image object, which lets ObjectOutputStream write the encoded bytes only once per stream no matter how many
+ * shapes share it, and readResolve() maps every deserialized copy back to the one Image already in the store,
+ * so duplicates (including those made by CADShape.copy()) share the same decoded pixels.
+ *
+ * Decoding is deferred until the pixels are needed to draw, or engrave the image, as the image's size can be read
+ * from the header of the encoded bytes.  So, opening a file, or an undo, redo, or copy doesn't decode any images.
+ * Decoded pixels are only held by a SoftReference and are decoded again, if needed, after the garbage collector
+ * has cleared them to free memory.
+ */
+class RasterStore {
+  private static final Map<String, WeakReference<Image>> store = new HashMap<>();
+
+  static final class Image implements Serializable {
+    private static final long serialVersionUID = 6391278127764358617L;
+    private final String          id;
+    private final byte[]          data;
+    private transient SoftReference<BufferedImage> pixels;
+    private transient int         width, height;      // Size, in pixels (0 until known)
+
+    private Image (String id, byte[] data, BufferedImage image) {
+      this.id = id;
+      this.data = data;
+      if (image != null) {
+        pixels = new SoftReference<>(image);
+        width = image.getWidth();
+        height = image.getHeight();
+      }
+    }
+
+    String getId () {
+      return id;
+    }
+
+    /**
+     * @return encoded bytes of image (not a copy, so don't modify)
+     */
+    byte[] getData () {
+      return data;
+    }
+
+    /**
+     * @return width of image, in pixels (doesn't decode image)
+     */
+    synchronized int getWidth () {
+      readSize();
+      return width;
+    }
+
+    /**
+     * @return height of image, in pixels (doesn't decode image)
+     */
+    synchronized int getHeight () {
+      readSize();
+      return height;
+    }
+
+    /**
+     * @return decoded image (decoded on first call, or if the decoded pixels have since been freed)
+     */
+    synchronized BufferedImage getImage () {
+      BufferedImage image = pixels != null ? pixels.get() : null;
+      if (image == null) {
+        try {
+          image = ImageIO.read(new ByteArrayInputStream(data));
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        }
+        if (image != null) {
+          pixels = new SoftReference<>(image);
+          width = image.getWidth();
+          height = image.getHeight();
+        }
+      }
+      return image;
+    }
+
+    /*
+     * Get size from the image's header, or, if no ImageReader can do that, by decoding it
+     */
+    private void readSize () {
+      if (width == 0) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+          Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+          if (readers.hasNext()) {
+            ImageReader reader = readers.next();
+            try {
+              reader.setInput(in, true, true);
+              width = reader.getWidth(0);
+              height = reader.getHeight(0);
+            } finally {
+              reader.dispose();
+            }
+          }
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        }
+        if (width == 0) {
+          getImage();
+        }
+      }
+    }
+
+    // Replace deserialized copy with the Image already in the store, if any
+    private Object readResolve () {
+      return intern(this);
+    }
+  }
+
+  /**
+   * Add an image file's bytes to the store (the file is not re-encoded)
+   * @param file image file (jpg, png, gif or bmp)
+   * @return Image in the store
+   * @throws IOException if file cannot be read
+   */
+  static Image fromFile (File file) throws IOException {
+    byte[] data;
+    try (InputStream in = new FileInputStream(file)) {
+      ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int len;
+      while ((len = in.read(buf)) > 0) {
+        bOut.write(buf, 0, len);
+      }
+      data = bOut.toByteArray();
+    }
+    return intern(new Image(hash(data), data, null));
+  }
+
+  /**
+   * Add an image's encoded bytes to the store (such as those read back from a file saved by LzrFile)
+   * @param id id saved with the image, which is the SHA-256 hash of data (not checked, as with readResolve())
+   * @param data encoded image (jpg, png, gif or bmp)
+   * @return Image in the store
+   */
+  static Image fromData (String id, byte[] data) {
+    return intern(new Image(id, data, null));
+  }
+
+  /**
+   * Add a PNG image read from a stream to the store without decoding it (used to read older files, which wrote a
+   * BufferedImage with ImageIO.write(), rather than the bytes of the original file)
+   * @param in InputStream positioned at the start of the PNG's signature (left positioned after the PNG's last byte)
+   * @return Image in the store
+   * @throws IOException if not a PNG, or on read error
+   */
+  static Image readPng (InputStream in) throws IOException {
+    DataInputStream dIn = new DataInputStream(in);
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    DataOutputStream dOut = new DataOutputStream(bOut);
+    long signature = dIn.readLong();
+    if (signature != 0x89504E470D0A1A0AL) {
+      throw new IOException("Not a PNG image");
+    }
+    dOut.writeLong(signature);
+    // Copy chunks (length, type, data and CRC) through the IEND chunk
+    byte[] buf = new byte[8192];
+    int type;
+    do {
+      int length = dIn.readInt();
+      type = dIn.readInt();
+      dOut.writeInt(length);
+      dOut.writeInt(type);
+      for (int remain = length + 4; remain > 0; ) {
+        int count = Math.min(remain, buf.length);
+        dIn.readFully(buf, 0, count);
+        dOut.write(buf, 0, count);
+        remain -= count;
+      }
+    } while (type != 0x49454E44);   // "IEND"
+    byte[] data = bOut.toByteArray();
+    return intern(new Image(hash(data), data, null));
+  }
+
+  /**
+   * Add a BufferedImage to the store by encoding it once as PNG
+   * @param image BufferedImage
+   * @return Image in the store
+   * @throws IOException if image cannot be encoded
+   */
+  static Image fromImage (BufferedImage image) throws IOException {
+    ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", bOut);
+    byte[] data = bOut.toByteArray();
+    return intern(new Image(hash(data), data, image));
+  }
+
+  private static synchronized Image intern (Image image) {
+    WeakReference<Image> ref = store.get(image.id);
+    Image existing = ref != null ? ref.get() : null;
+    if (existing != null) {
+      return existing;
+    }
+    // Purge entries for images no longer used by any CADRasterImage
+    for (Iterator<WeakReference<Image>> it = store.values().iterator(); it.hasNext(); ) {
+      if (it.next().get() == null) {
+        it.remove();
+      }
+    }
+    store.put(image.id, new WeakReference<>(image));
+    return image;
+  }
+
+  private static String hash (byte[] data) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder buf = new StringBuilder();
+      for (byte bb : digest.digest(data)) {
+        buf.append(String.format("%02x", bb & 0xFF));
+      }
+      return buf.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
@@ -0,0 +1,234 @@
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Uniform grid index over the bounds of the CADShape objects in DrawSurface's "shapes" List.  Used to limit
+ * mouse hit-testing and drag-box selection to the few shapes near the cursor instead of scanning every shape.
+ * The index subscribes to each indexed CADShape's ChangeListener hook and rebuckets a shape whenever it's moved,
+ * rotated, resized or rebuilt.
+ *
+ * Note: query results are returned in the same order the shapes were added, which matches the order of the
+ * "shapes" List, so hit-testing still selects the same shape as a linear scan would.
+ */
+class ShapeIndex implements LaserCut.ChangeListener {
+  private static final double         CELL_SIZE = 0.5;        // Grid cell size (inches)
+  private static final int            MAX_CELLS = 256;        // Shapes spanning more cells go into oversize list
+  private final Map<Long, List<Entry>>  cells = new HashMap<>();
+  private final Map<CADShape, Entry>    entries = new IdentityHashMap<>();
+  private final List<Entry>             oversize = new ArrayList<>();
+  private final List<LaserCut.ChangeListener> listeners = new ArrayList<>();
+  private long                          ordinal;
+  private int                           modCount;         // Bumped when shapes are added, or removed
+
+  private static class Entry {
+    final CADShape  shape;
+    final long      order;
+    int             x1, y1, x2, y2;
+    boolean         large;
+
+    Entry (CADShape shape, long order) {
+      this.shape = shape;
+      this.order = order;
+    }
+  }
+
+  /**
+   * Discard current contents and index all the shapes in the List (in List order)
+   * @param shapes List of CADShape objects
+   */
+  void rebuild (List<CADShape> shapes) {
+    for (Entry entry : entries.values()) {
+      entry.shape.removeChangeListener(this);
+    }
+    cells.clear();
+    entries.clear();
+    oversize.clear();
+    ordinal = 0;
+    modCount++;
+    for (CADShape shape : shapes) {
+      add(shape);
+    }
+  }
+
+  void add (CADShape shape) {
+    if (!entries.containsKey(shape)) {
+      Entry entry = new Entry(shape, ordinal++);
+      entries.put(shape, entry);
+      insert(entry);
+      shape.addChangeListener(this);
+      modCount++;
+    }
+  }
+
+  void addAll (Collection<CADShape> shapes) {
+    for (CADShape shape : shapes) {
+      add(shape);
+    }
+  }
+
+  void remove (CADShape shape) {
+    Entry entry = entries.remove(shape);
+    if (entry != null) {
+      extract(entry);
+      shape.removeChangeListener(this);
+      modCount++;
+    }
+  }
+
+  void removeAll (Collection<CADShape> shapes) {
+    for (CADShape shape : shapes) {
+      remove(shape);
+    }
+  }
+
+  /**
+   * Rebucket a shape after its geometry has changed
+   * @param shape CADShape that changed
+   */
+  void update (CADShape shape) {
+    Entry entry = entries.get(shape);
+    if (entry != null) {
+      extract(entry);
+      insert(entry);
+    }
+  }
+
+  public void shapeChanged (CADShape cadShape) {
+    update(cadShape);
+    for (LaserCut.ChangeListener listener : listeners) {
+      listener.shapeChanged(cadShape);
+    }
+  }
+
+  /**
+   * Subscribe to changes in any indexed shape (called after the shape has been rebucketed)
+   * @param listener LaserCut.ChangeListener
+   */
+  void addChangeListener (LaserCut.ChangeListener listener) {
+    listeners.add(listener);
+  }
+
+  boolean contains (CADShape shape) {
+    return entries.containsKey(shape);
+  }
+
+  int getModCount () {
+    return modCount;
+  }
+
+  /**
+   * Get the indexed shapes whose bounds might intersect the area around a point
+   * @param point location in workspace coords (inches)
+   * @param radius distance around point to search (inches)
+   * @return List of candidate CADShape objects in insertion order
+   */
+  List<CADShape> query (Point2D.Double point, double radius) {
+    return query(new Rectangle2D.Double(point.x - radius, point.y - radius, radius * 2, radius * 2));
+  }
+
+  /**
+   * Get the indexed shapes whose bounds might intersect a rectangle
+   * @param area rectangle in workspace coords (inches)
+   * @return List of candidate CADShape objects in insertion order
+   */
+  List<CADShape> query (Rectangle2D area) {
+    int x1 = toCell(area.getMinX());
+    int y1 = toCell(area.getMinY());
+    int x2 = toCell(area.getMaxX());
+    int y2 = toCell(area.getMaxY());
+    Set<Entry> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    found.addAll(oversize);
+    if ((long) (x2 - x1 + 1) * (y2 - y1 + 1) > cells.size()) {
+      // Query covers more cells than are occupied, so scan occupied cells instead
+      for (Map.Entry<Long, List<Entry>> cell : cells.entrySet()) {
+        long key = cell.getKey();
+        int cx = (int) (key >> 32);
+        int cy = (int) key;
+        if (cx >= x1 && cx <= x2 && cy >= y1 && cy <= y2) {
+          found.addAll(cell.getValue());
+        }
+      }
+    } else {
+      for (int xx = x1; xx <= x2; xx++) {
+        for (int yy = y1; yy <= y2; yy++) {
+          List<Entry> cell = cells.get(cellKey(xx, yy));
+          if (cell != null) {
+            found.addAll(cell);
+          }
+        }
+      }
+    }
+    List<Entry> sorted = new ArrayList<>(found);
+    sorted.sort(Comparator.comparingLong(entry -> entry.order));
+    List<CADShape> list = new ArrayList<>(sorted.size());
+    for (Entry entry : sorted) {
+      list.add(entry.shape);
+    }
+    return list;
+  }
+
+  int size () {
+    return entries.size();
+  }
+
+  /**
+   * Compute the area a shape can be clicked in, which is the union of its workspace bounds, its unrotated
+   * local bounds offset to xLoc/yLoc (used by drag-box selection) and its xLoc/yLoc anchor point
+   * @param shape CADShape
+   * @return bounding rectangle in workspace coords (inches)
+   */
+  private static Rectangle2D getIndexBounds (CADShape shape) {
+    Rectangle2D bnds = shape.getWorkspaceBounds();
+    Rectangle2D.Double local = shape.getShapeBounds();
+    bnds.add(new Rectangle2D.Double(local.x + shape.xLoc, local.y + shape.yLoc, local.width, local.height));
+    bnds.add(shape.xLoc, shape.yLoc);
+    return bnds;
+  }
+
+  private void insert (Entry entry) {
+    Rectangle2D bnds = getIndexBounds(entry.shape);
+    entry.x1 = toCell(bnds.getMinX());
+    entry.y1 = toCell(bnds.getMinY());
+    entry.x2 = toCell(bnds.getMaxX());
+    entry.y2 = toCell(bnds.getMaxY());
+    entry.large = (long) (entry.x2 - entry.x1 + 1) * (entry.y2 - entry.y1 + 1) > MAX_CELLS;
+    if (entry.large) {
+      oversize.add(entry);
+    } else {
+      for (int xx = entry.x1; xx <= entry.x2; xx++) {
+        for (int yy = entry.y1; yy <= entry.y2; yy++) {
+          cells.computeIfAbsent(cellKey(xx, yy), key -> new ArrayList<>()).add(entry);
+        }
+      }
+    }
+  }
+
+  private void extract (Entry entry) {
+    if (entry.large) {
+      oversize.remove(entry);
+    } else {
+      for (int xx = entry.x1; xx <= entry.x2; xx++) {
+        for (int yy = entry.y1; yy <= entry.y2; yy++) {
+          long key = cellKey(xx, yy);
+          List<Entry> cell = cells.get(key);
+          if (cell != null) {
+            cell.remove(entry);
+            if (cell.isEmpty()) {
+              cells.remove(key);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static int toCell (double coord) {
+    return (int) Math.floor(coord / CELL_SIZE);
+  }
+
+  private static long cellKey (int xx, int yy) {
+    return ((long) xx << 32) | (yy & 0xFFFFFFFFL);
+  }
+}
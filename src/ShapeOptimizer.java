@@ -1,12 +1,8 @@
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
-import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.*;
 import java.util.List;
-import java.util.Map;
 
 /**
  * ShapeOptimizer: This code tries to reconnected disconnected line and spline segments into a
@@ -14,223 +10,271 @@ import java.util.Map;
  * the Edit menu item "Combine Selected Paths".  After processing, all selected shapes are put
  * into a group with both newly-reconnected paths and paths that could not be connected.
  *
- * Limitations: the code assumes that the starting and ending points of the segments to reconnect
- * match identically (to float level precision) in order to figure out when the starting point of
- * a given segment can be connected to the ending point of another segment.  However, it does try
- * to reconnect segements that match end to end, or start to start by flipping the start and end
- * points, as needed.
+ * Endpoints that are within a tolerance of each other are joined, which closes the micro-gaps
+ * often found in DXF exports.  Segments are kept in primitive arrays and their endpoints are put
+ * in a spatial hash grid with a cell size equal to the tolerance, so finding the segment that
+ * connects to an endpoint only checks the 3 x 3 cells around it and chaining n segments takes
+ * O(n) time, on average.  Segments are flipped, as needed, to connect end to end and each chain
+ * is extended from both ends.  Chains whose ends meet are closed.
  */
 
 public class ShapeOptimizer {
-  static class ShapeSeg {
-    int       type;
-    double    sx, sy, ex, ey;
-    double[]  coords;
-    boolean   used;
+  static final double       DEFAULT_TOLERANCE = 0.0001;   // inches
+  private static final int  STRIDE = 8;                   // sx, sy, then coords for segment type
 
-    ShapeSeg (int type, double sx, double sy, double[] coords) {
-      this.type = type;
-      this.sx = sx;
-      this.sy = sy;
-      this.coords = coords;
-      switch (type) {
-        case PathIterator.SEG_LINETO:   // 1 (sx c01)
-          ex = coords[0];
-          ey = coords[1];
-          break;
+  /**
+   * Segments stored as parallel primitive arrays
+   */
+  private static class Segments {
+    int       count;
+    int[]     types = new int[256];
+    double[]  pnts = new double[256 * STRIDE];
+
+    void add (int type, double sx, double sy, double[] coords) {
+      if (count == types.length) {
+        types = Arrays.copyOf(types, count * 2);
+        pnts = Arrays.copyOf(pnts, count * 2 * STRIDE);
+      }
+      int base = count * STRIDE;
+      pnts[base] = sx;
+      pnts[base + 1] = sy;
+      System.arraycopy(coords, 0, pnts, base + 2, 6);
+      types[count++] = type;
+    }
+
+    // Index into pnts of x coordinate of starting point (end == 0), or ending point (end == 1)
+    int endpoint (int seg, int end) {
+      int base = seg * STRIDE;
+      if (end == 0) {
+        return base;
+      }
+      switch (types[seg]) {
         case PathIterator.SEG_QUADTO:   // 2 (sx c01 c02)
-          ex = coords[2];
-          ey = coords[3];
-          break;
+          return base + 4;
         case PathIterator.SEG_CUBICTO:  // 3 (sx c01 c02 c03)
-          ex = coords[4];
-          ey = coords[5];
-          break;
+          return base + 6;
+        default:                        // 1 (sx c01)
+          return base + 2;
       }
     }
 
-    // Reverse path order of a segment
-    void flip () {
-      switch (type) {
+    // Append segment to path, reversing its direction if flip is true
+    void appendTo (Path2D.Double path, int seg, boolean flip) {
+      int bb = seg * STRIDE;
+      double[] pp = pnts;
+      switch (types[seg]) {
         case PathIterator.SEG_LINETO:   // 1
-          coords[0] = sx;
-          coords[1] = sy;
-          sx = ex;
-          sy = ey;
-          ex = coords[0];
-          ey = coords[1];
+          if (flip) {
+            path.lineTo(pp[bb], pp[bb + 1]);
+          } else {
+            path.lineTo(pp[bb + 2], pp[bb + 3]);
+          }
           break;
         case PathIterator.SEG_QUADTO:   // 2
-          coords[2] = sx;
-          coords[3] = sy;
-          sx = ex;
-          sy = ey;
-          ex = coords[2];
-          ey = coords[3];
+          if (flip) {
+            path.quadTo(pp[bb + 2], pp[bb + 3], pp[bb], pp[bb + 1]);
+          } else {
+            path.quadTo(pp[bb + 2], pp[bb + 3], pp[bb + 4], pp[bb + 5]);
+          }
           break;
         case PathIterator.SEG_CUBICTO:  // 3
-          double tx = coords[0];
-          double ty = coords[1];
-          coords[0] = coords[2];
-          coords[1] = coords[3];
-          coords[2] = tx;
-          coords[3] = ty;
-          //
-          coords[4] = sx;
-          coords[5] = sy;
-          sx = ex;
-          sy = ey;
-          ex = coords[4];
-          ey = coords[5];
+          if (flip) {
+            path.curveTo(pp[bb + 4], pp[bb + 5], pp[bb + 2], pp[bb + 3], pp[bb], pp[bb + 1]);
+          } else {
+            path.curveTo(pp[bb + 2], pp[bb + 3], pp[bb + 4], pp[bb + 5], pp[bb + 6], pp[bb + 7]);
+          }
           break;
       }
     }
+  }
+
+  /**
+   * Spatial hash grid of segment endpoints (id is seg * 2 + end, where end is 0 for start, 1 for end).  Cells are
+   * kept in an open addressing table keyed by their long x and y indices and endpoints in each cell are chained
+   * through next[].  The cell size is never less than 1e-6 of the extent of the endpoints, so a tolerance of zero
+   * (exact match) doesn't create an excessive number of cells.
+   */
+  private static class EndpointGrid {
+    private final Segments  segs;
+    private final double    cell, tol2;
+    private final long[]    keysX, keysY;
+    private final int[]     heads, next;
+    private final int       mask;
 
-    Point2D.Float getStart () {
-      return new Point2D.Float((float) sx, (float) sy);
+    EndpointGrid (Segments segs, double tolerance) {
+      this.segs = segs;
+      double extent = 0;
+      for (int id = 0; id < segs.count * 2; id++) {
+        int idx = segs.endpoint(id >> 1, id & 1);
+        extent = Math.max(extent, Math.max(Math.abs(segs.pnts[idx]), Math.abs(segs.pnts[idx + 1])));
+      }
+      cell = Math.max(Math.max(tolerance, extent * 1e-6), 1e-9);
+      tol2 = tolerance * tolerance;
+      int size = Integer.highestOneBit(Math.max(segs.count * 4, 16) - 1) << 1;
+      mask = size - 1;
+      keysX = new long[size];
+      keysY = new long[size];
+      heads = new int[size];
+      Arrays.fill(heads, -1);
+      next = new int[segs.count * 2];
+      for (int id = 0; id < segs.count * 2; id++) {
+        int idx = segs.endpoint(id >> 1, id & 1);
+        int slot = slot(cellOf(segs.pnts[idx]), cellOf(segs.pnts[idx + 1]));
+        next[id] = heads[slot];
+        heads[slot] = id;
+      }
     }
 
-    Point2D.Float getEnd () {
-      return new Point2D.Float((float) ex, (float) ey);
+    private long cellOf (double coord) {
+      return (long) Math.floor(coord / cell);
     }
-  }
 
-  static class Vert {
-    List<ShapeSeg>  segs = new ArrayList<>();
+    // Find slot for cell, which is either the slot that holds the cell, or the empty slot where it should go
+    private int slot (long cx, long cy) {
+      long key = cx * 0x9E3779B97F4A7C15L + cy;
+      int hh = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+      while (heads[hh] >= 0 && (keysX[hh] != cx || keysY[hh] != cy)) {
+        hh = (hh + 1) & mask;
+      }
+      keysX[hh] = cx;
+      keysY[hh] = cy;
+      return hh;
+    }
 
-    ShapeSeg getSeg (ShapeSeg from, Point2D.Float vert) {
-      for (ShapeSeg seg : segs) {
-        if (seg == from) {
-          // Don't connect to self
-          continue;
-        }
-        Point2D.Float start = seg.getStart();
-        if (!seg.used && start.equals(vert)) {
-          segs.remove(seg);
-          return seg;
-        }
-        Point2D.Float end = seg.getEnd();
-        if (!seg.used && end.equals(vert)) {
-          seg.flip();
-          segs.remove(seg);
-          return seg;
+    /**
+     * Find the closest endpoint of an unused segment that's within tolerance of x, y
+     * @return endpoint id, or -1 if none found
+     */
+    int find (double x, double y, boolean[] used) {
+      long cx = cellOf(x), cy = cellOf(y);
+      int best = -1;
+      double bestDist = tol2;
+      for (long xx = cx - 1; xx <= cx + 1; xx++) {
+        for (long yy = cy - 1; yy <= cy + 1; yy++) {
+          for (int id = heads[slot(xx, yy)]; id >= 0; id = next[id]) {
+            if (!used[id >> 1]) {
+              int idx = segs.endpoint(id >> 1, id & 1);
+              double dx = segs.pnts[idx] - x, dy = segs.pnts[idx + 1] - y;
+              double dist = dx * dx + dy * dy;
+              if (dist <= bestDist) {
+                bestDist = dist;
+                best = id;
+              }
+            }
+          }
         }
       }
-      return null;
+      return best;
     }
   }
 
   /**
-   * Experimental code designed to connect a set line segments into a continous path
-   * Note: this code can only connect line segments when the end points have identical 'float' precision
-   * x and y coordinates.
+   * Connect the line and curve segments in a Shape into continuous paths, joining endpoints that are within
+   * DEFAULT_TOLERANCE of each other
    * @param shape Shape onject containing the line segments to analyze
    * @return List of Shape objects (some may be rebuilt into continuous paths)
    */
   static List<Shape> optimizeShape (Shape shape) {
-    List<ShapeSeg> segs = new ArrayList<>();
-    // Break Shape into List of ShapeSeg objects
-    PathIterator pi = shape.getPathIterator(new AffineTransform());
-    double ex = 0, ey = 0;
+    return optimizeShape(shape, DEFAULT_TOLERANCE);
+  }
+
+  /**
+   * Connect the line and curve segments in a Shape into continuous paths
+   * @param shape Shape onject containing the line segments to analyze
+   * @param tolerance maximum distance between endpoints that will be joined (0 for exact match)
+   * @return List of Shape objects (some may be rebuilt into continuous paths)
+   */
+  static List<Shape> optimizeShape (Shape shape, double tolerance) {
+    Segments segs = new Segments();
+    // Break Shape into segments
+    PathIterator pi = shape.getPathIterator(null);
+    double[] coords = new double[6];      // p1.x, p1.y, p2.x, p2.y, p3.x, p3.y
+    double ex = 0, ey = 0, mx = 0, my = 0;
     while (!pi.isDone()) {
-      double[] coords = new double[6];      // p1.x, p1.y, p2.x, p2.y, p3.x, p3.y
       int type = pi.currentSegment(coords);
       switch (type) {
         case PathIterator.SEG_MOVETO:
-          ex = coords[0];
-          ey = coords[1];
+          mx = ex = coords[0];
+          my = ey = coords[1];
           break;
         case PathIterator.SEG_LINETO:
-          // lineTo(coords[0], coords[1]);
-          segs.add(new ShapeSeg(type, ex, ey, coords));
+          segs.add(type, ex, ey, coords);
           ex = coords[0];
           ey = coords[1];
           break;
         case PathIterator.SEG_QUADTO:
-          // quadTo(coords[0], coords[1], coords[2], coords[3]);
-          segs.add(new ShapeSeg(type, ex, ey, coords));
+          segs.add(type, ex, ey, coords);
           ex = coords[2];
           ey = coords[3];
           break;
         case PathIterator.SEG_CUBICTO:
-          // curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
-          segs.add(new ShapeSeg(type, ex, ey, coords));
+          segs.add(type, ex, ey, coords);
           ex = coords[4];
           ey = coords[5];
           break;
         case PathIterator.SEG_CLOSE:
-          // closePath();
+          // Add closing line segment, if needed
+          if (ex != mx || ey != my) {
+            coords[0] = mx;
+            coords[1] = my;
+            segs.add(PathIterator.SEG_LINETO, ex, ey, coords);
+            ex = mx;
+            ey = my;
+          }
           break;
       }
       pi.next();
     }
-    // Build Map of vertices with a list of segment (key is float precision)
-    Map<Point2D.Float,Vert> verts = new HashMap<>();
-    for (ShapeSeg seg : segs) {
-      // Insert starting point
-      Point2D.Float start = seg.getStart();
-      Vert vert = verts.get(start);
-      if (vert == null) {
-        verts.put(start, vert = new Vert());
+    // Tolerance of zero (or less) only joins endpoints that match exactly
+    tolerance = Math.max(tolerance, 0);
+    EndpointGrid grid = new EndpointGrid(segs, tolerance);
+    boolean[] used = new boolean[segs.count];
+    // Chain holds seg * 2 + flip, growing forward from the middle of the array and backward toward the start
+    int[] chain = new int[segs.count * 2 + 1];
+    double tol2 = tolerance * tolerance;
+    List<Shape> out = new ArrayList<>();
+    for (int seed = 0; seed < segs.count; seed++) {
+      if (used[seed]) {
+        continue;
       }
-      vert.segs.add(seg);
-      // Insert ending point
-      Point2D.Float end = seg.getEnd();
-      vert = verts.get(end);
-      if (vert == null) {
-        verts.put(end, vert = new Vert());
+      used[seed] = true;
+      int head = segs.count, tail = segs.count;
+      chain[tail++] = seed * 2;
+      // Extend forward from the end of the chain
+      int idx = segs.endpoint(seed, 1);
+      double cx = segs.pnts[idx], cy = segs.pnts[idx + 1];
+      for (int id; (id = grid.find(cx, cy, used)) >= 0; ) {
+        int seg = id >> 1;
+        used[seg] = true;
+        boolean flip = (id & 1) == 1;             // Matched segment's end, so reverse it
+        chain[tail++] = seg * 2 + (flip ? 1 : 0);
+        idx = segs.endpoint(seg, flip ? 0 : 1);
+        cx = segs.pnts[idx];
+        cy = segs.pnts[idx + 1];
       }
-      vert.segs.add(seg);
-    }
-    // Scan for connected segments and organize into sequences
-    List<ShapeSeg> opts = new ArrayList<>();
-    for (ShapeSeg seg : segs) {
-      if (!seg.used) {
-        Point2D.Float end = seg.getEnd();
-        Vert vert = verts.get(end);
-        ShapeSeg con = vert.getSeg(seg, end);
-        if (con != null) {
-          opts.add(seg);
-          seg.used = true;
-          while (con != null && !con.used) {
-            con.used = true;
-            opts.add(con);
-            end = con.getEnd();
-            vert = verts.get(end);
-            con = vert.getSeg(con, end);
-          }
-        } else {
-          opts.add(seg);
-          seg.used = true;
-        }
+      // Extend backward from the start of the chain
+      idx = segs.endpoint(seed, 0);
+      double sx = segs.pnts[idx], sy = segs.pnts[idx + 1];
+      for (int id; (id = grid.find(sx, sy, used)) >= 0; ) {
+        int seg = id >> 1;
+        used[seg] = true;
+        boolean flip = (id & 1) == 0;             // Matched segment's start, so reverse it
+        chain[--head] = seg * 2 + (flip ? 1 : 0);
+        idx = segs.endpoint(seg, flip ? 1 : 0);
+        sx = segs.pnts[idx];
+        sy = segs.pnts[idx + 1];
       }
-    }
-    segs = opts;
-    List<Shape> out = new ArrayList<>();
-    // Combine list of reorganized ShapeSeg objects into a List of Shape objects
-    Path2D.Double path = new Path2D.Double();
-    ex = Double.MAX_VALUE; ey = Double.MAX_VALUE;
-    for (ShapeSeg seg : segs) {
-      if ((float) seg.sx != (float) ex || (float) seg.sy != (float) ey) {
-        path = new Path2D.Double();
-        out.add(path);
-        path.moveTo(ex = seg.sx, ey = seg.sy);
+      // Convert chain into a path
+      Path2D.Double path = new Path2D.Double();
+      path.moveTo(sx, sy);
+      for (int ii = head; ii < tail; ii++) {
+        segs.appendTo(path, chain[ii] >> 1, (chain[ii] & 1) == 1);
       }
-      switch (seg.type) {
-        case PathIterator.SEG_LINETO:   // 1
-          path.lineTo(ex = seg.coords[0], ey = seg.coords[1]);
-          break;
-        case PathIterator.SEG_QUADTO:   // 2
-          path.quadTo(seg.coords[0], seg.coords[1], ex = seg.coords[2], ey = seg.coords[3]);
-          break;
-        case PathIterator.SEG_CUBICTO:  // 3
-          path.curveTo(seg.coords[0], seg.coords[1], seg.coords[2], seg.coords[3], ex = seg.coords[4], ey = seg.coords[5]);
-          break;
-        case PathIterator.SEG_CLOSE:    // 4
-          // Close and write out the current curve
-          path.closePath();
-          break;
+      double dx = cx - sx, dy = cy - sy;
+      if (tail - head > 1 && dx * dx + dy * dy <= tol2) {
+        path.closePath();
       }
+      out.add(path);
     }
     return out;
   }
@@ -244,10 +288,31 @@ public class ShapeOptimizer {
     path.lineTo(2, 2);
     path.moveTo(2, 2);  // 2,2 -> 2,1 right
     path.lineTo(2, 1);
-    path.moveTo(1, 1);  // 1,1 -> 1,2 left
-    path.lineTo(1, 2);
+    path.moveTo(1, 1.00002);  // 1,1 -> 1,2 left (with micro-gaps)
+    path.lineTo(1.00003, 2);
     // Combine segments into continuous path
     List<Shape> list = optimizeShape(path);
     System.out.println(list.size());
+    // Time joining a grid of squares broken into randomly ordered segments with micro-gaps
+    Random rand = new Random(1234);
+    List<double[]> lines = new ArrayList<>();
+    for (int ii = 0; ii < 25000; ii++) {
+      double x = (ii % 250) * 2, y = (ii / 250) * 2;
+      double[][] pnts = {{x, y}, {x + 1, y}, {x + 1, y + 1}, {x, y + 1}};
+      for (int jj = 0; jj < 4; jj++) {
+        double[] p1 = pnts[jj], p2 = pnts[(jj + 1) % 4];
+        double gap = rand.nextDouble() * DEFAULT_TOLERANCE / 2;
+        lines.add(rand.nextBoolean() ? new double[] {p1[0], p1[1], p2[0] + gap, p2[1]} : new double[] {p2[0], p2[1] + gap, p1[0], p1[1]});
+      }
+    }
+    Collections.shuffle(lines, rand);
+    Path2D.Double big = new Path2D.Double();
+    for (double[] line : lines) {
+      big.moveTo(line[0], line[1]);
+      big.lineTo(line[2], line[3]);
+    }
+    long start = System.nanoTime();
+    list = optimizeShape(big);
+    System.out.printf("%d segments joined into %d paths in %.1f ms%n", lines.size(), list.size(), (System.nanoTime() - start) / 1e6);
   }
 }
@@ -167,10 +167,17 @@ class Silhouette implements LaserCut.OutputDevice {
         cmds.add("!" + Math.min(Math.max(speed, 1), 10));           // Drawing speed (value times 10 is centimeters/second)
         cmds.add("J" + Math.min(pen, pens));                        // 1 selects left pen, 2 selects right pen
         List<CADShape> cadShapes = laserCut.surface.selectLaserItems(true, false);
+        double toolX = 0, toolY = 0;
         for (CADShape cadShape : cadShapes) {
           if (!(cadShape instanceof CADRasterImage)) {
-            Shape shape = cadShape.getWorkspaceTranslatedShape();
-            cmds.addAll(shapeToSilhouette(shape));
+            Polylines poly = cadShape.getScaledPolylines(SCALE, .25);
+            if (poly.getPointCount() > 0) {
+              // Start each contour at the point closest to where the last one ended
+              poly = poly.withBestEntries(toolX, toolY);
+              toolX = poly.getX(poly.getPointCount() - 1);
+              toolY = poly.getY(poly.getPointCount() - 1);
+              cmds.addAll(shapeToSilhouette(poly));
+            }
           }
         }
         if (simulate) {
@@ -232,107 +239,25 @@ class Silhouette implements LaserCut.OutputDevice {
   }
 
   /**
-   * Convert a Shape object into the Silhouette commands needed to draw them
+   * Convert flattened Shape into the Silhouette commands needed to draw them
    * Note: each command must be terminated by 0x03 byte ("\u0003")
-   * @param shape Shape object to convert
+   * @param poly Polylines for Shape, scaled to Silhouette units
    * @return List of Silhouette command Strings
    */
-  private List<String> shapeToSilhouette (Shape shape) {
-    AffineTransform at = new AffineTransform();
-    at.scale(SCALE, SCALE);
+  private List<String> shapeToSilhouette (Polylines poly) {
     List<String> cmds = new ArrayList<>();
-    double firstX = 0;
-    double firstY = 0;
-    double lastX = 0;
-    double lastY = 0;
-    boolean hasFirst = false;
-    // Use PathIterator to generate sequence of line or curve segments
-    PathIterator pi = shape.getPathIterator(at);
-    while (!pi.isDone()) {
-      double[] coords = new double[6];      // p1.x, p1.y, p2.x, p2.y, p3.x, p3.y
-      int type = pi.currentSegment(coords);
-      // Reverse x/y values for Silhouette
-      coords = new double[] {coords[1], coords[0], coords[3], coords[2], coords[5], coords[4]};
-      int lastCmdsSize = cmds.size();
-      switch (type) {
-        case PathIterator.SEG_MOVETO:   // 0
-          // Move to start of a line, or Bezier curve segment
-          if (lastX != coords[0] || lastY != coords[1]) {
-            cmds.add("M" + df.format(lastX = coords[0]) + "," + df.format(lastY = coords[1]));
-          }
-          if (!hasFirst) {
-            firstX = coords[0];
-            firstY = coords[1];
-            hasFirst = true;
-          }
-          break;
-        case PathIterator.SEG_LINETO:   // 1
-          // Draw line from previous point to new point
-          cmds.add("D" + df.format(coords[0]) + "," + df.format(coords[1]));
-          lastX = coords[0];
-          lastY = coords[1];
-          break;
-        case PathIterator.SEG_QUADTO:   // 2
-          // Convert 3 point, quadratic Bezier curve into 4 point, cubic Bezier curve
-          coords = new double[] {
-              lastX + (2.0 * (coords[0] - lastX) / 3.0),
-              lastY + (2.0 * (coords[1] - lastY) / 3.0),
-              coords[2] + (2.0 * (coords[0] - coords[2]) / 3.0),
-              coords[3] + (2.0 * (coords[1] - coords[3]) / 3.0),
-              coords[2],
-              coords[3]
-          };
-          // Fall through to draw converted Bezier curve
-        case PathIterator.SEG_CUBICTO:  // 3
-          // Write 4 point, cubic Bezier curve
-            // Decompose 4 point, cubic Bezier curve into line segments
-            Point2D.Double[] tmp = new Point2D.Double[4];
-            Point2D.Double[] cControl = {
-              new Point2D.Double(lastX, lastY),                               // p1 (start)
-              new Point2D.Double(coords[0], coords[1]),                       // p2 (control point)
-              new Point2D.Double(coords[2], coords[3]),                       // p3 (control point)
-              new Point2D.Double(coords[4], coords[5])};                      // p4 (end)
-            double dist = cControl[0].distance(cControl[3]);
-            // Kludge: to increase number of line segments for larger curves
-            int segments = 16 * Math.max((int) Math.sqrt(dist / 100), 1);
-            //System.out.printf("        dist: %.2f, segments: %d\n", dist, segments);
-            for (int ii = 0; ii < segments; ii++) {
-              double t = ((double) ii) / (segments - 1);
-              for (int jj = 0; jj < cControl.length; jj++) {
-                tmp[jj] = new Point2D.Double(cControl[jj].x, cControl[jj].y);
-              }
-              for (int jj = 0; jj < cControl.length - 1; jj++) {
-                for (int kk = 0; kk < cControl.length - 1; kk++) {
-                  // Subdivide points
-                  tmp[kk].x -= (tmp[kk].x - tmp[kk + 1].x) * t;
-                  tmp[kk].y -= (tmp[kk].y - tmp[kk + 1].y) * t;
-                }
-              }
-              if (ii == 0) {
-                if (lastX != tmp[0].x || lastY != tmp[0].y) {
-                  // move to lastX, lastY
-                  cmds.add("M" + df.format(lastX = tmp[0].x) + "," + df.format(lastY = tmp[0].y));
-                }
-              } else {
-                // line to lastX, lastY
-                cmds.add("D" + df.format(lastX = tmp[0].x) + "," + df.format(lastY = tmp[0].y));
-              }
-            }
-          break;
-        case PathIterator.SEG_CLOSE:    // 4
-          // Close and write out the current curve
-          if (lastX != firstX || lastY != firstY) {
-            cmds.add("D" + df.format(firstX) + "," + df.format(firstY));
-          }
-          hasFirst = false;
-          break;
+    for (int cc = 0; cc < poly.getContourCount(); cc++) {
+      // Move to start of contour, then draw lines to each point (Note: reverse x/y values for Silhouette)
+      int start = poly.getStart(cc);
+      cmds.add("M" + df.format(poly.getY(start)) + "," + df.format(poly.getX(start)));
+      for (int pp = start + 1; pp < poly.getEnd(cc); pp++) {
+        cmds.add("D" + df.format(poly.getY(pp)) + "," + df.format(poly.getX(pp)));
       }
-      if (simulate) {
-        for (int ii = lastCmdsSize; ii < cmds.size(); ii++) {
-          System.out.println(cmds.get(ii));
-        }
+    }
+    if (simulate) {
+      for (String cmd : cmds) {
+        System.out.println(cmd);
       }
-      pi.next();
     }
     return cmds;
   }
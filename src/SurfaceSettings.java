@@ -32,6 +32,14 @@ public class SurfaceSettings implements Serializable {
     this.version = LaserCut.VERSION;
   }
 
+  public SurfaceSettings (Point viewPoint, double zoomFactor, double gridStep, int gridMajor, String version) {
+    this.viewPoint = viewPoint;
+    this.zoomFactor = zoomFactor;
+    this.gridStep = gridStep;
+    this.gridMajor = gridMajor;
+    this.version = version;
+  }
+
   public List<CADShape> getDesign () {
     return design;
   }
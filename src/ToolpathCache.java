@@ -0,0 +1,201 @@
+import java.awt.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Bounded LRU cache of flattened toolpaths (see CADShape.getScaledPolylines()) so multi-pass jobs and repeated
+ * sends of the same design don't re-flatten identical geometry.  Toolpaths offset for kerf compensation (see
+ * CADShape.getKerfCompensatedPolylines()) are cached, too, as PolygonOffset is slow.  Entries are keyed on the
+ * CADShape object, its geometry version, the scale, the flatten tolerance and the offset distance.  As a further check, each entry remembers the workspace
+ * Shape it was flattened from, which CADShape rebuilds whenever the shape is edited, moved or rotated.  The least
+ * recently used entries are evicted when the total number of cached points exceeds the limit.  When a new version of
+ * a shape is cached, the entries for its older versions are removed, and the cache only holds weak references to
+ * CADShapes, so entries for shapes that are deleted (or belong to a design that was closed) are removed once the
+ * shape is garbage collected.
+ *
+ * Note: the returned Polylines objects are shared, so callers must not call flatten() on them.
+ */
+class ToolpathCache {
+  private final Map<Key, Entry> cache = new LinkedHashMap<>(64, .75f, true);
+  private final Map<CADShape, List<Key>> byShape = new WeakHashMap<>();   // Keys cached for each shape
+  private final ReferenceQueue<CADShape> collected = new ReferenceQueue<>();
+  private final long            maxPoints;
+  private long                  points;
+  private long                  hits, misses, evictions;
+
+  // Note: the Key is put in the ReferenceQueue when its shape is garbage collected
+  private static class Key extends WeakReference<CADShape> {
+    private final int       version, hash;
+    private final double    scale, flatten, offset;
+
+    Key (CADShape shape, int version, double scale, double flatten, double offset, ReferenceQueue<CADShape> queue) {
+      super(shape, queue);
+      this.version = version;
+      this.scale = scale;
+      this.flatten = flatten;
+      this.offset = offset;
+      hash = (System.identityHashCode(shape) * 31 + version) * 31 + Double.hashCode(scale) * 17 +
+              Double.hashCode(flatten) + Double.hashCode(offset) * 13;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+      if (obj == this) {
+        return true;
+      } else if (obj instanceof Key) {
+        Key key = (Key) obj;
+        CADShape shape = get();
+        return shape != null && key.get() == shape && key.version == version && key.scale == scale &&
+                key.flatten == flatten && key.offset == offset;
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode () {
+      return hash;
+    }
+  }
+
+  private static class Entry {
+    private final Shape     source;
+    private final Polylines polylines;
+
+    Entry (Shape source, Polylines polylines) {
+      this.source = source;
+      this.polylines = polylines;
+    }
+  }
+
+  /**
+   * @param maxPoints maximum total number of points to keep in cached toolpaths
+   */
+  ToolpathCache (long maxPoints) {
+    this.maxPoints = maxPoints;
+  }
+
+  /**
+   * Get the cached toolpath for a shape, or flatten it and add it to the cache
+   * @param shape   CADShape to flatten
+   * @param scale   used to scale from inches to the render resolution, such as Screen or Laser DPI.
+   * @param flatten controls how closely the line segments follow the curve (smaller is closer)
+   * @return Polylines for the shape's workspace translated Shape
+   */
+  Polylines get (CADShape shape, double scale, double flatten) {
+    return get(shape, scale, flatten, 0);
+  }
+
+  /**
+   * Get the cached toolpath for a shape offset by a distance, or offset and flatten it and add it to the cache
+   * @param shape   CADShape to flatten
+   * @param scale   used to scale from inches to the render resolution, such as Screen or Laser DPI.
+   * @param flatten controls how closely the line segments follow the curve (smaller is closer)
+   * @param offset  distance (inches) to move the outline outward (positive), or inward (negative), or 0 for none
+   * @return Polylines for the shape's workspace translated, and offset Shape
+   */
+  synchronized Polylines get (CADShape shape, double scale, double flatten, double offset) {
+    removeCollected();
+    Shape source = shape.getWorkspaceTranslatedShape();
+    Key key = new Key(shape, shape.getGeometryVersion(), scale, flatten, offset, collected);
+    Entry entry = cache.get(key);
+    if (entry != null && entry.source == source) {
+      hits++;
+      return entry.polylines;
+    }
+    misses++;
+    if (entry != null) {
+      remove(key);
+    }
+    // Remove entries for older versions of the shape
+    List<Key> keys = byShape.get(shape);
+    if (keys != null) {
+      for (Key old : keys.toArray(new Key[0])) {
+        if (old.version != key.version) {
+          remove(old);
+        }
+      }
+    }
+    byShape.computeIfAbsent(shape, k -> new ArrayList<>()).add(key);
+    Shape outline = offset != 0 ? PolygonOffset.offset(source, offset, PolygonOffset.JOIN_ROUND, flatten / scale) : source;
+    Polylines polylines = new Polylines(outline, scale, flatten);
+    cache.put(key, new Entry(source, polylines));
+    points += polylines.getPointCount();
+    // Evict least recently used entries, but always keep the one just added
+    for (Iterator<Map.Entry<Key, Entry>> it = cache.entrySet().iterator(); points > maxPoints && cache.size() > 1; ) {
+      Map.Entry<Key, Entry> item = it.next();
+      points -= item.getValue().polylines.getPointCount();
+      it.remove();
+      forget(item.getKey());
+      evictions++;
+    }
+    return polylines;
+  }
+
+  private void remove (Key key) {
+    Entry entry = cache.remove(key);
+    if (entry != null) {
+      points -= entry.polylines.getPointCount();
+    }
+    forget(key);
+  }
+
+  // Remove key from the list of keys cached for its shape
+  private void forget (Key key) {
+    CADShape shape = key.get();
+    List<Key> keys = shape != null ? byShape.get(shape) : null;
+    if (keys != null) {
+      keys.removeIf(item -> item == key || item.equals(key));
+      if (keys.isEmpty()) {
+        byShape.remove(shape);
+      }
+    }
+  }
+
+  // Remove entries for shapes that have been garbage collected
+  private void removeCollected () {
+    for (Object ref; (ref = collected.poll()) != null; ) {
+      Entry entry = cache.remove(ref);
+      if (entry != null) {
+        points -= entry.polylines.getPointCount();
+      }
+    }
+  }
+
+  synchronized void clear () {
+    cache.clear();
+    byShape.clear();
+    points = 0;
+  }
+
+  synchronized long getHits () {
+    return hits;
+  }
+
+  synchronized long getMisses () {
+    return misses;
+  }
+
+  synchronized long getEvictions () {
+    return evictions;
+  }
+
+  synchronized int size () {
+    removeCollected();
+    return cache.size();
+  }
+
+  /**
+   * @return total number of points in all cached toolpaths
+   */
+  synchronized long getPointCount () {
+    return points;
+  }
+
+  @Override
+  public synchronized String toString () {
+    return "ToolpathCache: " + cache.size() + " entries, " + points + " points, " + hits + " hits, " + misses +
+            " misses, " + evictions + " evictions";
+  }
+}
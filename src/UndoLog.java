@@ -0,0 +1,515 @@
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Undo/Redo history used by DrawSurface.  Instead of serializing the whole design for every step, each Step
+ * records the order of the shapes List, the selected shape and a Memento of the fields of each CADShape (and of
+ * each CADShapeGroup they belong to).  A Memento is reused from the previous step whenever the object's fields
+ * haven't changed, so each new step only allocates memory for the shapes that were actually changed.  Restoring
+ * a step writes the saved field values back into the same CADShape objects, which keeps references between
+ * shapes (groups, CNCPath base shapes) intact without deserializing anything.
+ *
+ * Note: transient fields declared in CADShape itself (selection state, cached geometry and ChangeListeners) are
+ * display state and are not recorded.  Byte sizes are estimates of the memory each step adds.  Shapes (such as the
+ * outline of an imported shape) are shared with the design, rather than copied, so they're counted once, and
+ * only while they're held by undo or redo steps after the design no longer uses them.  CADShapes that have been
+ * deleted from the design, but are still held by steps, are counted the same way.
+ */
+class UndoLog {
+  static final int                            MAX_STEPS = 200;
+  private static final Map<Class<?>, Field[]> fieldCache = new HashMap<>();
+  private final LinkedList<Step>              undoStack = new LinkedList<>();
+  private final LinkedList<Step>              redoStack = new LinkedList<>();
+  private Map<Object, Memento>                lastCapture = new IdentityHashMap<>();
+  private Step                                lastStep;
+  private final Map<Object, long[]>          retained = new IdentityHashMap<>();   // {step count, bytes}
+  private Set<Object>                         live = Collections.emptySet();
+  private long                                budget;
+  private long                                totalBytes;     // Bytes added by each step
+  private long                                retainedBytes;  // Bytes of Shapes and CADShapes only held by steps
+
+  static class Step {
+    private final CADShape[]  shapes;
+    private final CADShape    selected;
+    private final Object[]    objects;      // CADShape and CADShapeGroup objects recorded in this step
+    private final Memento[]   mementos;
+    private final Object[]    refs;         // CADShapes and Shapes this step keeps in memory
+    private final long        bytes;
+
+    private Step (CADShape[] shapes, CADShape selected, Object[] objects, Memento[] mementos, Object[] refs,
+                  long bytes) {
+      this.shapes = shapes;
+      this.selected = selected;
+      this.objects = objects;
+      this.mementos = mementos;
+      this.refs = refs;
+      this.bytes = bytes;
+    }
+
+    CADShape getSelected () {
+      return selected;
+    }
+
+    /**
+     * Write the recorded field values back into the recorded objects and call updateShape() on any CADShape
+     * that changed so cached geometry is rebuilt and ChangeListeners are notified
+     * @return the shapes List as it was when the step was recorded
+     */
+    ArrayList<CADShape> restore () {
+      List<CADShape> changed = new ArrayList<>();
+      for (int ii = 0; ii < objects.length; ii++) {
+        if (mementos[ii].restore(objects[ii]) && objects[ii] instanceof CADShape) {
+          changed.add((CADShape) objects[ii]);
+        }
+      }
+      for (CADShape shape : changed) {
+        shape.updateShape();
+      }
+      return new ArrayList<>(Arrays.asList(shapes));
+    }
+  }
+
+  /**
+   * @param budget maximum estimated bytes to use for undo and redo steps
+   */
+  UndoLog (long budget) {
+    this.budget = budget;
+  }
+
+  void setBudget (long budget) {
+    this.budget = budget;
+    trim();
+  }
+
+  long getBudget () {
+    return budget;
+  }
+
+  /**
+   * @return estimated number of bytes used by all undo and redo steps
+   */
+  long getByteSize () {
+    return totalBytes + retainedBytes;
+  }
+
+  int getUndoCount () {
+    return undoStack.size();
+  }
+
+  int getRedoCount () {
+    return redoStack.size();
+  }
+
+  boolean canUndo () {
+    return undoStack.size() > 0;
+  }
+
+  boolean canRedo () {
+    return redoStack.size() > 0;
+  }
+
+  /**
+   * Record the current state as a new undo step and clear the redo steps
+   * @param shapes current shapes List
+   * @param selected currently selected shape, or null
+   */
+  void push (List<CADShape> shapes, CADShape selected) {
+    Step step = capture(shapes, selected);
+    setLive(step);
+    addStep(step);
+    undoStack.addFirst(step);
+    for (Step redo : redoStack) {
+      removeStep(redo);
+    }
+    redoStack.clear();
+    trim();
+  }
+
+  /**
+   * Record the current state as a redo step and return the most recent undo step
+   * @param shapes current shapes List
+   * @param selected currently selected shape, or null
+   * @return Step to restore
+   */
+  Step undo (List<CADShape> shapes, CADShape selected) {
+    Step redo = capture(shapes, selected);
+    addStep(redo);
+    redoStack.addFirst(redo);
+    Step step = undoStack.pollFirst();
+    setLive(step);
+    removeStep(step);
+    return step;
+  }
+
+  /**
+   * Record the current state as an undo step and return the most recent redo step
+   * @param shapes current shapes List
+   * @param selected currently selected shape, or null
+   * @return Step to restore
+   */
+  Step redo (List<CADShape> shapes, CADShape selected) {
+    Step undo = capture(shapes, selected);
+    addStep(undo);
+    undoStack.addFirst(undo);
+    Step step = redoStack.pollFirst();
+    setLive(step);
+    removeStep(step);
+    return step;
+  }
+
+  // Drop the oldest undo steps until under MAX_STEPS and the memory budget (always keeps one step)
+  private void trim () {
+    while (undoStack.size() > 1 && (undoStack.size() > MAX_STEPS || getByteSize() > budget)) {
+      removeStep(undoStack.removeLast());
+    }
+  }
+
+  // Count the bytes of a step and of any CADShapes and Shapes it holds that aren't already held by another step
+  private void addStep (Step step) {
+    totalBytes += step.bytes;
+    for (Object ref : step.refs) {
+      long[] count = retained.computeIfAbsent(ref, obj -> new long[] {0, refSize(obj)});
+      if (count[0]++ == 0 && !live.contains(ref)) {
+        retainedBytes += count[1];
+      }
+    }
+  }
+
+  private void removeStep (Step step) {
+    totalBytes -= step.bytes;
+    for (Object ref : step.refs) {
+      long[] count = retained.get(ref);
+      if (--count[0] == 0) {
+        retained.remove(ref);
+        if (!live.contains(ref)) {
+          retainedBytes -= count[1];
+        }
+      }
+    }
+  }
+
+  /**
+   * Set the CADShapes and Shapes used by the design to those held by a step (the design is either captured as a
+   * new step, or restored from one), as these are only counted while the design no longer uses them
+   */
+  private void setLive (Step step) {
+    Set<Object> newLive = Collections.newSetFromMap(new IdentityHashMap<>());
+    newLive.addAll(Arrays.asList(step.refs));
+    for (Object ref : live) {
+      long[] count = retained.get(ref);
+      if (count != null && !newLive.contains(ref)) {
+        retainedBytes += count[1];
+      }
+    }
+    for (Object ref : newLive) {
+      long[] count = retained.get(ref);
+      if (count != null && !live.contains(ref)) {
+        retainedBytes -= count[1];
+      }
+    }
+    live = newLive;
+  }
+
+  /**
+   * Build a Step for the current state.  The arrays from the last captured Step are reused when nothing in them
+   * has changed, so steps that only change the selection, or a few shapes, add very little memory.
+   */
+  private Step capture (List<CADShape> shapes, CADShape selected) {
+    Map<Object, Memento> capture = new LinkedHashMap<>();      // Note: CADShape and CADShapeGroup use identity equals()
+    long bytes = 64;
+    for (CADShape shape : shapes) {
+      bytes += record(shape, capture);
+      CADShapeGroup group = shape.getGroup();
+      if (group != null) {
+        bytes += record(group, capture);
+      }
+    }
+    if (selected != null) {
+      bytes += record(selected, capture);
+    }
+    lastCapture = capture;
+    CADShape[] shapeArray = shapes.toArray(new CADShape[0]);
+    Object[] objects = capture.keySet().toArray();
+    Memento[] mementos = new Memento[objects.length];
+    for (int ii = 0; ii < objects.length; ii++) {
+      mementos[ii] = capture.get(objects[ii]);
+    }
+    if (lastStep != null && sameItems(shapeArray, lastStep.shapes)) {
+      shapeArray = lastStep.shapes;
+    } else {
+      bytes += 16 + 8L * shapeArray.length;
+    }
+    Object[] refs;
+    if (lastStep != null && sameItems(objects, lastStep.objects) && sameItems(mementos, lastStep.mementos)) {
+      objects = lastStep.objects;
+      mementos = lastStep.mementos;
+      refs = lastStep.refs;
+    } else {
+      bytes += 32 + 16L * objects.length;
+      Set<Object> refSet = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (int ii = 0; ii < objects.length; ii++) {
+        if (objects[ii] instanceof CADShape) {
+          refSet.add(objects[ii]);
+        }
+        refSet.addAll(Arrays.asList(mementos[ii].shapes));
+      }
+      refs = refSet.toArray();
+    }
+    return lastStep = new Step(shapeArray, selected, objects, mementos, refs, bytes);
+  }
+
+  private static boolean sameItems (Object[] items1, Object[] items2) {
+    if (items1.length != items2.length) {
+      return false;
+    }
+    for (int ii = 0; ii < items1.length; ii++) {
+      if (items1[ii] != items2[ii]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Add a Memento for obj to capture, reusing the one from the last capture if obj hasn't changed
+   * @return estimated bytes of newly allocated Memento, or 0 if reused
+   */
+  private long record (Object obj, Map<Object, Memento> capture) {
+    if (capture.containsKey(obj)) {
+      return 0;
+    }
+    Memento last = lastCapture.get(obj);
+    if (last != null && last.matches(obj)) {
+      capture.put(obj, last);
+      return 0;
+    }
+    Memento memento = new Memento(obj);
+    capture.put(obj, memento);
+    return memento.bytes;
+  }
+
+  /*
+   * * * * * * * Memento of an Object's fields * * * * * * * *
+   */
+
+  private static class Memento {
+    private final Field[]   fields;
+    private final Object[]  values;
+    private final Shape[]   shapes;         // Shared (not copied) Shape values, which are counted by refSize()
+    private final long      bytes;
+
+    Memento (Object obj) {
+      fields = getFields(obj.getClass());
+      values = new Object[fields.length];
+      List<Shape> shared = new ArrayList<>();
+      long size = 16 + 8L * fields.length;
+      try {
+        for (int ii = 0; ii < fields.length; ii++) {
+          values[ii] = copyValue(fields[ii].get(obj));
+          size += sizeOf(values[ii]);
+          if (values[ii] instanceof Shape && !(values[ii] instanceof Rectangle2D)) {
+            shared.add((Shape) values[ii]);
+          }
+        }
+      } catch (IllegalAccessException ex) {
+        ex.printStackTrace();
+      }
+      shapes = shared.toArray(new Shape[0]);
+      bytes = size;
+    }
+
+    boolean matches (Object obj) {
+      try {
+        for (int ii = 0; ii < fields.length; ii++) {
+          if (!valueEquals(values[ii], fields[ii].get(obj))) {
+            return false;
+          }
+        }
+        return true;
+      } catch (IllegalAccessException ex) {
+        ex.printStackTrace();
+      }
+      return false;
+    }
+
+    /**
+     * Write saved values into any fields that differ
+     * @return true if any field was changed
+     */
+    boolean restore (Object obj) {
+      boolean changed = false;
+      try {
+        for (int ii = 0; ii < fields.length; ii++) {
+          if (!valueEquals(values[ii], fields[ii].get(obj))) {
+            fields[ii].set(obj, copyValue(values[ii]));
+            changed = true;
+          }
+        }
+      } catch (IllegalAccessException ex) {
+        ex.printStackTrace();
+      }
+      return changed;
+    }
+  }
+
+  /**
+   * Get the fields to record for a class, which are all the non static fields in the class hierarchy, except
+   * for the transient fields declared in CADShape
+   */
+  private static Field[] getFields (Class<?> clazz) {
+    return fieldCache.computeIfAbsent(clazz, cls -> {
+      List<Field> list = new ArrayList<>();
+      for (Class<?> cc = cls; cc != null && cc != Object.class; cc = cc.getSuperclass()) {
+        for (Field fld : cc.getDeclaredFields()) {
+          int mods = fld.getModifiers();
+          if (Modifier.isStatic(mods) || (cc == CADShape.class && Modifier.isTransient(mods))) {
+            continue;
+          }
+          fld.setAccessible(true);
+          list.add(fld);
+        }
+      }
+      return list.toArray(new Field[0]);
+    });
+  }
+
+  // Copy values that can be changed in place (arrays, Lists and points), else return the same reference
+  private static Object copyValue (Object value) {
+    if (value == null) {
+      return null;
+    } else if (value.getClass().isArray()) {
+      int len = Array.getLength(value);
+      Object copy = Array.newInstance(value.getClass().getComponentType(), len);
+      if (value.getClass().getComponentType().isPrimitive()) {
+        System.arraycopy(value, 0, copy, 0, len);
+      } else {
+        for (int ii = 0; ii < len; ii++) {
+          Array.set(copy, ii, copyValue(Array.get(value, ii)));
+        }
+      }
+      return copy;
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<Object> copy = new ArrayList<>(list.size());
+      for (Object item : list) {
+        copy.add(copyValue(item));
+      }
+      return copy;
+    } else if (value instanceof Point2D) {
+      return ((Point2D) value).clone();
+    } else if (value instanceof Rectangle2D) {
+      return ((Rectangle2D) value).clone();
+    } else if (value instanceof Dimension) {
+      return new Dimension((Dimension) value);
+    }
+    return value;
+  }
+
+  private static boolean valueEquals (Object saved, Object current) {
+    if (saved == current) {
+      return true;
+    } else if (saved == null || current == null) {
+      return false;
+    } else if (saved.getClass().isArray() && current.getClass().isArray()) {
+      return Arrays.deepEquals(new Object[] {saved}, new Object[] {current});
+    } else if (saved instanceof List && current instanceof List) {
+      List<?> sList = (List<?>) saved;
+      List<?> cList = (List<?>) current;
+      if (sList.size() != cList.size()) {
+        return false;
+      }
+      for (int ii = 0; ii < sList.size(); ii++) {
+        if (!valueEquals(sList.get(ii), cList.get(ii))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return saved.equals(current);
+  }
+
+  /**
+   * Rough estimate of the heap used by a CADShape, or Shape held by steps.  A CADShape is counted as its fields
+   * plus its built Shape and the cached local and workspace copies of it (its Shape fields are counted separately).
+   */
+  private static long refSize (Object ref) {
+    if (ref instanceof CADShape) {
+      CADShape cadShape = (CADShape) ref;
+      long size = 16 + 8L * getFields(cadShape.getClass()).length;
+      if (cadShape.builtShape != null) {
+        // Note: builtShape is usually the shape field for imported shapes, which is counted as a Shape
+        size += (cadShape.builtShape != cadShape.shape ? 3 : 2) * shapeSize(cadShape.builtShape);
+      }
+      return size;
+    }
+    return shapeSize((Shape) ref);
+  }
+
+  // Estimate the heap used by a Shape from its number of segments and coordinates
+  private static long shapeSize (Shape shape) {
+    if (!(shape instanceof Path2D) && !(shape instanceof Area)) {
+      return 48;
+    }
+    long segments = 0, coords = 0;
+    double[] pnts = new double[6];
+    for (PathIterator pi = shape.getPathIterator(null); !pi.isDone(); pi.next()) {
+      switch (pi.currentSegment(pnts)) {
+        case PathIterator.SEG_MOVETO:
+        case PathIterator.SEG_LINETO:
+          coords += 2;
+          break;
+        case PathIterator.SEG_QUADTO:
+          coords += 4;
+          break;
+        case PathIterator.SEG_CUBICTO:
+          coords += 6;
+          break;
+      }
+      segments++;
+    }
+    // Path2D.Double uses a byte per segment and 8 bytes per coordinate, Area keeps an object for each segment
+    return shape instanceof Area ? 32 + 48 * segments + 8 * coords : 64 + segments + 8 * coords;
+  }
+
+  // Rough estimate of the heap used by a copied value (shared references count as a pointer)
+  private static long sizeOf (Object value) {
+    if (value == null) {
+      return 0;
+    } else if (value.getClass().isArray()) {
+      int len = Array.getLength(value);
+      Class<?> type = value.getClass().getComponentType();
+      if (type == boolean.class || type == byte.class) {
+        return 16 + len;
+      } else if (type == char.class || type == short.class) {
+        return 16 + 2L * len;
+      } else if (type == int.class || type == float.class) {
+        return 16 + 4L * len;
+      } else if (type.isPrimitive()) {
+        return 16 + 8L * len;
+      }
+      long size = 16 + 8L * len;
+      for (int ii = 0; ii < len; ii++) {
+        size += sizeOf(Array.get(value, ii));
+      }
+      return size;
+    } else if (value instanceof List) {
+      long size = 24 + 8L * ((List<?>) value).size();
+      for (Object item : (List<?>) value) {
+        size += sizeOf(item);
+      }
+      return size;
+    } else if (value instanceof Point2D || value instanceof Rectangle2D || value instanceof Dimension) {
+      return 32;
+    }
+    return 0;
+  }
+}
@@ -205,6 +205,7 @@ public class Utils2D {
    * is assumed to be defined in inches, but the AffineTransform parameter can be used to scale up to the
    * final render resolution.  Note: cubic and quadratic bezier curves calculate an approximaiton of the
    * arc length of the curve to determine the number of line segments used to approximate the curve.
+   * Note: allocates a Line2D.Double for every segment, so use Polylines, instead, where possible
    *
    * @param shape   Shape path to render
    * @param scale   used to scale from inches to the render resolution, such as Screen or Laser DPI.
@@ -212,45 +213,7 @@ public class Utils2D {
    * @return List of array of lines
    */
   static java.util.List<Line2D.Double[]> transformShapeToLines (Shape shape, double scale, double flatten) {
-    // Convert Shape into a series of lines defining a path
-    java.util.List<Line2D.Double[]> paths = new ArrayList<>();
-    AffineTransform at = scale != 1.0 ? AffineTransform.getScaleInstance(scale, scale) : null;
-    ArrayList<Line2D.Double> lines = new ArrayList<>();
-    // Use FlatteningPathIterator to convert to line segments
-    PathIterator pi = shape.getPathIterator(at);
-    FlatteningPathIterator fpi = new FlatteningPathIterator(pi, flatten, 8);
-    double[] coords = new double[4];
-    double lastX = 0, lastY = 0, firstX = 0, firstY = 0;
-    while (!fpi.isDone()) {
-      int type = fpi.currentSegment(coords);
-      switch (type) {
-        case FlatteningPathIterator.SEG_MOVETO:
-          if (lines.size() > 0) {
-            paths.add(lines.toArray(new Line2D.Double[0]));
-            lines = new ArrayList<>();
-          }
-          firstX = lastX = coords[0];
-          firstY = lastY = coords[1];
-          lines = new ArrayList<>();
-          break;
-        case FlatteningPathIterator.SEG_LINETO:
-          lines.add(new Line2D.Double(lastX, lastY, coords[0], coords[1]));
-          lastX = coords[0];
-          lastY = coords[1];
-          break;
-        case FlatteningPathIterator.SEG_CLOSE:
-          if (lastX != firstX || lastY != firstY) {
-            lines.add(new Line2D.Double(lastX, lastY, firstX, firstY));
-          }
-          break;
-      }
-      fpi.next();
-    }
-    if (lines.size() > 0) {
-      paths.add(lines.toArray(new Line2D.Double[0]));
-      lines = new ArrayList<>();
-    }
-    return paths;
+    return new Polylines(shape, scale, flatten).toLines();
   }
 
   /**
@@ -380,11 +343,11 @@ public class Utils2D {
    * @return an Area Shape object
    */
   public static Shape listOfCADShapesToArea (List<CADShape> shapes) {
-    Area area = new Area();
+    List<Shape> list = new ArrayList<>(shapes.size());
     for (CADShape shape : shapes) {
-      area.add(new Area(shape.getShape()));
+      list.add(shape.getShape());
     }
-    return area;
+    return AreaUnion.union(list);
   }
 
   /**
@@ -7,7 +7,6 @@ import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.ItemEvent;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -81,6 +80,8 @@ class ZingLaser implements LaserCut.OutputDevice {
         rasterProperties.setProperty("frequency", ZING_FREQ_DEFAUlT);
         rasterProperties.setProperty("focus", 0.0f);
         boolean planPath = prefs.getBoolean("zing.pathplan", true);
+        double kerf = prefs.getDouble("zing.kerf", 0);
+        PathPlanner.Stats planStats = planPath ? new PathPlanner.Stats() : null;
         LaserJob job = new LaserJob("laserCut", "laserCut", "laserCut");   // title, name, user
         // Process raster engrave passes, if any
         for (CADShape shape : laserCut.surface.getDesign()) {
@@ -109,30 +110,28 @@ class ZingLaser implements LaserCut.OutputDevice {
         for (int ii = 0; ii < 2; ii++) {
           boolean doCut = ii == 1;
           // Transform all the shapesInGroup into a series of line segments
-          int lastX = 0, lastY = 0;
           VectorPart vp = new VectorPart(doCut ? cutProperties : engraveProperties, ZING_PPI);
           // Loop detects pen up/pen down based on start and end points of line segments
           boolean hasVector = false;
-          List<CADShape> shapes = laserCut.surface.selectLaserItems(doCut, planPath);
+          List<CADShape> shapes = laserCut.surface.selectLaserItems(doCut, planPath, planStats);
+          Map<CADShape, Integer> depths = doCut && kerf > 0 ? PathPlanner.getNestingDepths(shapes) : Collections.emptyMap();
+          double toolX = 0, toolY = 0;
           for (CADShape shape : shapes) {
-            for (Line2D.Double[] lines : shape.getListOfScaledLines(ZING_PPI, .001)) {
-              if (lines.length > 0) {
-                hasVector = true;
-                boolean first = true;
-                for (Line2D.Double line : lines) {
-                  Point p1 = new Point((int) Math.round(line.x1), (int) Math.round(line.y1));
-                  Point p2 = new Point((int) Math.round(line.x2), (int) Math.round(line.y2));
-                  if (first) {
-                    vp.moveto(p1.x, p1.y);
-                    vp.lineto(lastX = p2.x, lastY = p2.y);
-                  } else {
-                    if (lastX != p1.x || lastY != p1.y) {
-                      vp.moveto(p1.x, p1.y);
-                    }
-                    vp.lineto(lastX = p2.x, lastY = p2.y);
-                  }
-                  first = false;
-                }
+            boolean hole = (depths.getOrDefault(shape, 0) & 1) != 0;
+            Polylines poly = shape.getKerfCompensatedPolylines(kerf, hole, ZING_PPI, .001);
+            if (planPath && poly.getPointCount() > 0) {
+              // Start each contour at the point closest to where the last one ended
+              poly = poly.withBestEntries(toolX, toolY);
+              toolX = poly.getX(poly.getPointCount() - 1);
+              toolY = poly.getY(poly.getPointCount() - 1);
+            }
+            for (int cc = 0; cc < poly.getContourCount(); cc++) {
+              // Note: each contour is a connected run of points, so only its first point needs a moveto
+              hasVector = true;
+              int start = poly.getStart(cc);
+              vp.moveto((int) Math.round(poly.getX(start)), (int) Math.round(poly.getY(start)));
+              for (int pp = start + 1; pp < poly.getEnd(cc); pp++) {
+                vp.lineto((int) Math.round(poly.getX(pp)), (int) Math.round(poly.getY(pp)));
               }
             }
             if (hasVector) {
@@ -140,7 +139,7 @@ class ZingLaser implements LaserCut.OutputDevice {
             }
           }
         }
-        new ZingSender(laserCut, lasercutter, job);
+        new ZingSender(laserCut, lasercutter, job, planStats);
       }
     });
     zingMenu.add(sendToZing);
@@ -176,6 +175,7 @@ class ZingLaser implements LaserCut.OutputDevice {
           new ParameterDialog.ParmItem("Raster Speed", prefs.getInt("zing.rspeed", ZING_SPEED_DEFAUlT)),
           new ParameterDialog.ParmItem(new JSeparator()),
           new ParameterDialog.ParmItem("Use Path Planner", prefs.getBoolean("zing.pathplan", true)),
+          new ParameterDialog.ParmItem("Kerf Width|in{width of cut, or 0 for no kerf compensation}", prefs.getDouble("zing.kerf", 0)),
 
       };
       matMenu.addItemListener(ev2 -> {
@@ -209,6 +209,7 @@ class ZingLaser implements LaserCut.OutputDevice {
         prefs.putInt("zing.rpower", (Integer) parmSet[12].value);
         prefs.putInt("zing.rspeed", (Integer) parmSet[13].value);
         prefs.putBoolean("zing.pathplan", (Boolean) parmSet[15].value);
+        prefs.putDouble("zing.kerf", (Double) parmSet[16].value);
       }
     });
     zingMenu.add(zingSettings);
@@ -231,7 +232,7 @@ class ZingLaser implements LaserCut.OutputDevice {
     private final JProgressBar    progress;
     private final JTextArea       status;
 
-    ZingSender (LaserCut laserCut, EpilogZing lasercutter, LaserJob job) {
+    ZingSender (LaserCut laserCut, EpilogZing lasercutter, LaserJob job, PathPlanner.Stats planStats) {
       super(laserCut);
       setTitle(ZingLaser.this.getName() + " Monitor");
       this.lasercutter = lasercutter;
@@ -248,6 +249,9 @@ class ZingLaser implements LaserCut.OutputDevice {
       setLocation(loc.x + loc.width / 2 - 150, loc.y + loc.height / 2 - 75);
       setVisible(true);
       new Thread(this).start();
+      if (planStats != null) {
+        status.append("Path planner " + planStats + "\n");
+      }
       status.append("Starting Job...\n");
       paint(getGraphics());       // Kludge to get JTextArea to update
     }